@@ -0,0 +1,66 @@
+package backupsystem.benchmarks;
+
+import backupsystem.agents.Peer;
+import backupsystem.agents.PeerClient;
+import backupsystem.agents.Server;
+import backupsystem.interfaces.PeerInterface;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+// A server and some peers in this JVM, talking through the RMI loopback as on a real network
+class LoopbackCluster implements AutoCloseable {
+    private static final Duration DEADLINE = Duration.ofSeconds(30);
+
+    private final Registry registry;
+    private final Server server;
+    private final List<Peer> peers;
+    private final List<PeerClient> clients;
+
+    LoopbackCluster(int peerCount) throws Exception {
+        registry = LocateRegistry.createRegistry(1099);
+        server = new Server();
+        registry.rebind("Server", server);
+        peers = new ArrayList<>();
+        clients = new ArrayList<>();
+
+        for (int i = 0; i < peerCount; i++) {
+            Peer peer = new Peer();
+            PeerClient client = new PeerClient(peer);
+            client.subscribe("localhost", DEADLINE).get();
+            peers.add(peer);
+            clients.add(client);
+        }
+    }
+
+    Peer getPeer(int index) {
+        return peers.get(index);
+    }
+
+    // the stub goes through serialization and the socket, calling the peer object would not
+    PeerInterface getStub(int index) throws NoSuchObjectException {
+        return (PeerInterface) RemoteObject.toStub(peers.get(index));
+    }
+
+    @Override
+    public void close() throws Exception {
+        // unsubscribing deletes the backups the peers received
+        for (PeerClient client : clients) {
+            try {
+                client.unsubscribe(DEADLINE).get();
+            } catch (Exception e) {
+                System.err.println("Cannot unsubscribe peer: " + e.getMessage());
+            }
+        }
+        for (Peer peer : peers)
+            UnicastRemoteObject.unexportObject(peer, true);
+        UnicastRemoteObject.unexportObject(server, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+}
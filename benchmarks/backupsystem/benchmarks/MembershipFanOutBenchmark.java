@@ -0,0 +1,79 @@
+package backupsystem.benchmarks;
+
+import backupsystem.datastructures.MembershipDelta;
+import backupsystem.datastructures.PeerInfo;
+import backupsystem.datastructures.PeerList;
+import backupsystem.interfaces.PeerInterface;
+import backupsystem.membership.MembershipPublisher;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Time from a membership change on the server until every peer has applied it over the RMI loopback.
+// The server fans out through its publisher, the recipients only count the deltas they receive
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MembershipFanOutBenchmark {
+    @Param({"10", "100", "1000"})
+    private int peers;
+
+    private MembershipPublisher publisher;
+    private List<PeerInterface> exported;
+    private List<PeerInfo> recipients;
+    private PeerInfo changedPeer;
+    private volatile CountDownLatch delivered;
+    private long epoch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        publisher = new MembershipPublisher(PeerList::new);
+        exported = new ArrayList<>();
+        recipients = new ArrayList<>();
+
+        for (int i = 0; i < peers; i++) {
+            PeerInterface recipient = newRecipient();
+            exported.add(recipient);
+            recipients.add(new PeerInfo("peer-" + i, "127.0.0.1", (PeerInterface) UnicastRemoteObject.exportObject(recipient, 0)));
+        }
+        changedPeer = recipients.get(0);
+        epoch = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        publisher.shutdown();
+        for (PeerInterface recipient : exported)
+            UnicastRemoteObject.unexportObject(recipient, true);
+    }
+
+    @Benchmark
+    public void publishToAllPeers() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(peers);
+        delivered = latch;
+        publisher.publish(recipients, new MembershipDelta(++epoch, MembershipDelta.Type.ADDED, changedPeer));
+        latch.await();
+    }
+
+    private PeerInterface newRecipient() {
+        return (PeerInterface) Proxy.newProxyInstance(PeerInterface.class.getClassLoader(),
+                new Class<?>[] { PeerInterface.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "applyMembershipDelta", "updatePeerList" -> {
+                        delivered.countDown();
+                        yield null;
+                    }
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "recipient";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
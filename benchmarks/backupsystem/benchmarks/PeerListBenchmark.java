@@ -0,0 +1,73 @@
+package backupsystem.benchmarks;
+
+import backupsystem.datastructures.PeerInfo;
+import backupsystem.datastructures.PeerList;
+import backupsystem.exceptions.DuplicateElementException;
+import backupsystem.interfaces.PeerInterface;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+// Lookups in the peer list and the list handed to a peer without itself, from 10 to 10k peers.
+// The stubs are local proxies with identity equality, like remote stubs with distinct object ids
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerListBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    private int peers;
+
+    private PeerList list;
+    private PeerInfo lastPeer;
+    private PeerInfo extraPeer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DuplicateElementException {
+        list = new PeerList();
+        for (int i = 0; i < peers; i++)
+            list.add(newPeer(i));
+        // the last one subscribed is the worst case for anything that scans the list
+        lastPeer = list.get(peers - 1);
+        extraPeer = newPeer(peers);
+    }
+
+    @Benchmark
+    public PeerInfo getElementByName() {
+        return list.getElementByName(lastPeer.getName());
+    }
+
+    @Benchmark
+    public PeerInfo getElementByStub() {
+        return list.getElementByStub(lastPeer.getStub());
+    }
+
+    // what the server pays for every request after the first
+    @Benchmark
+    public PeerList getListWithoutPeer() {
+        return list.getListWithoutPeer(lastPeer.getName());
+    }
+
+    // a peer subscribes and leaves, then the list without a peer is computed again
+    @Benchmark
+    public PeerList getListWithoutPeerAfterChange() throws DuplicateElementException {
+        list.add(extraPeer);
+        list.remove(extraPeer);
+        return list.getListWithoutPeer(lastPeer.getName());
+    }
+
+    private static PeerInfo newPeer(int index) {
+        String name = "peer-" + index;
+        PeerInterface stub = (PeerInterface) Proxy.newProxyInstance(PeerInterface.class.getClassLoader(),
+                new Class<?>[] { PeerInterface.class }, (proxy, method, args) -> switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "toString" -> "stub of " + name;
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        return new PeerInfo(name, "127.0.0.1", stub);
+    }
+}
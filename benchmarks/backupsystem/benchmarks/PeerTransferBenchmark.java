@@ -0,0 +1,55 @@
+package backupsystem.benchmarks;
+
+import backupsystem.interfaces.PeerInterface;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.AbstractMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Single call backup and recovery of a whole file between two peers, over the RMI loopback.
+// Bytes per second are the score times fileSize
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class PeerTransferBenchmark {
+    @Param({"4096", "1048576", "16777216"})
+    private int fileSize;
+
+    private LoopbackCluster cluster;
+    private PeerInterface owner;
+    private PeerInterface target;
+    private File file;
+    private byte[] fileData;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        cluster = new LoopbackCluster(2);
+        owner = cluster.getStub(0);
+        target = cluster.getStub(1);
+        file = new File("benchmark-" + fileSize + ".bin");
+        fileData = new byte[fileSize];
+        new Random(fileSize).nextBytes(fileData);
+        // the file to recover is stored once before the measurements
+        target.backupFile(file, fileData, owner);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cluster.close();
+    }
+
+    @Benchmark
+    public void backupFile() throws Exception {
+        target.backupFile(file, fileData, owner);
+    }
+
+    @Benchmark
+    public AbstractMap.SimpleImmutableEntry<File,byte[]> getBackedUpFile() throws Exception {
+        return target.getBackedUpFile(file.getName(), owner);
+    }
+}
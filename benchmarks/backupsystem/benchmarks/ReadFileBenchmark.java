@@ -0,0 +1,71 @@
+package backupsystem.benchmarks;
+
+import backupsystem.io.FileSliceReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Reading a whole file before sending it. Run with -prof gc: the allocation rate per operation
+// is the figure to watch. streamCopy is how Peer.readFileFromDisk read files before FileSliceReader,
+// kept as the baseline; checksumSlices is the one pass the chunked upload makes over a file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class ReadFileBenchmark {
+    @Param({"4096", "1048576", "16777216"})
+    private int fileSize;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = File.createTempFile("benchmark-", ".bin");
+        byte[] data = new byte[fileSize];
+        new Random(fileSize).nextBytes(data);
+        Files.write(file.toPath(), data);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public byte[] streamCopy() throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = fis.read(buffer)) != -1) {
+                baos.write(buffer, 0, n);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public byte[] readAll() throws IOException {
+        return FileSliceReader.readAll(file.toPath());
+    }
+
+    @Benchmark
+    public long checksumSlices() throws IOException {
+        long checksum = 0;
+        try (FileSliceReader reader = FileSliceReader.open(file.toPath(), 0, Long.MAX_VALUE, 1024 * 1024)) {
+            ByteBuffer slice;
+            while ((slice = reader.next()) != null)
+                checksum ^= FileSliceReader.checksum(slice);
+        }
+        return checksum;
+    }
+}
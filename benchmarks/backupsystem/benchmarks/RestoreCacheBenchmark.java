@@ -0,0 +1,87 @@
+package backupsystem.benchmarks;
+
+import backupsystem.storage.BackupStorage;
+import backupsystem.storage.BlockCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Owners restoring files from a serving peer, a few files asked far more often than the others
+// (Zipf-like, as after a shared outage) and the stored files larger than the cache.
+// NONE reads every file from disk, as BackupStorage.read did before the restore cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+public class RestoreCacheBenchmark {
+    private static final String OWNER = "owner";
+    private static final int FILE_COUNT = 512;
+    private static final int FILE_SIZE = 256 * 1024;
+    private static final long CACHE_BYTES = 32L * 1024 * 1024;
+
+    @Param({"NONE", "LRU", "TINY_LFU"})
+    private String policy;
+
+    private Path root;
+    private BackupStorage storage;
+    private double[] cumulativeWeights;
+
+    @State(Scope.Thread)
+    public static class Requests {
+        private final Random random = new Random(Thread.currentThread().threadId());
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("benchmark-");
+        storage = new BackupStorage(root);
+        Random random = new Random(FILE_COUNT);
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            random.nextBytes(data);
+            Path tempPath = Files.createTempFile(root, "file-", ".part");
+            Files.write(tempPath, data);
+            storage.commitFullCopy(OWNER, "file-" + i, tempPath, i + 1);
+        }
+        if (!policy.equals("NONE"))
+            storage.setBlockCache(new BlockCache(CACHE_BYTES, BlockCache.Policy.valueOf(policy), false));
+
+        cumulativeWeights = new double[FILE_COUNT];
+        double sum = 0;
+        for (int i = 0; i < FILE_COUNT; i++) {
+            sum += 1.0 / (i + 1);
+            cumulativeWeights[i] = sum;
+        }
+        for (int i = 0; i < FILE_COUNT; i++)
+            cumulativeWeights[i] /= sum;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(path);
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] restore(Requests requests) throws IOException {
+        return storage.read(OWNER, "file-" + pick(requests.random.nextDouble()), 0, FILE_SIZE);
+    }
+
+    private int pick(double value) {
+        int i = Arrays.binarySearch(cumulativeWeights, value);
+        return Math.min(FILE_COUNT - 1, i >= 0 ? i : -i - 1);
+    }
+}
@@ -1,214 +1,2134 @@
 package backupsystem.agents;
 
+import backupsystem.clock.HybridLogicalClock;
+import backupsystem.compression.Codec;
+import backupsystem.compression.Codecs;
+import backupsystem.compression.CompressedBlock;
+import backupsystem.compression.EntropyEstimator;
+import backupsystem.datastructures.BackupMode;
+import backupsystem.datastructures.BackupOptions;
+import backupsystem.datastructures.FileManifest;
+import backupsystem.datastructures.FileVersion;
+import backupsystem.datastructures.MembershipDelta;
+import backupsystem.datastructures.PackedFile;
 import backupsystem.datastructures.PeerInfo;
 import backupsystem.datastructures.PeerList;
+import backupsystem.datastructures.ShardInfo;
+import backupsystem.delta.BlockSignature;
+import backupsystem.delta.DeltaBase;
+import backupsystem.delta.DeltaEncoder;
+import backupsystem.delta.DeltaInstruction;
+import backupsystem.erasure.ErasureCodedFile;
+import backupsystem.erasure.ReedSolomon;
 import backupsystem.exceptions.CallerNotSubscribedException;
+import backupsystem.exceptions.SupersededBackupException;
 import backupsystem.interfaces.PeerInterface;
 import backupsystem.interfaces.ServerInterface;
+import backupsystem.io.FileSliceReader;
+import backupsystem.membership.MembershipUpdate;
+import backupsystem.membership.SwimDetector;
+import backupsystem.metrics.MetricsEndpoint;
+import backupsystem.metrics.MetricsRegistry;
+import backupsystem.placement.ConsistentHashRing;
+import backupsystem.placement.ReplicaRebalancer;
+import backupsystem.storage.BackupStorage;
+import backupsystem.storage.BlockCache;
+import backupsystem.storage.ChunkStore;
+import backupsystem.storage.ContentDefinedChunker;
+import backupsystem.transfer.BatchPlanner;
+import backupsystem.transfer.CompressedFrames;
+import backupsystem.transfer.DataChannelServer;
+import backupsystem.transfer.ReplicationEngine;
+import backupsystem.transfer.ReplicationResult;
+import backupsystem.transfer.TransferCheckpoint;
+import backupsystem.transfer.TransferScheduler;
+import backupsystem.transfer.TransferScheduler.Priority;
+import backupsystem.transfer.TransferTicket;
+import backupsystem.transfer.UploadSession;
 
 import java.io.*;
-import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 
 public class Peer extends UnicastRemoteObject implements PeerInterface {
     private static final String ROOT_FILE_DIR = "files";
-    private static final String BACKUP_DIR = "backups_of_other_peers";
     private static final String LOCAL_FILES_DIR = "local_files";
+    private static final String INCOMING_DIR = "incoming";
+    private static final String OUTGOING_DIR = "outgoing";
+    private static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_PARALLEL_TRANSFERS = 8;
+    private static final long METADATA_TIMEOUT_SECONDS = 10;
+    private static final int MAX_DELTA_BATCH = 4096;
+    private static final int DEFAULT_REPLICATION_FACTOR = 2;
+    private static final long MAINTENANCE_BYTES_PER_SECOND = 16L * 1024 * 1024;
+    private static final int DEFAULT_DATA_SHARDS = 4;
+    private static final int DEFAULT_PARITY_SHARDS = 2;
+    private static final int SHARD_BLOCK_SIZE = 64 * 1024;
+    private static final int SMALL_FILE_LIMIT = 256 * 1024;
+    private static final int BATCH_BYTES = CHUNK_SIZE;
+    private static final int MAX_BATCH_FILES = 1024;
+    private static final int PIPELINE_DEPTH = 4;
+    private static final int MAX_TRANSFER_ATTEMPTS = 4;
+    private static final long TRANSFER_RETRY_DELAY_MILLIS = 250;
+    private static final long DOWNLOAD_CHECKPOINT_INTERVAL = 16L * 1024 * 1024;
+    private static final long UPLOAD_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    private static final long DELETE_COST_BYTES = 4 * 1024;
+    private static final long DEFAULT_RESTORE_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final long MAX_CLOCK_SKEW_MILLIS = 60 * 1000;
+
+    private volatile PeerList peerList;
+    private volatile String name;
+    private volatile boolean subscribed;
+    private String serverIP;
+    private volatile ServerInterface serverStub;
+    private final Object membershipLock;
+    private volatile SwimDetector failureDetector;
+    private volatile BackupStorage storage;
+    private final Map<Long,UploadSession> uploadSessions;
+    private final AtomicLong nextSessionId;
+    private final ReplicationEngine replicationEngine;
+    private final ExecutorService remoteCallExecutor;
+    private int writeQuorum;
+    private BackupMode backupMode;
+    private volatile List<String> preferredCodecs;
+    private final Map<PeerInterface,Codec> negotiatedCodecs;
+    private volatile DataChannelServer dataChannel;
+    private volatile boolean dataChannelEnabled;
+    private int replicationFactor;
+    private volatile ReplicaRebalancer rebalancer;
+    private final TransferScheduler scheduler;
+    private int dataShards;
+    private int parityShards;
+    private final HybridLogicalClock clock;
+    private final MetricsRegistry metrics;
+    private final MetricsRegistry.HistogramFamily rpcLatency;
+    private final MetricsRegistry.CounterFamily sentBytes;
+    private final MetricsRegistry.CounterFamily receivedBytes;
+    private volatile BlockCache restoreCache;
+
+    public Peer() throws RemoteException {
+        super();
+        peerList = null;
+        name = null;
+        subscribed = false;
+        serverIP = null;
+        serverStub = null;
+        membershipLock = new Object();
+        failureDetector = null;
+        storage = null;
+        uploadSessions = new ConcurrentHashMap<>();
+        nextSessionId = new AtomicLong();
+        replicationEngine = new ReplicationEngine(MAX_PARALLEL_TRANSFERS);
+        remoteCallExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        writeQuorum = 0;
+        backupMode = BackupMode.DEDUPLICATED;
+        preferredCodecs = List.of(Codecs.supportedNames());
+        negotiatedCodecs = new ConcurrentHashMap<>();
+        dataChannel = null;
+        dataChannelEnabled = true;
+        replicationFactor = DEFAULT_REPLICATION_FACTOR;
+        rebalancer = null;
+        scheduler = new TransferScheduler(0);
+        scheduler.setRateLimit(Priority.MAINTENANCE, MAINTENANCE_BYTES_PER_SECOND);
+        dataShards = DEFAULT_DATA_SHARDS;
+        parityShards = DEFAULT_PARITY_SHARDS;
+        clock = new HybridLogicalClock();
+        metrics = new MetricsRegistry();
+        rpcLatency = metrics.latency("backupsystem_peer_rpc_duration_seconds", "Time to serve each remote method", "method");
+        sentBytes = metrics.counter("backupsystem_peer_sent_bytes_total", "Bytes of files sent to each peer", "peer");
+        receivedBytes = metrics.counter("backupsystem_peer_received_bytes_total", "Bytes of files received from each peer", "peer");
+        restoreCache = new BlockCache(DEFAULT_RESTORE_CACHE_BYTES, BlockCache.Policy.TINY_LFU, false);
+        registerGauges();
+    }
+
+    /*
+     * ----------- Getters and setters -----------
+     */
+
+    // given by the server, null until subscribed
+    public String getName() {
+        return name;
+    }
+
+    // counters, histograms and gauges of this peer, exported by a MetricsEndpoint
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
+    public void setSubscribed(boolean subscribed) {
+        this.subscribed = subscribed;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    // number of peers that must acknowledge a backup before it returns, 0 means all of them
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
+    public BackupMode getBackupMode() {
+        return backupMode;
+    }
+
+    public void setBackupMode(BackupMode backupMode) {
+        this.backupMode = backupMode;
+    }
+
+    public boolean isDataChannelEnabled() {
+        return dataChannelEnabled;
+    }
+
+    // when enabled full copies move over the socket data channel, otherwise in compressed RMI chunks
+    public void setDataChannelEnabled(boolean dataChannelEnabled) {
+        this.dataChannelEnabled = dataChannelEnabled;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    // number of copies kept on other peers when the targets are chosen by the ring
+    public void setReplicationFactor(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    // shards used by erasure coded backups, the file survives the loss of any parityShards peers
+    public void setErasureCoding(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 255)
+            throw new IllegalArgumentException("Invalid shard counts: " + dataShards + "+" + parityShards);
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+    }
+
+    // the settings a backup started now would use
+    public BackupOptions getBackupOptions() {
+        return new BackupOptions(backupMode, writeQuorum, replicationFactor, dataShards, parityShards);
+    }
+
+    public List<String> getPreferredCodecs() {
+        return preferredCodecs;
+    }
+
+    // codec names in order of preference, the codec used with each peer is negotiated again
+    public void setPreferredCodecs(List<String> preferredCodecs) {
+        this.preferredCodecs = List.copyOf(preferredCodecs);
+        negotiatedCodecs.clear();
+    }
+
+    public long getTransferRateLimit() {
+        return scheduler.getRateLimit();
+    }
+
+    // bytes per second of all the transfers of this peer, 0 for no limit; when it is reached restores go
+    // before backups and backups before maintenance, and the other peers get the same share in turns
+    public void setTransferRateLimit(long bytesPerSecond) {
+        scheduler.setRateLimit(bytesPerSecond);
+    }
+
+    public long getTransferRateLimit(Priority priority) {
+        return scheduler.getRateLimit(priority);
+    }
+
+    // bytes per second of one class of transfers, 0 for no limit; maintenance starts limited
+    public void setTransferRateLimit(Priority priority, long bytesPerSecond) {
+        scheduler.setRateLimit(priority, bytesPerSecond);
+    }
+
+    // blocks of the backups of other peers recently served to them
+    public BlockCache getRestoreCache() {
+        return restoreCache;
+    }
+
+    // replaces the cache, empty; a capacity of 0 disables it
+    public void setRestoreCache(long capacityBytes, BlockCache.Policy policy, boolean offHeap) {
+        restoreCache = new BlockCache(capacityBytes, policy, offHeap);
+        BackupStorage backups = storage;
+        if (backups != null)
+            backups.setBlockCache(capacityBytes > 0 ? restoreCache : null);
+    }
+
+    /*
+     * ----------- Remote methods -----------
+     */
+
+    // invoked by server, replaces local peer list with a snapshot unless the local one is newer
+    @Override
+    public void updatePeerList(PeerList list) throws RemoteException {
+        long startNanos = System.nanoTime();
+        try {
+            installPeerList(list);
+        } finally {
+            rpcLatency.labels("updatePeerList").recordSince(startNanos);
+        }
+    }
+
+    // invoked by server, applies a single change of the peer list
+    @Override
+    public void applyMembershipDelta(MembershipDelta delta) throws RemoteException {
+        long startNanos = System.nanoTime();
+        try {
+            synchronized (membershipLock) {
+                if (peerList != null && delta.getEpoch() == peerList.getEpoch() + 1) {
+                    changePeerList(peerList.withDelta(delta));
+                    return;
+                }
+                if (peerList != null && delta.getEpoch() <= peerList.getEpoch())
+                    return;
+            }
+
+            // some changes were missed, ask the server for the whole list
+            ServerInterface server = serverStub;
+            if (server != null)
+                installPeerList(server.getPeerList(this));
+        } finally {
+            rpcLatency.labels("applyMembershipDelta").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, stores received file as owner's property in a single call
+    @Override
+    public void backupFile(File file, byte[] fileData, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            // the old single call carries no stamp, the copy is stamped by this peer
+            UploadSession session = startUpload(getCallerName(owner), file.getName(), fileData.length, clock.now(), false);
+            try {
+                receiveChunk(session, 0, fileData);
+                finishUpload(session);
+            } catch (IOException e) {
+                discardUpload(session);
+                throw e;
+            }
+        } finally {
+            rpcLatency.labels("backupFile").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, stores many small files in one call, returns the error of each file or null if stored
+    @Override
+    public String[] backupFiles(List<PackedFile> files, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            Path tempDir = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + INCOMING_DIR);
+            clock.update(stamp);
+            scheduleReceive(Priority.BACKUP, ownerName, files.stream().mapToLong(f -> f.getData().length).sum());
+            return storage.storeFullCopies(ownerName, files, stamp, tempDir);
+        } finally {
+            rpcLatency.labels("backupFiles").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, starts a chunked upload of one of its files
+    @Override
+    public long openBackupSession(String fileName, long fileSize, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            return startUpload(getCallerName(owner), fileName, fileSize, stamp, false).getId();
+        } finally {
+            rpcLatency.labels("openBackupSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, starts the upload of one erasure coded shard of a file, header included
+    @Override
+    public long openShardSession(String fileName, long shardSize, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            return startUpload(getCallerName(owner), fileName, shardSize, stamp, true).getId();
+        } finally {
+            rpcLatency.labels("openShardSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, appends a chunk to an open upload
+    @Override
+    public void putChunk(long sessionId, long offset, byte[] chunkData, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            receiveChunk(getUploadSession(sessionId, owner), offset, chunkData);
+        } finally {
+            rpcLatency.labels("putChunk").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, appends a chunk compressed by the sender to an open upload
+    @Override
+    public void putCompressedChunk(long sessionId, long offset, CompressedBlock chunk, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            UploadSession session = getUploadSession(sessionId, owner);
+            scheduleReceive(Priority.BACKUP, session.getOwnerName(), chunk.getRawLength());
+            session.append(offset, chunk.decompress());
+        } finally {
+            rpcLatency.labels("putCompressedChunk").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns a ticket to send the rest of an open upload over the data channel,
+    // as a plain stream with no codec or as compressed frames
+    @Override
+    public TransferTicket openUploadChannel(long sessionId, String codecName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            UploadSession session = getUploadSession(sessionId, owner);
+            boolean framed = Codecs.byName(codecName) != Codecs.NONE;
+
+            return requireDataChannel().register(session.getFileSize() - session.getWritten(), codecName, channel -> {
+                ReadableByteChannel source = receiveScheduled(channel, Priority.BACKUP, session.getOwnerName());
+                if (framed)
+                    session.receiveFramesFrom(source);
+                else
+                    session.receiveFrom(source);
+                // acknowledge, so the owner commits only after every byte is on disk
+                channel.write(ByteBuffer.wrap(new byte[]{ 1 }));
+            });
+        } finally {
+            rpcLatency.labels("openUploadChannel").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, makes the uploaded file visible as a backup
+    @Override
+    public void commitBackupSession(long sessionId, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            finishUpload(getUploadSession(sessionId, owner));
+        } finally {
+            rpcLatency.labels("commitBackupSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, makes the file rebuilt from a delta visible as a backup, if its content
+    // hash is the one of the owner's file and the copy it was built on was not replaced
+    @Override
+    public void commitDeltaSession(long sessionId, String contentHash, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            UploadSession session = getUploadSession(sessionId, owner);
+            if (!session.isDelta())
+                throw new IOException("Upload session " + sessionId + " is not a delta upload");
+            uploadSessions.remove(sessionId);
+            try {
+                session.commit();
+                storage.commitDelta(session.getOwnerName(), session.getFileName(), session.getTempPath(), session.getStamp(),
+                        session.getBaseVersion(), session.getBaseStamp(), contentHash);
+            } catch (IOException e) {
+                session.abort();
+                throw e;
+            }
+        } finally {
+            rpcLatency.labels("commitDeltaSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, discards an upload that could not be completed
+    @Override
+    public void abortBackupSession(long sessionId, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            discardUpload(getUploadSession(sessionId, owner));
+        } finally {
+            rpcLatency.labels("abortBackupSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer retrying an interrupted upload, returns the offset from which to continue
+    @Override
+    public long resumeBackupSession(long sessionId, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            UploadSession session = getUploadSession(sessionId, owner);
+            clock.update(stamp);
+            return session.resume(stamp);
+        } finally {
+            rpcLatency.labels("resumeBackupSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns owner's specified file
+    @Override
+    public AbstractMap.SimpleImmutableEntry<File,byte[]> getBackedUpFile(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            Path ownerFilePath = storage.getBackupPath(ownerName, fileName);
+            File fileDescriptor;
+            byte[] fileData;
+
+            // full copies and deduplicated files both go through the restore cache
+            FileVersion version = storage.getVersion(ownerName, fileName);
+            if (version == null)
+                return null;
+            if (storage.isFullCopy(ownerName, fileName)) {
+                fileDescriptor = ownerFilePath.toFile();
+            } else {
+                fileDescriptor = storage.getManifestPath(ownerName, fileName).toFile();
+            }
+            if (version.getSize() > Integer.MAX_VALUE - 8)
+                throw new IOException(fileName + " is too large to be read in one array: " + version.getSize() + " bytes");
+            fileData = storage.read(ownerName, fileName, 0, (int) version.getSize());
+            scheduleSend(Priority.RESTORE, ownerName, fileData.length);
+
+            return new AbstractMap.SimpleImmutableEntry<>(fileDescriptor, fileData);
+        } finally {
+            rpcLatency.labels("getBackedUpFile").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns many small files in one call; files that are not stored here,
+    // too big or beyond the size of a batch are null and must be fetched one by one
+    @Override
+    public List<PackedFile> getBackedUpFiles(List<String> fileNames, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            List<PackedFile> files = new ArrayList<>(fileNames.size());
+            long batchSize = 0;
+            for (String fileName : fileNames) {
+                FileVersion version = storage.getVersion(ownerName, fileName);
+                if (version == null || version.getSize() > SMALL_FILE_LIMIT || batchSize + version.getSize() > BATCH_BYTES) {
+                    files.add(null);
+                    continue;
+                }
+                try {
+                    files.add(new PackedFile(version.getFileName(), storage.read(ownerName, fileName, 0, (int) version.getSize())));
+                    batchSize += version.getSize();
+                } catch (IOException e) {
+                    files.add(null);
+                }
+            }
+            scheduleSend(Priority.RESTORE, ownerName, batchSize);
+            return files;
+        } finally {
+            rpcLatency.labels("getBackedUpFiles").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns the versions of all its full and deduplicated copies in one call
+    @Override
+    public FileVersion[] listBackedUpFileVersions(PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            return storage.listVersions(ownerName);
+        } finally {
+            rpcLatency.labels("listBackedUpFileVersions").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns the metadata of owner's specified file without its content
+    @Override
+    public FileVersion getBackedUpFileVersion(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            return storage.getVersion(ownerName, fileName);
+        } finally {
+            rpcLatency.labels("getBackedUpFileVersion").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns the header of the shard of owner's file held here, null if there is none
+    @Override
+    public ShardInfo getShardInfo(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            return storage.readShardInfo(ownerName, fileName);
+        } finally {
+            rpcLatency.labels("getShardInfo").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns at most one chunk of the data of the shard of owner's file
+    @Override
+    public byte[] readShardChunk(String fileName, long offset, int length, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            byte[] data = storage.readShard(ownerName, fileName, offset, Math.min(length, CHUNK_SIZE));
+            scheduleSend(Priority.RESTORE, ownerName, data.length);
+            return data;
+        } finally {
+            rpcLatency.labels("readShardChunk").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns at most one chunk of owner's specified file starting at offset
+    @Override
+    public byte[] readBackedUpFileChunk(String fileName, long offset, int length, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            return readChunk(getCallerName(owner), fileName, offset, length);
+        } finally {
+            rpcLatency.labels("readBackedUpFileChunk").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns a ticket to download a full copy from offset over the data channel, null if there is no full copy;
+    // with a codec the copy comes in compressed frames
+    @Override
+    public TransferTicket openDownloadChannel(String fileName, long offset, String codecName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            if (!storage.isFullCopy(ownerName, fileName))
+                return null;
+            Path backupPath = storage.getBackupPath(ownerName, fileName);
+
+            long size = Files.size(backupPath);
+            if (offset < 0 || offset > size)
+                throw new IOException("Invalid offset " + offset + " for " + fileName + " of " + size + " bytes");
+            // already compressed copies keep the zero-copy stream
+            Codec codec = EntropyEstimator.isCompressible(backupPath) ? Codecs.byName(codecName) : Codecs.NONE;
+            return requireDataChannel().register(size - offset, codec.getName(), channel -> {
+                // if the copy was replaced by a shorter one, the requester sees the stream end early
+                try (FileChannel file = FileChannel.open(backupPath, StandardOpenOption.READ)) {
+                    if (codec == Codecs.NONE)
+                        sendScheduled(file, offset, size, channel, Priority.RESTORE, ownerName);
+                    else
+                        CompressedFrames.send(file, offset, size, channel, codec, length -> scheduleSend(Priority.RESTORE, ownerName, length));
+                }
+            });
+        } finally {
+            rpcLatency.labels("openDownloadChannel").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, like readBackedUpFileChunk but compressed with the given codec when it helps
+    @Override
+    public CompressedBlock readCompressedBackedUpFileChunk(String fileName, long offset, int length, String codecName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            byte[] data = readChunk(getCallerName(owner), fileName, offset, length);
+            return CompressedBlock.compress(Codecs.byName(codecName), data, 0, data.length);
+        } finally {
+            rpcLatency.labels("readCompressedBackedUpFileChunk").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns which of the given chunks are not stored on this peer yet
+    @Override
+    public String[] findMissingChunks(String[] chunkHashes, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            checkIfCallerIsSubscribed(owner);
+
+            ChunkStore chunkStore = storage.getChunkStore();
+            return Arrays.stream(chunkHashes).distinct().filter(h -> !chunkStore.contains(h)).toArray(String[]::new);
+        } finally {
+            rpcLatency.labels("findMissingChunks").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, stores chunks in the content addressed store
+    @Override
+    public void storeChunks(List<CompressedBlock> chunks, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            scheduleReceive(Priority.BACKUP, ownerName, chunks.stream().mapToLong(CompressedBlock::getRawLength).sum());
+
+            ChunkStore chunkStore = storage.getChunkStore();
+            for (CompressedBlock chunk : chunks) {
+                chunkStore.put(chunk);
+            }
+        } finally {
+            rpcLatency.labels("storeChunks").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, stores a file as the list of its already uploaded chunks
+    @Override
+    public void commitManifest(FileManifest manifest, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            clock.update(stamp);
+            storage.storeManifest(ownerName, manifest, stamp);
+        } finally {
+            rpcLatency.labels("commitManifest").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns the block signatures of its stored copy with the version they were
+    // computed on, null if there is none
+    @Override
+    public DeltaBase getBlockSignatures(String fileName, int blockSize, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            if (blockSize < DeltaEncoder.MIN_BLOCK_SIZE || blockSize > DeltaEncoder.MAX_BLOCK_SIZE)
+                throw new IOException("Invalid block size: " + blockSize);
+
+            FileVersion base = storage.getVersion(ownerName, fileName);
+            if (base == null)
+                return null;
+            BlockSignature[] signatures;
+            try (InputStream in = storage.openInputStream(ownerName, fileName)) {
+                if (in == null)
+                    return null;
+                signatures = DeltaEncoder.computeSignatures(new BufferedInputStream(in), blockSize);
+            }
+            // a backup stored meanwhile may have replaced the copy under the signatures
+            if (!storage.isStoredVersion(ownerName, fileName, base.getVersion(), base.getStamp()))
+                throw new IOException("The stored copy of " + fileName + " changed while computing its signatures");
+            return new DeltaBase(base.getVersion(), base.getStamp(), signatures);
+        } finally {
+            rpcLatency.labels("getBlockSignatures").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, starts an upload rebuilt from the copy with the given version and stamp
+    @Override
+    public long openDeltaSession(String fileName, long fileSize, long stamp, long baseVersion, long baseStamp, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            if (!storage.isStoredVersion(ownerName, fileName, baseVersion, baseStamp))
+                throw new IOException("The stored copy of " + fileName + " changed since its signatures were sent");
+
+            expireIdleSessions();
+            long sessionId = nextSessionId.incrementAndGet();
+            Path tempPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + INCOMING_DIR + File.separator + sessionId + ".part");
+
+            clock.update(stamp);
+            uploadSessions.put(sessionId, new UploadSession(sessionId, ownerName, fileName, fileSize, stamp, tempPath, baseVersion, baseStamp));
+            return sessionId;
+        } finally {
+            rpcLatency.labels("openDeltaSession").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, rebuilds part of the new version of a file from the stored copy and literal data
+    @Override
+    public void applyDelta(long sessionId, List<DeltaInstruction> delta, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            UploadSession session = getUploadSession(sessionId, owner);
+            if (!session.isDelta())
+                throw new IOException("Upload session " + sessionId + " is not a delta upload");
+            // fail early, the content hash checked at commit catches a copy replaced in the middle of a batch
+            if (!storage.isStoredVersion(session.getOwnerName(), session.getFileName(), session.getBaseVersion(), session.getBaseStamp()))
+                throw new IOException("The stored copy of " + session.getFileName() + " changed since its signatures were sent");
+
+            for (DeltaInstruction instruction : delta) {
+                if (instruction.isCopy()) {
+                    // copy the range from the stored copy one transfer chunk at a time
+                    long copied = 0;
+                    while (copied < instruction.getLength()) {
+                        int length = (int) Math.min(CHUNK_SIZE, instruction.getLength() - copied);
+                        schedule(Priority.BACKUP, session.getOwnerName(), length);
+                        byte[] data = storage.read(session.getOwnerName(), session.getFileName(), instruction.getBaseOffset() + copied, length);
+                        if (data.length != length)
+                            throw new IOException("Delta copies past the end of the stored copy of " + session.getFileName());
+                        session.append(session.getWritten(), data);
+                        copied += length;
+                    }
+                } else {
+                    scheduleReceive(Priority.BACKUP, session.getOwnerName(), instruction.getLiteral().length);
+                    session.append(session.getWritten(), instruction.getLiteral());
+                }
+            }
+        } finally {
+            rpcLatency.labels("applyDelta").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer re-replicating a copy, returns the version this peer holds for the owner
+    @Override
+    public FileVersion getReplicaVersion(String ownerName, String fileName, PeerInterface caller) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            checkReplicaCaller(getCallerName(caller), ownerName, fileName);
+
+            return storage.getVersion(ownerName, fileName);
+        } finally {
+            rpcLatency.labels("getReplicaVersion").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer re-replicating a copy, returns a ticket to receive it over the data channel
+    @Override
+    public TransferTicket openReplicaChannel(String ownerName, FileVersion version, PeerInterface caller) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String callerName = getCallerName(caller);
+            List<String> holders = checkReplicaCaller(callerName, ownerName, version.getFileName());
+            if (!holders.contains(this.name))
+                throw new IOException("This peer does not hold " + version.getFileName() + " of " + ownerName);
+            checkReplicaVersion(callerName, ownerName, version, holders);
+
+            clock.update(version.getStamp());
+            long sessionId = nextSessionId.incrementAndGet();
+            Path tempPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + INCOMING_DIR + File.separator + "replica-" + sessionId + ".part");
+
+            return requireDataChannel().register(version.getSize(), channel -> {
+                UploadSession session = new UploadSession(sessionId, ownerName, version.getFileName(), version.getSize(), version.getStamp(), tempPath);
+                try {
+                    session.receiveFrom(receiveScheduled(channel, Priority.MAINTENANCE, callerName));
+                    session.commit();
+                    // kept only if the owner has not backed up a newer version in the meantime,
+                    // with the stamp of the original backup, recovery compares it between copies
+                    storage.commitReplica(ownerName, version.getFileName(), tempPath, version);
+                } catch (IOException e) {
+                    session.abort();
+                    throw e;
+                }
+                channel.write(ByteBuffer.wrap(new byte[]{ 1 }));
+            });
+        } finally {
+            rpcLatency.labels("openReplicaChannel").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer, returns the list of the owner's stored file names
+    @Override
+    public String[] showBackedUpFiles(PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            String ownerName = getCallerName(owner);
+            return storage.list(ownerName);
+        } finally {
+            rpcLatency.labels("showBackedUpFiles").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer to negotiate the codec used between the two peers
+    @Override
+    public String[] getSupportedCodecs(PeerInterface caller) throws RemoteException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            checkIfCallerIsSubscribed(caller);
+
+            return Codecs.supportedNames();
+        } finally {
+            rpcLatency.labels("getSupportedCodecs").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer's failure detector, exchanges gossip about the other peers
+    @Override
+    public List<MembershipUpdate> ping(List<MembershipUpdate> updates, PeerInterface caller) throws RemoteException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            checkIfCallerIsSubscribed(caller);
+
+            SwimDetector detector = failureDetector;
+            return detector == null ? List.of() : detector.handlePing(updates);
+        } finally {
+            rpcLatency.labels("ping").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer's failure detector, pings the target on behalf of the caller
+    @Override
+    public boolean pingRequest(String targetName, List<MembershipUpdate> updates, PeerInterface caller) throws RemoteException, CallerNotSubscribedException {
+        long startNanos = System.nanoTime();
+        try {
+            checkIfCallerIsSubscribed(caller);
+
+            SwimDetector detector = failureDetector;
+            return detector != null && detector.handlePingRequest(targetName, updates);
+        } finally {
+            rpcLatency.labels("pingRequest").recordSince(startNanos);
+        }
+    }
+
+    // invoked by server to check if peer is alive
+    @Override
+    public void checkAlive() throws RemoteException {}
+
+    /*
+     * ----------- Local methods -----------
+     */
+
+    void subscribeToServer(String serverIP) throws IOException, NotBoundException {
+        ServerInterface stub = (ServerInterface) Naming.lookup("rmi://" + serverIP + "/Server");
+        // the epochs of a previous subscription are not comparable with the new ones
+        peerList = null;
+        if (dataChannel == null)
+            dataChannel = new DataChannelServer(0);
+        String obtainedName = stub.subscribePeer(this);
+        // other peers may call as soon as the server announces this one, their calls are
+        // refused until everything they use is set up
+        serverStub = stub;
+        name = obtainedName;
+        storage = new BackupStorage(Paths.get(ROOT_FILE_DIR + File.separator + obtainedName));
+        if (restoreCache.getCapacity() > 0)
+            storage.setBlockCache(restoreCache);
+        startFailureDetector();
+        startRebalancer();
+        this.serverIP = serverIP;
+        subscribed = true;
+        installPeerList(stub.getPeerList(this));
+    }
+
+    void unsubscribeFromServer() throws IOException {
+        serverStub.unsubscribePeer(this);
+        stopFailureDetector();
+        stopRebalancer();
+
+        // discard uploads still in progress
+        for (UploadSession session : uploadSessions.values()) {
+            session.abort();
+        }
+        uploadSessions.clear();
+        closeDataChannel();
+
+        // delete all backed up files of other peers, as background work
+        String selfName = name;
+        storage.deleteAll(file -> schedule(Priority.MAINTENANCE, selfName, DELETE_COST_BYTES));
+        storage.close();
+
+        subscribed = false;
+    }
+
+    // null once unsubscribed
+    private DataChannelServer requireDataChannel() throws IOException {
+        DataChannelServer server = dataChannel;
+        if (server == null)
+            throw new IOException("Data channel is closed");
+        return server;
+    }
+
+    // transfers in progress are cut, a new server is started on the next subscription
+    private void closeDataChannel() {
+        DataChannelServer server = dataChannel;
+        dataChannel = null;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.err.println("Error in closing data channel: " + e.getMessage());
+            }
+        }
+    }
+
+    // peers watch each other and report dead ones to the server
+    private void startFailureDetector() {
+        stopFailureDetector();
+        failureDetector = new SwimDetector(name, () -> {
+            PeerList list = peerList;
+            return list == null ? Set.of() : list.getNames();
+        }, new SwimDetector.Transport() {
+            @Override
+            public List<MembershipUpdate> ping(String target, List<MembershipUpdate> updates) throws Exception {
+                try {
+                    return getStubByName(target).ping(updates, Peer.this);
+                } catch (CallerNotSubscribedException e) {
+                    // the target answered, it just did not receive our subscription yet
+                    return List.of();
+                }
+            }
+
+            @Override
+            public boolean pingRequest(String relay, String target, List<MembershipUpdate> updates) throws Exception {
+                return getStubByName(relay).pingRequest(target, updates, Peer.this);
+            }
+        }, deadPeer -> {
+            try {
+                serverStub.reportFailedPeer(deadPeer, this);
+            } catch (RemoteException e) {
+                System.err.println("Cannot report failed peer " + deadPeer + ": " + e.getMessage());
+            }
+        });
+        failureDetector.start();
+    }
+
+    private void stopFailureDetector() {
+        if (failureDetector != null) {
+            failureDetector.stop();
+            failureDetector = null;
+        }
+    }
+
+    // replaces the local peer list with a snapshot unless the local one is newer
+    private void installPeerList(PeerList list) {
+        synchronized (membershipLock) {
+            if (peerList == null || list.getEpoch() > peerList.getEpoch())
+                changePeerList(list);
+        }
+    }
+
+    private void changePeerList(PeerList list) {
+        PeerList previous = peerList;
+        // readers on other threads get the reference without locking, so it must never change afterwards
+        peerList = list.toImmutable();
+
+        ReplicaRebalancer current = rebalancer;
+        if (previous != null && current != null)
+            current.membershipChanged(previous.getNames(), list.getNames());
+    }
+
+    // holders of a copy push it to the peers that become its owners when membership changes
+    private void startRebalancer() {
+        stopRebalancer();
+        rebalancer = new ReplicaRebalancer(name, this::getReplicationFactor, new ReplicaRebalancer.Transport() {
+            @Override
+            public Map<String,String[]> storedFiles() throws IOException {
+                Map<String,String[]> files = new HashMap<>();
+                for (String owner : storage.listOwners()) {
+                    files.put(owner, storage.list(owner));
+                }
+                return files;
+            }
+
+            @Override
+            public FileVersion localVersion(String ownerName, String fileName) throws IOException {
+                return storage.getVersion(ownerName, fileName);
+            }
+
+            @Override
+            public FileVersion remoteVersion(String target, String ownerName, String fileName) throws Exception {
+                return getStubByName(target).getReplicaVersion(ownerName, fileName, Peer.this);
+            }
+
+            @Override
+            public void push(String target, String ownerName, String fileName) throws Exception {
+                pushReplica(target, ownerName, fileName);
+            }
+        });
+    }
+
+    private void stopRebalancer() {
+        if (rebalancer != null) {
+            rebalancer.stop();
+            rebalancer = null;
+        }
+    }
+
+    // sends the copy held for the owner to another peer, as a full copy and within the re-replication rate
+    private void pushReplica(String targetName, String ownerName, String fileName) throws IOException, CallerNotSubscribedException, InterruptedException {
+        PeerInfo target = peerList.getElementByName(targetName);
+        if (target == null)
+            throw new IOException("Unknown peer: " + targetName);
+        FileVersion version = storage.getVersion(ownerName, fileName);
+        if (version == null)
+            return;
+
+        TransferTicket ticket = target.getStub().openReplicaChannel(ownerName, version, this);
+        try (SocketChannel channel = DataChannelServer.connect(target.getIPAddress(), ticket)) {
+            if (storage.isFullCopy(ownerName, fileName)) {
+                try (FileChannel fileChannel = FileChannel.open(storage.getBackupPath(ownerName, fileName), StandardOpenOption.READ)) {
+                    if (sendScheduled(fileChannel, 0, version.getSize(), channel, Priority.MAINTENANCE, targetName) < version.getSize())
+                        throw new EOFException("Copy of " + fileName + " changed while re-replicating");
+                }
+            } else {
+                // deduplicated copies are rebuilt from their chunks
+                try (InputStream in = storage.openInputStream(ownerName, fileName)) {
+                    if (in == null)
+                        throw new FileNotFoundException("No copy of " + fileName + " for " + ownerName);
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    int n;
+                    while ((n = in.readNBytes(buffer, 0, CHUNK_SIZE)) > 0) {
+                        scheduler.acquire(Priority.MAINTENANCE, targetName, n);
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, n);
+                        while (data.hasRemaining()) {
+                            channel.write(data);
+                        }
+                    }
+                }
+            }
+
+            ByteBuffer ack = ByteBuffer.allocate(1);
+            if (channel.read(ack) != 1 || ack.get(0) != 1)
+                throw new IOException("Re-replication of " + fileName + " not acknowledged");
+        }
+    }
+
+    // copies of a file are read or pushed only by its owner and by the peers holding it on the current ring;
+    // returns the holders
+    private List<String> checkReplicaCaller(String callerName, String ownerName, String fileName) throws IOException {
+        PeerList list = peerList;
+        if (!list.nameInList(ownerName))
+            throw new IOException("Owner is not subscribed: " + ownerName);
+
+        String key = ConsistentHashRing.keyOf(ownerName, new File(fileName).getName());
+        List<String> holders = new ConsistentHashRing(list.getNames()).getOwners(key, getReplicationFactor(), ownerName);
+        if (!callerName.equals(ownerName) && !holders.contains(callerName))
+            throw new IOException(callerName + " does not hold " + fileName + " of " + ownerName);
+        return holders;
+    }
+
+    // the stamp of a copy was given by the owner when it backed the file up, so it cannot be ahead of the clocks;
+    // the other holders are asked for theirs, a copy older than one of them is not taken
+    private void checkReplicaVersion(String callerName, String ownerName, FileVersion version, List<String> holders) throws IOException {
+        if (HybridLogicalClock.physicalTime(version.getStamp()) > System.currentTimeMillis() + MAX_CLOCK_SKEW_MILLIS)
+            throw new IOException("Copy of " + version.getFileName() + " is stamped in the future");
+
+        for (String holder : holders) {
+            if (holder.equals(callerName) || holder.equals(this.name))
+                continue;
+            FileVersion held;
+            try {
+                held = getStubByName(holder).getReplicaVersion(ownerName, version.getFileName(), this);
+            } catch (IOException | CallerNotSubscribedException e) {
+                // a holder that does not answer cannot contradict the copy
+                continue;
+            }
+            if (held != null && held.isNewerThan(version))
+                throw new IOException(holder + " holds a newer copy of " + version.getFileName() + " than " + callerName);
+        }
+    }
+
+    private PeerInterface getStubByName(String peerName) throws IOException {
+        PeerInfo peer = peerList.getElementByName(peerName);
+        if (peer == null)
+            throw new IOException("Unknown peer: " + peerName);
+        return peer.getStub();
+    }
+
+    ReplicationResult backup(File file, List<PeerInfo> explicitTargets, BackupOptions options, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        return backup(file, file.getName(), explicitTargets, options, progress);
+    }
+
+    // stores the file under the given name, without explicit targets they are the owners of the name on the ring;
+    // progress counts the targets that acknowledged
+    private ReplicationResult backup(File file, String fileName, List<PeerInfo> explicitTargets, BackupOptions options, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        if (options.getMode() == BackupMode.ERASURE_CODED)
+            return backupErasureCoded(file, fileName, explicitTargets, options, progress);
+
+        List<PeerInfo> targets = explicitTargets.isEmpty()
+                ? getReplicaTargets(fileName, options.getReplicationFactor())
+                : explicitTargets.stream().distinct().toList();
+        if (targets.isEmpty())
+            throw new IOException("No peer on which backup");
+
+        // every copy of this backup carries the same stamp
+        long stamp = clock.now();
+
+        // backup file on all the targets concurrently
+        ReplicationResult result;
+        AtomicInteger done = new AtomicInteger();
+        try {
+            result = replicationEngine.replicate(targets, options.getWriteQuorum(), target -> {
+                sendFile(file, fileName, stamp, target.getStub(), options.getMode());
+                progress.onProgress(done.incrementAndGet(), targets.size(), target.getName());
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup interrupted");
+        }
+
+        checkQuorum(result);
+        return result;
+    }
+
+    // encodes the file into k+m shards on local disk, then uploads every shard to a different peer
+    private ReplicationResult backupErasureCoded(File file, String fileName, List<PeerInfo> explicitTargets, BackupOptions options, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        int dataShards = options.getDataShards();
+        int parityShards = options.getParityShards();
+        int shardCount = dataShards + parityShards;
+        List<PeerInfo> targets = explicitTargets.isEmpty()
+                ? getReplicaTargets(fileName, shardCount)
+                : explicitTargets.stream().distinct().limit(shardCount).toList();
+        if (targets.size() < shardCount)
+            throw new IOException("Erasure coding " + dataShards + "+" + parityShards + " needs " + shardCount + " distinct peers, " + targets.size() + " available");
+
+        Path outgoing = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + OUTGOING_DIR);
+        Files.createDirectories(outgoing);
+        long setId = new Random().nextLong();
+        Path[] shardPaths = new Path[shardCount];
+        Map<String,Path> shardOfTarget = new HashMap<>();
+        for (int i = 0; i < shardCount; i++) {
+            shardPaths[i] = outgoing.resolve(fileName + "." + Long.toHexString(setId) + "." + i);
+            shardOfTarget.put(targets.get(i).getName(), shardPaths[i]);
+        }
+
+        long stamp = clock.now();
+        ReplicationResult result = null;
+        AtomicInteger done = new AtomicInteger();
+        try {
+            ErasureCodedFile.encode(file.toPath(), new ReedSolomon(dataShards, parityShards), SHARD_BLOCK_SIZE, setId, stamp, shardPaths);
+
+            // every shard is needed for the full fault tolerance, so the quorum is all of them
+            result = replicationEngine.replicate(targets, shardCount, target -> {
+                sendShard(shardOfTarget.get(target.getName()), fileName, stamp, target);
+                progress.onProgress(done.incrementAndGet(), shardCount, target.getName());
+            });
+            result.awaitCompletion();
+            checkQuorum(result);
+            return result;
+        } catch (InterruptedException e) {
+            if (result != null)
+                result.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup interrupted");
+        } finally {
+            for (Path shardPath : shardPaths) {
+                Files.deleteIfExists(shardPath);
+            }
+        }
+    }
+
+    // shards look random, they are not worth compressing
+    private void sendShard(Path shardPath, String fileName, long stamp, PeerInfo target) throws IOException, CallerNotSubscribedException {
+        uploadFile(shardPath, fileName, stamp, target, true, Codecs.NONE);
+    }
+
+    private void checkQuorum(ReplicationResult result) throws IOException, CallerNotSubscribedException {
+        if (!result.isQuorumReached()) {
+            for (Exception e : result.getErrors().values()) {
+                if (e instanceof CallerNotSubscribedException notSubscribed)
+                    throw notSubscribed;
+            }
+            throw new IOException("Write quorum not reached: " + result.getAcknowledged() + " of " + result.getWriteQuorum() + " peers acknowledged");
+        }
+    }
+
+    private List<PeerInfo> getReplicaTargets(String fileName, int count) {
+        PeerList list = peerList;
+        List<PeerInfo> targets = new ArrayList<>();
+        ConsistentHashRing ring = new ConsistentHashRing(list.getNames());
+        for (String owner : ring.getOwners(ConsistentHashRing.keyOf(this.name, new File(fileName).getName()), count, this.name)) {
+            targets.add(list.getElementByName(owner));
+        }
+        return targets;
+    }
+
+    private void sendFile(File file, String fileName, long stamp, PeerInterface target, BackupMode mode) throws IOException, CallerNotSubscribedException {
+        switch (mode) {
+            case FULL -> sendFullFile(file, fileName, stamp, target);
+            case DEDUPLICATED -> sendDeduplicatedFile(file, fileName, stamp, target);
+            case INCREMENTAL -> sendIncrementalFile(file, fileName, stamp, target);
+            case ERASURE_CODED -> throw new IOException("Erasure coded backups are sent as shards");
+        }
+    }
+
+    private void sendFullFile(File file, String fileName, long stamp, PeerInterface target) throws IOException, CallerNotSubscribedException {
+        PeerInfo targetInfo = peerList.getElementByStub(target);
+        if (targetInfo == null)
+            throw new IOException("Target peer is not subscribed anymore");
+
+        // already compressed content is sent as it is, over the data channel without leaving the page cache
+        Codec codec = EntropyEstimator.isCompressible(file.toPath()) ? negotiateCodec(target) : Codecs.NONE;
+        uploadFile(file.toPath(), fileName, stamp, targetInfo, false, codec);
+    }
+
+    // uploads a file through an upload session, over the data channel when enabled, otherwise in checksummed chunks.
+    // After a failure the target tells how much of the file it holds and the upload continues from there.
+    // Full copies also keep a checkpoint of the session, so a later backup of the unchanged file can resume it
+    private void uploadFile(Path source, String fileName, long stamp, PeerInfo target, boolean shard, Codec codec) throws IOException, CallerNotSubscribedException {
+        PeerInterface stub = target.getStub();
+        long size = Files.size(source);
+        long lastModified = Files.getLastModifiedTime(source).toMillis();
+        Path checkpointPath = shard ? null : getOutgoingCheckpointPath(fileName, target.getName());
+
+        TransferCheckpoint checkpoint = shard ? null : TransferCheckpoint.load(checkpointPath);
+        long offset = 0;
+        if (checkpoint != null && checkpoint.getFileSize() == size && checkpoint.getLastModified() == lastModified) {
+            try {
+                // the copy is committed with the stamp of this backup, like the other copies of it
+                offset = stub.resumeBackupSession(checkpoint.getSessionId(), stamp, this);
+                checkpoint = new TransferCheckpoint(checkpoint.getSessionId(), target.getName(), fileName, size, stamp, lastModified, offset);
+            } catch (IOException e) {
+                // the target discarded the session, start again
+                checkpoint = null;
+            }
+        } else {
+            checkpoint = null;
+        }
+        if (checkpoint == null) {
+            long sessionId = shard ? stub.openShardSession(fileName, size, stamp, this) : stub.openBackupSession(fileName, size, stamp, this);
+            checkpoint = new TransferCheckpoint(sessionId, target.getName(), fileName, size, stamp, lastModified, 0);
+        }
+        long sessionId = checkpoint.getSessionId();
+
+        IOException failure = null;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (attempt > 1)
+                    offset = stub.resumeBackupSession(sessionId, stamp, this);
+                if (offset < size) {
+                    if (dataChannelEnabled)
+                        sendRangeOverDataChannel(source, offset, size, sessionId, target, codec);
+                    else
+                        sendRangeInChunks(source, offset, size, sessionId, target, codec);
+                }
+                stub.commitBackupSession(sessionId, this);
+                break;
+            } catch (IOException e) {
+                // the first error tells why the upload failed, the next ones usually only that it still fails
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+                // a backup refused because the target has a later one is not retried
+                if (attempt < MAX_TRANSFER_ATTEMPTS && !(e instanceof SupersededBackupException) && !Thread.currentThread().isInterrupted()) {
+                    waitBeforeRetry(attempt);
+                    continue;
+                }
+
+                // the target may still hold what arrived, a later backup of the same file continues it
+                if (e instanceof SupersededBackupException) {
+                    if (checkpointPath != null)
+                        TransferCheckpoint.delete(checkpointPath);
+                } else if (checkpointPath != null) {
+                    saveCheckpoint(checkpoint.withOffset(offset), checkpointPath, null);
+                } else {
+                    abortQuietly(stub, sessionId);
+                }
+                throw failure;
+            }
+        }
+
+        if (checkpointPath != null)
+            TransferCheckpoint.delete(checkpointPath);
+    }
+
+    // streams a range of the file on the target's data channel: with transferTo when there is no codec, so the bytes
+    // never reach the heap, otherwise in compressed frames
+    private void sendRangeOverDataChannel(Path source, long offset, long size, long sessionId, PeerInfo target, Codec codec) throws IOException, CallerNotSubscribedException {
+        TransferTicket ticket = target.getStub().openUploadChannel(sessionId, codec.getName(), this);
+        try (FileChannel fileChannel = FileChannel.open(source, StandardOpenOption.READ);
+             SocketChannel channel = DataChannelServer.connect(target.getIPAddress(), ticket)) {
+            long position = codec == Codecs.NONE
+                    ? sendScheduled(fileChannel, offset, size, channel, Priority.BACKUP, target.getName())
+                    : CompressedFrames.send(fileChannel, offset, size, channel, codec, length -> scheduleSend(Priority.BACKUP, target.getName(), length));
+            if (position < size)
+                throw new EOFException(source.getFileName() + " ended at " + position + " of " + size + " bytes");
+
+            // wait until the target has written everything
+            ByteBuffer ack = ByteBuffer.allocate(1);
+            if (channel.read(ack) != 1 || ack.get(0) != 1)
+                throw new IOException("Data transfer of " + source.getFileName() + " not acknowledged");
+        }
+    }
+
+    // uploads a range of the file in chunks through RMI, so only one chunk at a time is held in memory;
+    // every chunk carries its checksum, computed on the slice as it is read, a corrupted one is refused and sent again on retry
+    private void sendRangeInChunks(Path source, long offset, long size, long sessionId, PeerInfo target, Codec codec) throws IOException, CallerNotSubscribedException {
+        try (FileSliceReader reader = FileSliceReader.open(source, offset, size, CHUNK_SIZE)) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            ByteBuffer slice;
+            while ((slice = reader.next()) != null) {
+                int n = slice.remaining();
+                long checksum = FileSliceReader.checksum(slice);
+                slice.get(chunk, 0, n);
+                scheduleSend(Priority.BACKUP, target.getName(), n);
+                target.getStub().putCompressedChunk(sessionId, reader.getSlicePosition(), CompressedBlock.compress(codec, chunk, 0, n, checksum), this);
+            }
+            if (reader.getPosition() < size)
+                throw new EOFException(source.getFileName() + " ended at " + reader.getPosition() + " of " + size + " bytes");
+        } catch (InternalError e) {
+            // a mapped file truncated while it is read faults on the missing pages
+            throw new IOException(source.getFileName() + " changed while it was read", e);
+        }
+    }
+
+    // uploads only the content defined chunks the target does not already have
+    private void sendDeduplicatedFile(File file, String fileName, long stamp, PeerInterface target) throws IOException, CallerNotSubscribedException {
+        // first pass: hash the chunks to build the manifest
+        List<String> hashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            ContentDefinedChunker.split(in, (data, length) -> {
+                hashes.add(ChunkStore.hash(data, 0, length));
+                lengths.add(length);
+            });
+        }
+        FileManifest manifest = new FileManifest(fileName, hashes.toArray(new String[0]), lengths.stream().mapToInt(Integer::intValue).toArray());
+
+        // second pass: send the missing chunks, compressed, in batches of about one transfer chunk
+        Set<String> missing = new HashSet<>(Arrays.asList(target.findMissingChunks(manifest.getChunkHashes(), this)));
+        if (!missing.isEmpty()) {
+            Codec codec = EntropyEstimator.isCompressible(file.toPath()) ? negotiateCodec(target) : Codecs.NONE;
+            List<CompressedBlock> batch = new ArrayList<>();
+            int[] batchSize = {0};
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                ContentDefinedChunker.split(in, (data, length) -> {
+                    if (missing.remove(ChunkStore.hash(data, 0, length))) {
+                        CompressedBlock chunk = CompressedBlock.compress(codec, data, 0, length);
+                        batch.add(chunk);
+                        batchSize[0] += chunk.getData().length;
+                    }
+                    if (batchSize[0] >= CHUNK_SIZE) {
+                        storeChunks(target, batch);
+                        batch.clear();
+                        batchSize[0] = 0;
+                    }
+                });
+            }
+            if (!batch.isEmpty())
+                storeChunks(target, batch);
+        }
+
+        target.commitManifest(manifest, stamp, this);
+    }
+
+    // sends the delta from the copy already stored on the target, or the full file if there is none
+    private void sendIncrementalFile(File file, String fileName, long stamp, PeerInterface target) throws IOException, CallerNotSubscribedException {
+        int blockSize = DeltaEncoder.blockSizeFor(file.length());
+        DeltaBase base = target.getBlockSignatures(fileName, blockSize, this);
+        if (base == null) {
+            sendFullFile(file, fileName, stamp, target);
+            return;
+        }
+
+        long sessionId = target.openDeltaSession(fileName, file.length(), stamp, base.getVersion(), base.getStamp(), this);
+
+        // the target checks the rebuilt file against the hash of what was read here
+        MessageDigest digest = ChunkStore.newDigest();
+        try (InputStream in = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest)) {
+            List<DeltaInstruction> batch = new ArrayList<>();
+            long[] literalBytes = {0};
+
+            new DeltaEncoder(base.getSignatures(), blockSize, CHUNK_SIZE).encode(in, instruction -> {
+                batch.add(instruction);
+                if (!instruction.isCopy())
+                    literalBytes[0] += instruction.getLength();
+                if (literalBytes[0] >= CHUNK_SIZE || batch.size() >= MAX_DELTA_BATCH) {
+                    applyDelta(target, sessionId, batch);
+                    batch.clear();
+                    literalBytes[0] = 0;
+                }
+            });
+            if (!batch.isEmpty())
+                applyDelta(target, sessionId, batch);
+        } catch (IOException e) {
+            target.abortBackupSession(sessionId, this);
+            throw e;
+        }
 
-    private PeerList peerList;
-    private String name;
-    private boolean subscribed;
-    private String serverIP;
-    private ServerInterface serverStub;
+        target.commitDeltaSession(sessionId, HexFormat.of().formatHex(digest.digest()), this);
+    }
 
-    public Peer() throws RemoteException {
-        super();
-        peerList = null;
-        name = null;
-        subscribed = false;
-        serverIP = null;
-        serverStub = null;
+    private void applyDelta(PeerInterface target, long sessionId, List<DeltaInstruction> delta) throws IOException {
+        scheduleSend(Priority.BACKUP, getPeerName(target), delta.stream().filter(i -> !i.isCopy()).mapToLong(i -> i.getLiteral().length).sum());
+        try {
+            target.applyDelta(sessionId, delta, this);
+        } catch (CallerNotSubscribedException e) {
+            throw new IOException("Peer is not subscribed", e);
+        }
     }
 
-    /*
-     * ----------- Getters and setters -----------
-     */
+    // asks the target which codecs it supports the first time, then reuses the choice
+    private Codec negotiateCodec(PeerInterface target) throws RemoteException, CallerNotSubscribedException {
+        Codec codec = negotiatedCodecs.get(target);
+        if (codec == null) {
+            codec = Codecs.negotiate(preferredCodecs, target.getSupportedCodecs(this));
+            negotiatedCodecs.put(target, codec);
+        }
+        return codec;
+    }
 
-    public boolean isSubscribed() {
-        return subscribed;
+    private void storeChunks(PeerInterface target, List<CompressedBlock> chunks) throws IOException {
+        scheduleSend(Priority.BACKUP, getPeerName(target), chunks.stream().mapToLong(c -> c.getData().length).sum());
+        try {
+            target.storeChunks(chunks, this);
+        } catch (CallerNotSubscribedException e) {
+            throw new IOException("Peer is not subscribed", e);
+        }
     }
 
-    public void setSubscribed(boolean subscribed) {
-        this.subscribed = subscribed;
+    // progress counts the bytes written to the local file
+    void recoverFile(String fileName, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        PeerList peerListWithoutSelf = getPeerListWithoutSelf();
+
+        // ask all peers in parallel which version of the file they have, as a copy or as a shard
+        List<Callable<Object>> queries = new ArrayList<>();
+        for (PeerInfo peerInfo : peerListWithoutSelf) {
+            queries.add(() -> peerInfo.getStub().getBackedUpFileVersion(fileName, this));
+            queries.add(() -> peerInfo.getStub().getShardInfo(fileName, this));
+        }
+
+        List<Future<Object>> answers;
+        try {
+            answers = remoteCallExecutor.invokeAll(queries, METADATA_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Recovery interrupted");
+        }
+
+        // sort the peers that have a copy from the most recent version, group the shards by set
+        List<AbstractMap.SimpleImmutableEntry<PeerInfo,FileVersion>> sources = new ArrayList<>();
+        Map<Long,Map<Integer,PeerInfo>> shardSets = new HashMap<>();
+        Map<Long,ShardInfo> shardSetInfo = new HashMap<>();
+        for (int i = 0; i < answers.size(); i++) {
+            PeerInfo peerInfo = peerListWithoutSelf.get(i / 2);
+            try {
+                Object answer = answers.get(i).get();
+                if (answer instanceof FileVersion version) {
+                    sources.add(new AbstractMap.SimpleImmutableEntry<>(peerInfo, version));
+                } else if (answer instanceof ShardInfo shard) {
+                    shardSets.computeIfAbsent(shard.getSetId(), id -> new HashMap<>()).put(shard.getIndex(), peerInfo);
+                    shardSetInfo.put(shard.getSetId(), shard);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CallerNotSubscribedException notSubscribed)
+                    throw notSubscribed;
+                // unreachable peers are just not used as sources
+            } catch (CancellationException | InterruptedException e) {
+                // peer did not answer in time
+            }
+        }
+        // the stamps decide, not the clocks of the peers holding the copies
+        sources.sort(Comparator.comparingLong((AbstractMap.SimpleImmutableEntry<PeerInfo,FileVersion> e) -> e.getValue().getRecency()).reversed());
+
+        // the most recent set of shards that still has enough shards to be decoded
+        ShardInfo shardSet = null;
+        for (ShardInfo info : shardSetInfo.values()) {
+            if (shardSets.get(info.getSetId()).size() >= info.getDataShards() && (shardSet == null || info.getStamp() > shardSet.getStamp()))
+                shardSet = info;
+        }
+
+        if (sources.isEmpty() && shardSet == null)
+            throw new FileNotFoundException("No peer has that file");
+
+        Path localFilesPath = getLocalPath(new File(fileName).getName());
+        IOException lastError = null;
+
+        // rebuild from the shards if they are newer than every full copy
+        // later backups of this peer must be stamped after every copy it has seen
+        if (!sources.isEmpty())
+            clock.update(sources.get(0).getValue().getRecency());
+        if (shardSet != null)
+            clock.update(shardSet.getStamp());
+
+        if (shardSet != null && (sources.isEmpty() || shardSet.getStamp() > sources.get(0).getValue().getRecency())) {
+            try {
+                downloadErasureCodedFile(shardSet, shardSets.get(shardSet.getSetId()), localFilesPath);
+                progress.onProgress(shardSet.getFileSize(), shardSet.getFileSize(), fileName);
+                return;
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+
+        // download only the most recent copy, falling back to the next source if a transfer fails
+        for (var source : sources) {
+            try {
+                downloadFile(source.getKey(), source.getValue(), localFilesPath, progress);
+                return;
+            } catch (IOException e) {
+                lastError = e;
+            }
+        }
+
+        throw new IOException("Recovery failed from every peer: " + lastError.getMessage(), lastError);
     }
 
-    /*
-     * ----------- Remote methods -----------
-     */
+    // downloads a copy into a temporary file, replacing the local file only when complete. The progress is
+    // checkpointed next to the temporary file: a retry, from this source or from another one holding the same
+    // backup, continues from the last durable offset
+    private void downloadFile(PeerInfo source, FileVersion version, Path destination, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        Path tempPath = destination.resolveSibling(destination.getFileName() + ".part");
+        Path checkpointPath = destination.resolveSibling(destination.getFileName() + ".part.ckpt");
+        Files.createDirectories(destination.getParent());
+
+        for (int attempt = 1; ; attempt++) {
+            TransferCheckpoint checkpoint = getDownloadCheckpoint(checkpointPath, tempPath, source, version);
+            try (FileChannel fileChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                fileChannel.truncate(checkpoint.getOffset());
+                try {
+                    // full copies come over the data channel, deduplicated ones are rebuilt by the source and sent in chunks
+                    Codec codec = dataChannelEnabled ? negotiateCodec(source.getStub()) : Codecs.NONE;
+                    TransferTicket ticket = dataChannelEnabled ? source.getStub().openDownloadChannel(version.getFileName(), checkpoint.getOffset(), codec.getName(), this) : null;
+                    if (ticket != null)
+                        downloadOverDataChannel(source, ticket, version, fileChannel, checkpoint, checkpointPath, progress);
+                    else
+                        downloadInChunks(source, version, fileChannel, checkpoint, checkpointPath, progress);
+                    fileChannel.force(false);
+                } catch (IOException e) {
+                    // the bytes written so far are kept for the next attempt
+                    saveCheckpoint(checkpoint, checkpointPath, tempPath);
+                    if (attempt < MAX_TRANSFER_ATTEMPTS && !Thread.currentThread().isInterrupted()) {
+                        waitBeforeRetry(attempt);
+                        continue;
+                    }
+                    throw e;
+                }
+            }
 
-    // invoked by server, update local peer list
-    @Override
-    public void updatePeerList(PeerList list) throws RemoteException {
-        this.peerList = list;
+            Files.move(tempPath, destination, StandardCopyOption.REPLACE_EXISTING);
+            TransferCheckpoint.delete(checkpointPath);
+            return;
+        }
     }
 
-    // invoked by a peer, stores received file as owner's property
-    @Override
-    public void backupFile(File file, byte[] fileData, PeerInterface owner) throws IOException, CallerNotSubscribedException {
-        checkIfCallerIsSubscribed(owner);
+    // the checkpoint of an earlier download of the same backup, or a new one from the start. Copies of a backup
+    // with the same stamp are identical on every peer, older copies without a stamp only resume from the same peer
+    private TransferCheckpoint getDownloadCheckpoint(Path checkpointPath, Path tempPath, PeerInfo source, FileVersion version) throws IOException {
+        TransferCheckpoint checkpoint = TransferCheckpoint.load(checkpointPath);
+        if (checkpoint != null && Files.exists(tempPath)
+                && checkpoint.getFileName().equals(version.getFileName())
+                && checkpoint.getFileSize() == version.getSize()
+                && checkpoint.getStamp() == version.getStamp()
+                && (version.getStamp() != 0 || checkpoint.getPeerName().equals(source.getName()) && checkpoint.getLastModified() == version.getLastModified())
+                && checkpoint.getOffset() <= Files.size(tempPath))
+            return checkpoint;
+
+        return new TransferCheckpoint(0, source.getName(), version.getFileName(), version.getSize(), version.getStamp(), version.getLastModified(), 0);
+    }
 
-        String ownerName = peerList.getElementByStub(owner).getName();
-        Path backupPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + BACKUP_DIR + File.separator + ownerName + File.separator + file.getName());
-        Files.createDirectories(backupPath.getParent());
-        Files.write(backupPath, fileData);
+    // a plain stream straight into the file with no codec, otherwise compressed frames
+    private void downloadOverDataChannel(PeerInfo source, TransferTicket ticket, FileVersion version, FileChannel fileChannel, TransferCheckpoint checkpoint, Path checkpointPath, ProgressListener progress) throws IOException {
+        long size = checkpoint.getOffset() + ticket.getSize();
+        try (SocketChannel socket = DataChannelServer.connect(source.getIPAddress(), ticket);
+             ReadableByteChannel channel = receiveScheduled(socket, Priority.RESTORE, source.getName())) {
+            Codec codec = Codecs.byName(ticket.getCodecName());
+            long position = checkpoint.getOffset();
+            long checkpointed = position;
+            while (position < size) {
+                long n = codec == Codecs.NONE
+                        ? fileChannel.transferFrom(channel, position, Math.min(size - position, DOWNLOAD_CHECKPOINT_INTERVAL))
+                        : CompressedFrames.receive(channel, fileChannel, position, size);
+                if (n <= 0)
+                    throw new EOFException("Copy of " + version.getFileName() + " ended at " + position + " of " + size + " bytes");
+                position += n;
+                if (position - checkpointed >= DOWNLOAD_CHECKPOINT_INTERVAL) {
+                    fileChannel.force(false);
+                    checkpoint.withOffset(position).save(checkpointPath);
+                    checkpointed = position;
+                }
+                progress.onProgress(position, size, version.getFileName());
+            }
+        }
     }
 
-    // invoked by a peer, returns owner's specified file
-    @Override
-    public AbstractMap.SimpleImmutableEntry<File,byte[]> getBackedUpFile(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException {
-        checkIfCallerIsSubscribed(owner);
+    // chunks always come compressed, even with no codec, so that their checksum is verified
+    private void downloadInChunks(PeerInfo source, FileVersion version, FileChannel fileChannel, TransferCheckpoint checkpoint, Path checkpointPath, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        Codec codec = negotiateCodec(source.getStub());
+
+        long offset = checkpoint.getOffset();
+        long checkpointed = offset;
+        while (offset < version.getSize()) {
+            CompressedBlock block = source.getStub().readCompressedBackedUpFileChunk(version.getFileName(), offset, CHUNK_SIZE, codec.getName(), this);
+            scheduleReceive(Priority.RESTORE, source.getName(), block.getData().length);
+            byte[] chunk = block.decompress();
+            if (chunk.length == 0)
+                throw new EOFException("Copy of " + version.getFileName() + " ended at " + offset + " of " + version.getSize() + " bytes");
+
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer, offset + buffer.position());
+            }
+            offset += chunk.length;
+            if (offset - checkpointed >= DOWNLOAD_CHECKPOINT_INTERVAL) {
+                fileChannel.force(false);
+                checkpoint.withOffset(offset).save(checkpointPath);
+                checkpointed = offset;
+            }
+            progress.onProgress(offset, version.getSize(), version.getFileName());
+        }
+    }
 
-        String ownerName = peerList.getElementByStub(owner).getName();
-        Path ownerFilePath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + BACKUP_DIR + File.separator + ownerName + File.separator + fileName);
-        File fileDescriptor;
-        byte[] fileData;
+    // fetches k shards at a time in parallel and decodes them into a temporary file
+    private void downloadErasureCodedFile(ShardInfo shardSet, Map<Integer,PeerInfo> holders, Path destination) throws IOException {
+        Path tempPath = destination.resolveSibling(destination.getFileName() + ".part");
+        Files.createDirectories(destination.getParent());
 
-        if (Files.isRegularFile(ownerFilePath)) {
-            // get file descriptor and read file bytes
-            fileDescriptor = ownerFilePath.toFile();
-            fileData = readFileFromDisk(fileDescriptor);
-        } else {
-            return null;
+        try {
+            ErasureCodedFile.decode(shardSet, holders.keySet(), (index, offset, length) -> {
+                PeerInfo holder = holders.get(index);
+                scheduler.acquire(Priority.RESTORE, holder.getName(), length);
+                return holder.getStub().readShardChunk(shardSet.getFileName(), offset, length, this);
+            }, remoteCallExecutor, tempPath);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempPath);
+            throw e;
         }
 
-        return new AbstractMap.SimpleImmutableEntry<>(fileDescriptor, fileData);
+        Files.move(tempPath, destination, StandardCopyOption.REPLACE_EXISTING);
     }
 
-    // invoked by a peer, returns the list of the owner's stored file names
-    @Override
-    public String[] showBackedUpFiles(PeerInterface owner) throws IOException, CallerNotSubscribedException {
-        checkIfCallerIsSubscribed(owner);
-
-        String ownerName = peerList.getElementByStub(owner).getName();
-        List<String> fileNames;
-        Path ownerBackupPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + BACKUP_DIR + File.separator + ownerName);
+    Map<String,String[]> retrieveBackedUpFilesList() throws IOException, CallerNotSubscribedException {
+        Map<String,String[]> peerWithFiles = new TreeMap<>();
 
-        // take all the file names in the owner's directory
-        if (Files.isDirectory(ownerBackupPath)) {
-            try (var stream = Files.list(ownerBackupPath)) {
-                fileNames = stream.filter(Files::isRegularFile).map(p -> p.getFileName().toString()).toList();
-            }
-        } else {
-            fileNames = new ArrayList<>();
+        // associate each other peer to its files, asking all of them in parallel
+        for (var answer : askAllPeers(peer -> peer.getStub().showBackedUpFiles(this)).entrySet()) {
+            peerWithFiles.put(answer.getKey().getName(), answer.getValue());
         }
 
-        return fileNames.toArray(new String[0]);
+        return peerWithFiles;
     }
 
-    // invoked by server to check if peer is alive
-    @Override
-    public void checkAlive() throws RemoteException {}
+    // runs the same remote call on every other peer at once, peers that fail or do not answer in time are left out
+    private <T> Map<PeerInfo,T> askAllPeers(RemoteQuery<T> query) throws IOException, CallerNotSubscribedException {
+        PeerList peerListWithoutSelf = getPeerListWithoutSelf();
+        List<Callable<T>> queries = new ArrayList<>();
+        for (PeerInfo peerInfo : peerListWithoutSelf) {
+            queries.add(() -> query.call(peerInfo));
+        }
 
-    /*
-     * ----------- Local methods -----------
-     */
+        List<Future<T>> answers;
+        try {
+            answers = remoteCallExecutor.invokeAll(queries, METADATA_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the peers");
+        }
 
-    private void subscribeToServer(String serverIP) throws MalformedURLException, NotBoundException, RemoteException {
-        ServerInterface stub = (ServerInterface) Naming.lookup("rmi://" + serverIP + "/Server");
-        String obtainedName = stub.subscribePeer(this);
-        // if everything goes right
-        serverStub = stub;
-        name = obtainedName;
-        this.serverIP = serverIP;
-        subscribed = true;
+        Map<PeerInfo,T> results = new LinkedHashMap<>();
+        for (int i = 0; i < answers.size(); i++) {
+            try {
+                T result = answers.get(i).get();
+                if (result != null)
+                    results.put(peerListWithoutSelf.get(i), result);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CallerNotSubscribedException notSubscribed)
+                    throw notSubscribed;
+            } catch (CancellationException | InterruptedException e) {
+                // peer did not answer in time
+            }
+        }
+        return results;
     }
 
-    private void unsubscribeFromServer() throws IOException {
-        serverStub.unsubscribePeer(this);
+    @FunctionalInterface
+    private interface RemoteQuery<T> {
+        T call(PeerInfo peer) throws Exception;
+    }
 
-        // delete all backed up files of other peers
-        Path localBackupPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + BACKUP_DIR);
+    // backs up every file under the directory: small files are packed in batches with a few batches
+    // in flight per target, bigger ones go one at a time through the usual path; returns the error of each failed file,
+    // progress counts the files that are done
+    Map<String,String> backupDirectory(Path directory, List<PeerInfo> explicitTargets, BackupOptions options, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        List<Path> files;
+        try (var stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).toList();
+        }
+        int writeQuorum = options.getWriteQuorum();
+        // the small files sent in batches are one backup, with one stamp
+        long stamp = clock.now();
+        FileCounter counter = new FileCounter(files.size(), progress);
+
+        // plan which small files go to which target and how many acknowledgements each one needs
+        Map<Path,Long> sizes = new HashMap<>();
+        Map<PeerInfo,List<Path>> smallFilesByTarget = new HashMap<>();
+        Map<String,AtomicInteger> missingAcks = new ConcurrentHashMap<>();
+        List<Path> largeFiles = new ArrayList<>();
+        for (Path file : files) {
+            long size = Files.size(file);
+            if (size > SMALL_FILE_LIMIT || options.getMode() == BackupMode.ERASURE_CODED && size > SHARD_BLOCK_SIZE) {
+                largeFiles.add(file);
+                continue;
+            }
+            String fileName = getTreeFileName(directory, file);
+            List<PeerInfo> targets = explicitTargets.isEmpty() ? getReplicaTargets(fileName, options.getReplicationFactor()) : explicitTargets;
+            if (targets.isEmpty())
+                throw new IOException("No peer on which backup");
+            sizes.put(file, size);
+            missingAcks.put(fileName, new AtomicInteger(writeQuorum <= 0 || writeQuorum > targets.size() ? targets.size() : writeQuorum));
+            for (PeerInfo target : targets) {
+                smallFilesByTarget.computeIfAbsent(target, t -> new ArrayList<>()).add(file);
+            }
+        }
 
-        if (Files.exists(localBackupPath)) {
-            try (var stream = Files.walk(localBackupPath)) {
-                //.sorted(Comparator.reverseOrder())
-                stream.filter(Files::isRegularFile).forEach(p -> {
+        Map<String,String> errors = new ConcurrentHashMap<>();
+        AtomicReference<CallerNotSubscribedException> notSubscribed = new AtomicReference<>();
+        List<Callable<Void>> batches = new ArrayList<>();
+        for (var entry : smallFilesByTarget.entrySet()) {
+            Semaphore inFlight = new Semaphore(PIPELINE_DEPTH);
+            for (List<Path> batch : BatchPlanner.pack(entry.getValue(), sizes::get, BATCH_BYTES, MAX_BATCH_FILES)) {
+                batches.add(() -> {
+                    inFlight.acquire();
                     try {
-                        Files.delete(p);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+                        sendBatch(directory, batch, stamp, entry.getKey(), missingAcks, errors, counter);
+                    } catch (CallerNotSubscribedException e) {
+                        notSubscribed.set(e);
+                    } finally {
+                        inFlight.release();
                     }
+                    return null;
                 });
             }
         }
 
-        subscribed = false;
+        try {
+            remoteCallExecutor.invokeAll(batches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup interrupted");
+        }
+        if (notSubscribed.get() != null)
+            throw notSubscribed.get();
+
+        Map<String,String> failures = new TreeMap<>();
+        for (var entry : missingAcks.entrySet()) {
+            if (entry.getValue().get() > 0) {
+                failures.put(entry.getKey(), errors.getOrDefault(entry.getKey(), "write quorum not reached"));
+                counter.done(entry.getKey());
+            }
+        }
+
+        for (Path file : largeFiles) {
+            String fileName = getTreeFileName(directory, file);
+            try {
+                backup(file.toFile(), fileName, explicitTargets, options, ProgressListener.NONE);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failures.put(fileName, e.getMessage());
+            }
+            counter.done(fileName);
+        }
+
+        return failures;
     }
 
-    private void backup(File file, int[] nodes, PeerList peerListWithoutSelf) throws IOException, CallerNotSubscribedException {
-        // read file
-        byte[] fileData = readFileFromDisk(file);
+    // sends one batch of small files to a target and counts the acknowledgements of each file
+    private void sendBatch(Path directory, List<Path> batch, long stamp, PeerInfo target, Map<String,AtomicInteger> missingAcks, Map<String,String> errors, FileCounter counter) throws CallerNotSubscribedException {
+        List<PackedFile> packed = new ArrayList<>(batch.size());
+        for (Path file : batch) {
+            String fileName = getTreeFileName(directory, file);
+            try {
+                packed.add(new PackedFile(fileName, Files.readAllBytes(file)));
+            } catch (IOException e) {
+                errors.put(fileName, e.getMessage());
+            }
+        }
 
-        // backup file
-        for (int node : nodes) {
-            PeerInfo peer = peerListWithoutSelf.get(node);
-            peer.getStub().backupFile(file, fileData, this);
+        try {
+            scheduleSend(Priority.BACKUP, target.getName(), packed.stream().mapToLong(f -> f.getData().length).sum());
+            String[] results = target.getStub().backupFiles(packed, stamp, this);
+            for (int i = 0; i < packed.size(); i++) {
+                // a file is done once its quorum has acknowledged
+                if (results[i] == null && missingAcks.get(packed.get(i).getFileName()).decrementAndGet() == 0)
+                    counter.done(packed.get(i).getFileName());
+                else if (results[i] != null)
+                    errors.put(packed.get(i).getFileName(), target.getName() + ": " + results[i]);
+            }
+        } catch (IOException e) {
+            for (PackedFile file : packed) {
+                errors.put(file.getFileName(), target.getName() + ": " + e.getMessage());
+            }
         }
     }
 
-    private void recoverFile(String fileName) throws IOException, CallerNotSubscribedException {
-        PeerList peerListWithoutSelf = getPeerListWithoutSelf();
-        List<AbstractMap.SimpleImmutableEntry<File,byte[]>> filesFormPeers = new ArrayList<>();
-
-        // get all backup copies of that file
-        for (PeerInfo peerInfo : peerListWithoutSelf) {
-            AbstractMap.SimpleImmutableEntry<File,byte[]> file = peerInfo.getStub().getBackedUpFile(fileName, this);
-            if (file != null) {
-                filesFormPeers.add(file);
+    // restores many files, all the backed up ones if none is given: one listing per peer chooses the
+    // newest copy of each file, small files come in pipelined batches and the rest one by one;
+    // files with shards somewhere also go one by one, where the shard set stamp is compared too;
+    // returns the error of each file that could not be restored, progress counts the files that are done
+    Map<String,String> recoverFiles(Collection<String> fileNames, ProgressListener progress) throws IOException, CallerNotSubscribedException {
+        Map<String,AbstractMap.SimpleImmutableEntry<PeerInfo,FileVersion>> newest = new HashMap<>();
+        Map<PeerInfo,FileVersion[]> versions = askAllPeers(peer -> peer.getStub().listBackedUpFileVersions(this));
+        for (var answer : versions.entrySet()) {
+            for (FileVersion version : answer.getValue()) {
+                var current = newest.get(version.getFileName());
+                if (current == null || version.isNewerThan(current.getValue()))
+                    newest.put(version.getFileName(), new AbstractMap.SimpleImmutableEntry<>(answer.getKey(), version));
             }
         }
 
-        // find the most recent file
-        AbstractMap.SimpleImmutableEntry<File,byte[]> latestFile = null;
-        for (var file : filesFormPeers) {
-            if (latestFile == null || file.getKey().lastModified() > latestFile.getKey().lastModified()) {
-                latestFile = file;
+        // erasure coded files are only in the plain listings: a name a peer lists without a version is a shard
+        Set<String> listed = new TreeSet<>();
+        Set<String> sharded = new HashSet<>();
+        for (var answer : askAllPeers(peer -> peer.getStub().showBackedUpFiles(this)).entrySet()) {
+            Set<String> versioned = new HashSet<>();
+            for (FileVersion version : versions.getOrDefault(answer.getKey(), new FileVersion[0])) {
+                versioned.add(version.getFileName());
+            }
+            for (String name : answer.getValue()) {
+                listed.add(name);
+                if (!versioned.contains(name))
+                    sharded.add(name);
             }
         }
 
-        // write the most recent file
-        if (latestFile != null) {
-            Path localFilesPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + LOCAL_FILES_DIR + File.separator + latestFile.getKey().getName());
-            Files.createDirectories(localFilesPath.getParent());
-            Files.write(localFilesPath, latestFile.getValue());
+        Set<String> wanted = new TreeSet<>();
+        if (fileNames.isEmpty()) {
+            wanted.addAll(listed);
         } else {
-            throw new FileNotFoundException("No peer has that file");
+            for (String fileName : fileNames) {
+                wanted.add(new File(fileName).getName());
+            }
+        }
+
+        FileCounter counter = new FileCounter(wanted.size(), progress);
+        Map<PeerInfo,List<FileVersion>> smallFilesBySource = new HashMap<>();
+        Set<String> oneByOne = ConcurrentHashMap.newKeySet();
+        for (String fileName : wanted) {
+            var source = newest.get(fileName);
+            if (source == null || sharded.contains(fileName) || source.getValue().getSize() > SMALL_FILE_LIMIT)
+                oneByOne.add(fileName);
+            else
+                smallFilesBySource.computeIfAbsent(source.getKey(), s -> new ArrayList<>()).add(source.getValue());
+        }
+
+        List<Callable<Void>> batches = new ArrayList<>();
+        for (var entry : smallFilesBySource.entrySet()) {
+            Semaphore inFlight = new Semaphore(PIPELINE_DEPTH);
+            for (List<FileVersion> batch : BatchPlanner.pack(entry.getValue(), FileVersion::getSize, BATCH_BYTES, MAX_BATCH_FILES)) {
+                batches.add(() -> {
+                    inFlight.acquire();
+                    try {
+                        scheduler.acquire(Priority.RESTORE, entry.getKey().getName(), batch.stream().mapToLong(FileVersion::getSize).sum());
+                        List<PackedFile> received = entry.getKey().getStub().getBackedUpFiles(batch.stream().map(FileVersion::getFileName).toList(), this);
+                        for (int i = 0; i < batch.size(); i++) {
+                            PackedFile file = received.get(i);
+                            if (file == null)
+                                oneByOne.add(batch.get(i).getFileName());
+                            else {
+                                writeLocalFile(file);
+                                counter.done(file.getFileName());
+                            }
+                        }
+                    } catch (Exception e) {
+                        // the files of a failed batch are tried again one by one, from any peer
+                        for (FileVersion version : batch) {
+                            oneByOne.add(version.getFileName());
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                    return null;
+                });
+            }
+        }
+
+        try {
+            remoteCallExecutor.invokeAll(batches);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Recovery interrupted");
+        }
+
+        Map<String,String> failures = new TreeMap<>();
+        for (String fileName : new TreeSet<>(oneByOne)) {
+            try {
+                recoverFile(fileName, ProgressListener.NONE);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failures.put(fileName, e.getMessage());
+            }
+            counter.done(fileName);
         }
+        return failures;
     }
 
-    private Map<String,String[]> retrieveBackedUpFilesList() throws IOException, CallerNotSubscribedException {
-        PeerList peerListWithoutSelf = getPeerListWithoutSelf();
-        Map<String,String[]> peerWithFiles = new HashMap<>();
+    // reports one more finished file of a multi-file operation, from any thread
+    private static class FileCounter {
+        private final long total;
+        private final ProgressListener progress;
+        private final AtomicLong done;
 
-        // associate each other peer to its files
-        for (PeerInfo peerInfo : peerListWithoutSelf) {
-            String[] files = peerInfo.getStub().showBackedUpFiles(this);
-            peerWithFiles.put(peerInfo.getName(), files);
+        FileCounter(long total, ProgressListener progress) {
+            this.total = total;
+            this.progress = progress;
+            this.done = new AtomicLong();
         }
 
-        return peerWithFiles;
+        void done(String fileName) {
+            progress.onProgress(done.incrementAndGet(), total, fileName);
+        }
+    }
+
+    private void writeLocalFile(PackedFile file) throws IOException {
+        Path destination = getLocalPath(file.getFileName());
+        Path tempPath = destination.resolveSibling(destination.getFileName() + ".part");
+        Files.createDirectories(destination.getParent());
+        Files.write(tempPath, file.getData());
+        Files.move(tempPath, destination, StandardCopyOption.REPLACE_EXISTING);
     }
 
     /*
      * ----------- Utility methods -----------
      */
 
+    // files of a directory are stored under their path from the directory, with the separators escaped
+    private static String getTreeFileName(Path directory, Path file) {
+        StringBuilder name = new StringBuilder(directory.getFileName().toString().replace("%", "%25"));
+        for (Path part : directory.relativize(file)) {
+            name.append("%2F").append(part.toString().replace("%", "%25"));
+        }
+        return name.toString();
+    }
+
+    // where a recovered file is written, files of a directory go back to their subdirectory
+    private Path getLocalPath(String fileName) throws IOException {
+        Path localFilesDir = Paths.get(ROOT_FILE_DIR, this.name, LOCAL_FILES_DIR).toAbsolutePath().normalize();
+        Path path = localFilesDir;
+        for (String part : fileName.split("%2F")) {
+            path = path.resolve(part.replace("%25", "%"));
+        }
+        path = path.normalize();
+        if (!path.startsWith(localFilesDir) || path.equals(localFilesDir))
+            throw new IOException("Invalid file name: " + fileName);
+        return path;
+    }
+
+    // checkpoint of the upload of a full copy to a target, kept until the target commits it
+    private Path getOutgoingCheckpointPath(String fileName, String targetName) {
+        return Paths.get(ROOT_FILE_DIR, this.name, OUTGOING_DIR, fileName + "." + targetName + ".ckpt");
+    }
+
+    // saves the checkpoint of a failed transfer, also when it failed because it was cancelled: the interrupt
+    // would close the channels used to save it. If a download is given, its bytes are forced to disk first
+    private static void saveCheckpoint(TransferCheckpoint checkpoint, Path checkpointPath, Path download) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (download != null) {
+                try (FileChannel channel = FileChannel.open(download, StandardOpenOption.WRITE)) {
+                    channel.force(false);
+                    checkpoint = checkpoint.withOffset(channel.size());
+                }
+            }
+            checkpoint.save(checkpointPath);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // waits until the scheduler lets the bytes through
+    private void schedule(Priority priority, String peerName, long bytes) throws InterruptedIOException {
+        try {
+            scheduler.acquire(priority, peerName, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        }
+    }
+
+    private void scheduleSend(Priority priority, String peerName, long bytes) throws InterruptedIOException {
+        schedule(priority, peerName, bytes);
+        sentBytes.labels(peerName).add(bytes);
+    }
+
+    private void scheduleReceive(Priority priority, String peerName, long bytes) throws InterruptedIOException {
+        schedule(priority, peerName, bytes);
+        receivedBytes.labels(peerName).add(bytes);
+    }
+
+    // a channel that asks the scheduler for every slice read from the given one and counts it as received
+    private ReadableByteChannel receiveScheduled(ReadableByteChannel channel, Priority priority, String peerName) {
+        ReadableByteChannel throttled = scheduler.throttle(channel, priority, peerName);
+        LongAdder received = receivedBytes.labels(peerName);
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int n = throttled.read(dst);
+                if (n > 0)
+                    received.add(n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return throttled.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                throttled.close();
+            }
+        };
+    }
+
+    // read at every collection, nothing to update on the hot path
+    private void registerGauges() {
+        metrics.gauge("backupsystem_peer_membership_epoch", "Epoch of the peer list of this peer", () -> {
+            PeerList list = peerList;
+            return list == null ? 0 : list.getEpoch();
+        });
+        metrics.gauge("backupsystem_peer_known_peers", "Peers in the peer list of this peer", () -> {
+            PeerList list = peerList;
+            return list == null ? 0 : list.size();
+        });
+        metrics.gauge("backupsystem_peer_upload_sessions", "Uploads in progress on this peer", uploadSessions::size);
+        metrics.gauge("backupsystem_peer_stored_bytes", "Bytes of the backups stored for each owner", "owner", () -> {
+            Map<String,Long> bytes = new HashMap<>();
+            BackupStorage backups = storage;
+            if (backups != null) {
+                for (String owner : backups.listOwners())
+                    bytes.put(owner, backups.getStoredBytes(owner));
+            }
+            return bytes;
+        });
+        metrics.counter("backupsystem_peer_restore_cache_hits_total", "Blocks of backups served from the restore cache", () -> restoreCache.getHits());
+        metrics.counter("backupsystem_peer_restore_cache_misses_total", "Blocks of backups read from disk for the restore cache", () -> restoreCache.getMisses());
+        metrics.counter("backupsystem_peer_restore_cache_evictions_total", "Blocks evicted from the restore cache to make room", () -> restoreCache.getEvictions());
+        metrics.counter("backupsystem_peer_restore_cache_rejections_total", "Blocks not admitted to the restore cache", () -> restoreCache.getRejections());
+        metrics.gauge("backupsystem_peer_restore_cache_bytes", "Bytes held by the restore cache", () -> restoreCache.getSize());
+        metrics.gauge("backupsystem_peer_restore_cache_blocks", "Blocks held by the restore cache", () -> restoreCache.getBlockCount());
+        metrics.gauge("backupsystem_peer_scheduled_bytes", "Bytes let through by the transfer scheduler for each priority", "priority", () -> {
+            Map<String,Long> bytes = new HashMap<>();
+            for (Priority priority : Priority.values())
+                bytes.put(priority.name().toLowerCase(), scheduler.getGrantedBytes(priority));
+            return bytes;
+        });
+    }
+
+    // sends a range of a file on a data channel one chunk at a time, each chunk when the scheduler lets it
+    // through; returns where it stopped, before the end only if the file got shorter
+    private long sendScheduled(FileChannel file, long position, long end, SocketChannel channel, Priority priority, String peerName) throws IOException {
+        while (position < end) {
+            long length = Math.min(CHUNK_SIZE, end - position);
+            scheduleSend(priority, peerName, length);
+            long sent = DataChannelServer.send(file, position, position + length, channel);
+            if (sent < position + length)
+                return sent;
+            position = sent;
+        }
+        return position;
+    }
+
+    private String getPeerName(PeerInterface stub) {
+        PeerInfo peer = peerList.getElementByStub(stub);
+        return peer == null ? "" : peer.getName();
+    }
+
+    // waits a little longer after each failed attempt, giving a dropped connection time to come back
+    private static void waitBeforeRetry(int attempt) throws InterruptedIOException {
+        try {
+            Thread.sleep(TRANSFER_RETRY_DELAY_MILLIS << (attempt - 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        }
+    }
+
+    // the target discards the session by itself if it cannot be reached now
+    private void abortQuietly(PeerInterface target, long sessionId) {
+        try {
+            target.abortBackupSession(sessionId, this);
+        } catch (IOException | CallerNotSubscribedException e) {
+            // nothing else to do
+        }
+    }
+
+    private static List<PeerInfo> getPeersByIndex(int[] nodes, PeerList peerListWithoutSelf) {
+        List<PeerInfo> peers = new ArrayList<>();
+        for (int node : Arrays.stream(nodes).distinct().toArray()) {
+            peers.add(peerListWithoutSelf.get(node));
+        }
+        return peers;
+    }
+
     public static boolean validateIPaddress(final String ip) {
         Pattern pattern = Pattern.compile("^((([01]?\\d\\d?|2[0-4]\\d|25[0-5])\\.){3}([01]?\\d\\d?|2[0-4]\\d|25[0-5]))|(localhost)$");
         return pattern.matcher(ip).matches();
@@ -224,6 +2144,8 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         System.out.println("2. Recovery lost file");
         System.out.println("3. Show backed up files");
         System.out.println("4. Unsubscribe from server");
+        System.out.println("5. Backup a directory");
+        System.out.println("6. Recovery many files");
 
         System.out.print("Enter your choice: ");
         try {
@@ -268,29 +2190,86 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         System.out.println();
     }
 
-    private byte[] readFileFromDisk(File file) throws IOException {
-        byte[] fileData;
+    // returns the upload session only if it was opened by the calling peer
+    private UploadSession getUploadSession(long sessionId, PeerInterface owner) throws IOException, CallerNotSubscribedException {
+        String ownerName = getCallerName(owner);
+        UploadSession session = uploadSessions.get(sessionId);
+        if (session == null || !session.getOwnerName().equals(ownerName))
+            throw new IOException("No upload session " + sessionId + " for " + ownerName);
+        return session;
+    }
 
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+    // remote calls find the new upload by its id
+    private UploadSession startUpload(String ownerName, String fileName, long size, long stamp, boolean shard) throws IOException {
+        expireIdleSessions();
+        long sessionId = nextSessionId.incrementAndGet();
+        Path tempPath = Paths.get(ROOT_FILE_DIR + File.separator + this.name + File.separator + INCOMING_DIR + File.separator + sessionId + ".part");
 
-            byte[] buffer = new byte[4096];
-            int n;
+        clock.update(stamp);
+        UploadSession session = new UploadSession(sessionId, ownerName, fileName, size, stamp, tempPath, shard);
+        uploadSessions.put(sessionId, session);
+        return session;
+    }
 
-            while ((n = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, n);
-            }
+    private void receiveChunk(UploadSession session, long offset, byte[] chunkData) throws IOException {
+        scheduleReceive(Priority.BACKUP, session.getOwnerName(), chunkData.length);
+        session.append(offset, chunkData);
+    }
 
-            fileData = baos.toByteArray();
+    // makes the uploaded file visible as a full copy or shard
+    private void finishUpload(UploadSession session) throws IOException {
+        uploadSessions.remove(session.getId());
+        try {
+            session.commit();
+            if (session.isShard())
+                storage.commitShard(session.getOwnerName(), session.getFileName(), session.getTempPath(), session.getStamp());
+            else
+                storage.commitFullCopy(session.getOwnerName(), session.getFileName(), session.getTempPath(), session.getStamp());
+        } catch (IOException e) {
+            session.abort();
+            throw e;
         }
+    }
+
+    private void discardUpload(UploadSession session) throws IOException {
+        uploadSessions.remove(session.getId());
+        session.abort();
+    }
+
+    // at most one chunk of the owner's file, counted against the restore share of the owner
+    private byte[] readChunk(String ownerName, String fileName, long offset, int length) throws IOException {
+        byte[] data = storage.read(ownerName, fileName, offset, Math.min(length, CHUNK_SIZE));
+        scheduleSend(Priority.RESTORE, ownerName, data.length);
+        return data;
+    }
 
-        return fileData;
+    // uploads abandoned by their owner are discarded, with their temporary files
+    private void expireIdleSessions() {
+        long now = System.currentTimeMillis();
+        for (UploadSession session : uploadSessions.values()) {
+            if (now - session.getLastActivity() > UPLOAD_IDLE_TIMEOUT_MILLIS && uploadSessions.remove(session.getId(), session)) {
+                try {
+                    session.abort();
+                } catch (IOException e) {
+                    System.err.println("Could not discard upload of " + session.getFileName() + ": " + e.getMessage());
+                }
+            }
+        }
     }
 
     private void checkIfCallerIsSubscribed(PeerInterface caller) throws CallerNotSubscribedException {
-        if (!peerList.stubInList(caller)){
+        getCallerName(caller);
+    }
+
+    // remote calls run on any RMI thread while the list may be replaced, so it is read once
+    private String getCallerName(PeerInterface caller) throws CallerNotSubscribedException {
+        if (!subscribed)
+            throw new CallerNotSubscribedException("This peer is not subscribed");
+        PeerList list = peerList;
+        PeerInfo callerInfo = list == null ? null : list.getElementByStub(caller);
+        if (callerInfo == null)
             throw new CallerNotSubscribedException("Calling peer is not subscribed");
-        }
+        return callerInfo.getName();
     }
 
     /*
@@ -308,6 +2287,7 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
         // Interface
         Scanner scanner = new Scanner(System.in);
         int choice;
+        MetricsEndpoint metricsEndpoint = null;
 
         do {
             if (thisPeer.isSubscribed()) {
@@ -330,21 +2310,45 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
 
                                 // ask which peer(s)
                                 thisPeer.showPeerList(peerListWithoutSelf);
-                                System.out.print("Enter peer IDs on which backup the selected file: ");
-                                int[] nodes = Arrays.stream(scanner.nextLine().split("(,|;| +)")).mapToInt(Integer::parseInt).toArray();
+                                System.out.print("Enter peer IDs on which backup the selected file (empty for automatic placement): ");
+                                String ids = scanner.nextLine().trim();
                                 System.out.print("\n");
+                                int[] nodes = ids.isEmpty() ? new int[0] : Arrays.stream(ids.split("(,|;| +)")).mapToInt(Integer::parseInt).toArray();
+                                if (nodes.length == 0) {
+                                    System.out.print("Enter replication factor (empty for " + thisPeer.getReplicationFactor() + "): ");
+                                    String factor = scanner.nextLine().trim();
+                                    System.out.print("\n");
+                                    if (!factor.isEmpty())
+                                        thisPeer.setReplicationFactor(Integer.parseInt(factor));
+                                }
                                 for (int node : nodes)
                                     if (node < 0 || node >= peerListWithoutSelf.size())
                                         throw new IndexOutOfBoundsException("Peer IDs must be between 0 and " + (peerListWithoutSelf.size() - 1));
 
+                                // ask how to transfer the file
+                                System.out.print("Enter backup mode (1 full, 2 deduplicated, 3 incremental, 4 erasure coded, empty for " + thisPeer.getBackupMode().name().toLowerCase() + "): ");
+                                String mode = scanner.nextLine().trim();
+                                System.out.print("\n");
+                                if (!mode.isEmpty())
+                                    thisPeer.setBackupMode(BackupMode.values()[Integer.parseInt(mode) - 1]);
+
+                                // ask how many acknowledgements to wait for
+                                System.out.print("Enter write quorum (empty to wait for all peers): ");
+                                String quorum = scanner.nextLine().trim();
+                                System.out.print("\n");
+                                thisPeer.setWriteQuorum(quorum.isEmpty() ? 0 : Integer.parseInt(quorum));
+
                                 // backup
-                                thisPeer.backup(file, nodes, peerListWithoutSelf);
-                                System.out.print("File backed up on nodes: ");
-                                for (int i = 0; i < nodes.length; i++) {
-                                    System.out.print(nodes[i]);
-                                    if (i != nodes.length - 1) System.out.print(", ");
+                                ReplicationResult result = thisPeer.backup(file, getPeersByIndex(nodes, peerListWithoutSelf), thisPeer.getBackupOptions(), ProgressListener.NONE);
+                                System.out.println("File backed up on " + result.getAcknowledged() + " of " + result.getStatuses().size() + " nodes:");
+                                Map<String,Exception> errors = result.getErrors();
+                                for (var entry : result.getStatuses().entrySet()) {
+                                    switch (entry.getValue()) {
+                                        case SUCCEEDED -> System.out.println("- " + entry.getKey() + ": done");
+                                        case FAILED -> System.out.println("- " + entry.getKey() + ": failed (" + errors.get(entry.getKey()).getMessage() + ")");
+                                        case PENDING -> System.out.println("- " + entry.getKey() + ": still in progress");
+                                    }
                                 }
-                                System.out.println();
 
                             } catch (FileNotFoundException e) {
                                 System.err.println("File not found: " + e.getMessage());
@@ -373,7 +2377,7 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
 
                         // try to recover file
                         try {
-                            thisPeer.recoverFile(fileName);
+                            thisPeer.recoverFile(fileName, ProgressListener.NONE);
                             System.out.println("File recovered");
                         } catch (IOException e) {
                             System.err.println("Error in recovering file: " + e.getMessage());
@@ -419,6 +2423,80 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
                     }
                     break;
 
+                    // backup all the files of a directory tree
+                    case 5: {
+                        PeerList peerListWithoutSelf = thisPeer.getPeerListWithoutSelf();
+                        if (!peerListWithoutSelf.isEmpty()) {
+                            try {
+                                // ask which directory
+                                System.out.print("Enter directory name: ");
+                                Path directory = Paths.get(scanner.nextLine()).toAbsolutePath().normalize();
+                                System.out.print("\n");
+                                if (!Files.isDirectory(directory))
+                                    throw new FileNotFoundException(directory.toString());
+
+                                // ask which peer(s)
+                                thisPeer.showPeerList(peerListWithoutSelf);
+                                System.out.print("Enter peer IDs on which backup the directory (empty for automatic placement): ");
+                                String ids = scanner.nextLine().trim();
+                                System.out.print("\n");
+                                int[] nodes = ids.isEmpty() ? new int[0] : Arrays.stream(ids.split("(,|;| +)")).mapToInt(Integer::parseInt).toArray();
+                                for (int node : nodes)
+                                    if (node < 0 || node >= peerListWithoutSelf.size())
+                                        throw new IndexOutOfBoundsException("Peer IDs must be between 0 and " + (peerListWithoutSelf.size() - 1));
+
+                                // backup
+                                Map<String,String> failures = thisPeer.backupDirectory(directory, getPeersByIndex(nodes, peerListWithoutSelf), thisPeer.getBackupOptions(), ProgressListener.NONE);
+                                if (failures.isEmpty()) {
+                                    System.out.println("Directory backed up");
+                                } else {
+                                    System.out.println(failures.size() + " files not backed up:");
+                                    failures.forEach((file, error) -> System.out.println("- " + file + ": " + error));
+                                }
+                            } catch (FileNotFoundException e) {
+                                System.err.println("Directory not found: " + e.getMessage());
+                            } catch (IndexOutOfBoundsException e) {
+                                System.err.println("Error: " + e.getMessage());
+                            } catch (IOException e) {
+                                System.err.println("Error in backup: " + e.getMessage());
+                            } catch (NumberFormatException e) {
+                                System.err.println("Peer IDs must be integers: " + e.getMessage());
+                            } catch (CallerNotSubscribedException e) {
+                                System.err.println("Peer is not subscribed");
+                                thisPeer.setSubscribed(false);
+                            }
+                        } else {
+                            System.out.println("There are no peers on which backup");
+                        }
+                    }
+                    break;
+
+                    // recovery many backed up files
+                    case 6: {
+                        // ask which files
+                        System.out.print("Enter file names to recover, separated by commas (empty for all): ");
+                        String names = scanner.nextLine().trim();
+                        System.out.print("\n");
+                        List<String> fileNames = names.isEmpty() ? List.of() : Arrays.stream(names.split(",")).map(String::trim).filter(n -> !n.isEmpty()).toList();
+
+                        // try to recover files
+                        try {
+                            Map<String,String> failures = thisPeer.recoverFiles(fileNames, ProgressListener.NONE);
+                            if (failures.isEmpty()) {
+                                System.out.println("Files recovered");
+                            } else {
+                                System.out.println(failures.size() + " files not recovered:");
+                                failures.forEach((file, error) -> System.out.println("- " + file + ": " + error));
+                            }
+                        } catch (IOException e) {
+                            System.err.println("Error in recovering files: " + e.getMessage());
+                        } catch (CallerNotSubscribedException e) {
+                            System.err.println("Peer is not subscribed");
+                            thisPeer.setSubscribed(false);
+                        }
+                    }
+                    break;
+
                     default: {
                         System.err.println("Invalid choice");
                     }
@@ -435,6 +2513,11 @@ public class Peer extends UnicastRemoteObject implements PeerInterface {
                         try {
                             thisPeer.subscribeToServer(serverIP);
                             System.out.println("Correctly subscribed to server");
+                            // on a free port, many peers can run on the same host
+                            if (metricsEndpoint == null) {
+                                metricsEndpoint = new MetricsEndpoint(thisPeer.getMetrics(), thisPeer.getName(), 0);
+                                System.out.println("Metrics at http://localhost:" + metricsEndpoint.getPort() + "/metrics");
+                            }
                         } catch (Exception e) {
                             System.err.println("Error in subscribing to server: " + e.getMessage());
                         }
@@ -0,0 +1,201 @@
+package backupsystem.agents;
+
+import backupsystem.datastructures.BackupOptions;
+import backupsystem.datastructures.PeerInfo;
+import backupsystem.datastructures.PeerList;
+import backupsystem.exceptions.CallerNotSubscribedException;
+import backupsystem.transfer.ReplicationResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Asynchronous front end of a peer: every operation runs on its own virtual thread, so many backups and
+// recoveries can be in progress at once without holding a platform thread each while they wait on the network.
+// The returned futures can be cancelled, fail with a TimeoutException at their deadline and report progress.
+public class PeerClient implements Closeable {
+    private final Peer peer;
+    private final ThreadFactory workers;
+    private final Set<OperationFuture<?>> running;
+    private volatile boolean closed;
+
+    public PeerClient(Peer peer) {
+        this.peer = peer;
+        this.workers = Thread.ofVirtual().name("peer-client-", 0).factory();
+        this.running = ConcurrentHashMap.newKeySet();
+        this.closed = false;
+    }
+
+    public Peer getPeer() {
+        return peer;
+    }
+
+    /*
+     * ----------- Operations -----------
+     */
+
+    public CompletableFuture<Void> subscribe(String serverIP, Duration deadline) {
+        return submit(deadline, () -> {
+            peer.subscribeToServer(serverIP);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> unsubscribe(Duration deadline) {
+        return submit(deadline, () -> {
+            checkSubscribed();
+            peer.unsubscribeFromServer();
+            return null;
+        });
+    }
+
+    // backs up the file with the peer's current settings, on the peers chosen by the ring
+    public CompletableFuture<ReplicationResult> backup(Path file) {
+        return backup(file, peer.getBackupOptions(), List.of(), null, ProgressListener.NONE);
+    }
+
+    // without target names the targets are chosen by the ring, progress counts the targets that acknowledged
+    public CompletableFuture<ReplicationResult> backup(Path file, BackupOptions options, List<String> targetNames, Duration deadline, ProgressListener progress) {
+        return submit(deadline, () -> peer.backup(file.toFile(), resolveTargets(targetNames), options, progress));
+    }
+
+    // completes with the error of each file that was not backed up, progress counts the files
+    public CompletableFuture<Map<String,String>> backupDirectory(Path directory, BackupOptions options, List<String> targetNames, Duration deadline, ProgressListener progress) {
+        return submit(deadline, () -> peer.backupDirectory(directory.toAbsolutePath().normalize(), resolveTargets(targetNames), options, progress));
+    }
+
+    public CompletableFuture<Void> recover(String fileName) {
+        return recover(fileName, null, ProgressListener.NONE);
+    }
+
+    // progress counts the bytes written to the local file
+    public CompletableFuture<Void> recover(String fileName, Duration deadline, ProgressListener progress) {
+        return submit(deadline, () -> {
+            checkSubscribed();
+            peer.recoverFile(fileName, progress);
+            return null;
+        });
+    }
+
+    // every backed up file if no name is given, completes with the error of each file that was not recovered
+    public CompletableFuture<Map<String,String>> recoverFiles(Collection<String> fileNames, Duration deadline, ProgressListener progress) {
+        List<String> names = List.copyOf(fileNames);
+        return submit(deadline, () -> {
+            checkSubscribed();
+            return peer.recoverFiles(names, progress);
+        });
+    }
+
+    // files backed up on each other peer
+    public CompletableFuture<Map<String,String[]>> listBackedUpFiles(Duration deadline) {
+        return submit(deadline, () -> {
+            checkSubscribed();
+            return peer.retrieveBackedUpFilesList();
+        });
+    }
+
+    // cancels the operations still running, the peer stays subscribed
+    @Override
+    public void close() {
+        closed = true;
+        for (OperationFuture<?> operation : running) {
+            operation.cancel(true);
+        }
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    private <T> CompletableFuture<T> submit(Duration deadline, Operation<T> operation) {
+        OperationFuture<T> future = new OperationFuture<>();
+        if (closed) {
+            future.completeExceptionally(new IllegalStateException("Client is closed"));
+            return future;
+        }
+
+        Thread worker = workers.newThread(() -> {
+            try {
+                future.complete(operation.run());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                future.detach();
+                running.remove(future);
+            }
+        });
+        running.add(future);
+        future.attach(worker);
+        if (deadline != null)
+            future.orTimeout(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        worker.start();
+        return future;
+    }
+
+    private void checkSubscribed() throws CallerNotSubscribedException {
+        if (!peer.isSubscribed())
+            throw new CallerNotSubscribedException("Peer is not subscribed");
+    }
+
+    private List<PeerInfo> resolveTargets(List<String> targetNames) throws IOException, CallerNotSubscribedException {
+        checkSubscribed();
+        PeerList peerListWithoutSelf = peer.getPeerListWithoutSelf();
+        List<PeerInfo> targets = new ArrayList<>();
+        for (String targetName : targetNames) {
+            PeerInfo target = peerListWithoutSelf.getElementByName(targetName);
+            if (target == null)
+                throw new IOException("Unknown peer: " + targetName);
+            targets.add(target);
+        }
+        return targets;
+    }
+
+    // future that interrupts its worker when it is completed from outside, by a cancel or by the deadline
+    private static class OperationFuture<T> extends CompletableFuture<T> {
+        private volatile Thread worker;
+
+        void attach(Thread worker) {
+            this.worker = worker;
+        }
+
+        void detach() {
+            this.worker = null;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled)
+                interruptWorker();
+            return cancelled;
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable e) {
+            boolean completed = super.completeExceptionally(e);
+            if (completed && Thread.currentThread() != worker)
+                interruptWorker();
+            return completed;
+        }
+
+        // dependent stages are plain futures, they do not own the worker
+        @Override
+        public <U> CompletableFuture<U> newIncompleteFuture() {
+            return new CompletableFuture<>();
+        }
+
+        private void interruptWorker() {
+            Thread current = worker;
+            if (current != null)
+                current.interrupt();
+        }
+    }
+}
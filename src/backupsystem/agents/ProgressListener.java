@@ -0,0 +1,10 @@
+package backupsystem.agents;
+
+// Receives the progress of a long running operation, from the threads doing the work.
+// Units depend on the operation: targets for a backup, files for many files, bytes for a recovery.
+@FunctionalInterface
+public interface ProgressListener {
+    ProgressListener NONE = (completed, total, item) -> {};
+
+    void onProgress(long completed, long total, String item);
+}
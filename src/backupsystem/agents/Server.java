@@ -1,52 +1,118 @@
 package backupsystem.agents;
 
+import backupsystem.datastructures.MembershipDelta;
 import backupsystem.datastructures.PeerInfo;
 import backupsystem.datastructures.PeerList;
 import backupsystem.exceptions.DuplicateElementException;
 import backupsystem.interfaces.PeerInterface;
 import backupsystem.interfaces.ServerInterface;
+import backupsystem.membership.MembershipPublisher;
+import backupsystem.membership.PhiAccrualFailureDetector;
+import backupsystem.metrics.MetricsEndpoint;
+import backupsystem.metrics.MetricsRegistry;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.RemoteServer;
 import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 
 public class Server extends UnicastRemoteObject implements ServerInterface {
+    // peers detect failures among themselves, this sweep only catches what they cannot report
+    private static final long HEARTBEAT_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long HEARTBEAT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(3);
+    // a peer is evicted when the chance that its heartbeat is only late drops below 1e-8
+    private static final double PHI_THRESHOLD = 8;
+    private static final int METRICS_PORT = 9400;
+
     private final PeerList peerList;
+    private final MembershipPublisher publisher;
+    private final PhiAccrualFailureDetector failureDetector;
+    private final ExecutorService heartbeatExecutor;
+    private final MetricsRegistry metrics;
+    private final MetricsRegistry.HistogramFamily rpcLatency;
+    private final MetricsRegistry.HistogramFamily heartbeatRtt;
+    private final MetricsRegistry.CounterFamily missedHeartbeats;
+    private final MetricsRegistry.CounterFamily evictions;
+    private final MetricsRegistry.CounterFamily refutedReports;
+    // peers reported dead whose probe is still running, a burst of reports probes them once
+    private final Set<String> confirming;
 
     public Server() throws RemoteException {
+        this(HEARTBEAT_PERIOD_MILLIS);
+    }
+
+    public Server(long heartbeatPeriodMillis) throws RemoteException {
         super();
         this.peerList = new PeerList();
+        this.publisher = new MembershipPublisher(this::getPeerListSnapshot);
+        // tolerates a pause of about one period, like a long GC, before suspicion grows
+        this.failureDetector = new PhiAccrualFailureDetector(heartbeatPeriodMillis, heartbeatPeriodMillis / 4, heartbeatPeriodMillis / 2);
+        this.heartbeatExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.metrics = new MetricsRegistry();
+        this.rpcLatency = metrics.latency("backupsystem_server_rpc_duration_seconds", "Time to serve each remote method", "method");
+        this.heartbeatRtt = metrics.latency("backupsystem_server_heartbeat_rtt_seconds", "Round trip time of the heartbeat probes", null);
+        this.missedHeartbeats = metrics.counter("backupsystem_server_missed_heartbeats_total", "Heartbeat probes that failed or timed out");
+        this.evictions = metrics.counter("backupsystem_server_evictions_total", "Peers removed without unsubscribing, by the heartbeat or reported by a peer", "reason");
+        this.refutedReports = metrics.counter("backupsystem_server_refuted_reports_total", "Peers reported dead that answered the probe of the server");
+        this.confirming = ConcurrentHashMap.newKeySet();
+        metrics.gauge("backupsystem_server_membership_epoch", "Epoch of the peer list", this::getEpoch);
+        metrics.gauge("backupsystem_server_peers", "Subscribed peers", this::getPeerCount);
 
-        // Execute herthbeat thread
+        // Execute herthbeat thread, with a fixed delay so sweeps never overlap
         ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
-        scheduler.scheduleAtFixedRate(() -> {
+        scheduler.scheduleWithFixedDelay(() -> {
             try {
                 checkIfPeersAreAlive();
             } catch (Exception e) {
                 System.err.println("Error in scheduling hearthbeat: " + e.getMessage());
             }
-        }, 5, 5, TimeUnit.SECONDS);
+        }, heartbeatPeriodMillis, heartbeatPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    // counters, histograms and gauges of the server, exported by a MetricsEndpoint
+    public MetricsRegistry getMetrics() {
+        return metrics;
     }
 
+    private synchronized long getEpoch() {
+        return peerList.getEpoch();
+    }
+
+    private synchronized long getPeerCount() {
+        return peerList.size();
+    }
+
+    /*
+     * ----------- Remote methods -----------
+     */
+
     @Override
     public synchronized String subscribePeer(PeerInterface peerStub) throws RemoteException {
+        long startNanos = System.nanoTime();
         try {
             // Obtain peer IP address and generate unique name
             String IPAddress = RemoteServer.getClientHost();
             String name = "Peer-" + UUID.randomUUID().toString().substring(0, 11);
             // Add peer to the list
-            peerList.add(name, IPAddress, peerStub);
-            // Send updated list to each subscribed peer
-            sendUpdatedList();
+            PeerInfo peer = new PeerInfo(name, IPAddress, peerStub);
+            peerList.add(peer);
+            failureDetector.heartbeat(name, System.currentTimeMillis());
+            // Send the change to each other subscribed peer, the new peer asks for the whole list
+            publisher.publish(peerList.getListWithoutPeer(name), new MembershipDelta(peerList.getEpoch(), MembershipDelta.Type.ADDED, peer));
             System.out.println("New peer subscribed: " + name);
             printPeerList();
             // Return peer name to invoker
@@ -55,14 +121,65 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
             throw new RuntimeException("Server cannot determine peer IP address");
         } catch (DuplicateElementException e) {
             throw new RuntimeException("Peer already subscribed");
+        } finally {
+            rpcLatency.labels("subscribePeer").recordSince(startNanos);
         }
     }
 
     @Override
-    public synchronized void unsubscribePeer(PeerInterface peerStub) throws RemoteException {
+    public void unsubscribePeer(PeerInterface peerStub) throws RemoteException {
+        long startNanos = System.nanoTime();
         try {
+            removePeer(peerStub);
+        } finally {
+            rpcLatency.labels("unsubscribePeer").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer whose failure detector declared another peer dead. A reporter cut off by a partition
+    // would see every peer dead, so the server probes the peer itself, in background, and evicts it only
+    // if it does not answer either
+    @Override
+    public void reportFailedPeer(String peerName, PeerInterface reporter) throws RemoteException {
+        long startNanos = System.nanoTime();
+        try {
+            PeerInfo reporterInfo;
+            PeerInfo peer;
+            synchronized (this) {
+                reporterInfo = peerList.getElementByStub(reporter);
+                peer = peerList.getElementByName(peerName);
+            }
+            if (reporterInfo != null && peer != null && confirming.add(peerName)) {
+                System.out.println("Peer " + peerName + " reported dead by " + reporterInfo.getName() + ", checking ...");
+                heartbeatExecutor.execute(() -> confirmFailure(peer));
+            }
+        } finally {
+            rpcLatency.labels("reportFailedPeer").recordSince(startNanos);
+        }
+    }
+
+    // invoked by a peer after subscribing or when it missed some changes
+    @Override
+    public PeerList getPeerList(PeerInterface caller) throws RemoteException {
+        long startNanos = System.nanoTime();
+        try {
+            return getPeerListSnapshot();
+        } finally {
+            rpcLatency.labels("getPeerList").recordSince(startNanos);
+        }
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    private synchronized void removePeer(PeerInterface peerStub) {
+        try {
+            PeerInfo peer = peerList.getElementByStub(peerStub);
             String name = peerList.remove(peerStub);
-            sendUpdatedList();
+            failureDetector.remove(name);
+            publisher.forget(peerStub);
+            publisher.publish(peerList, new MembershipDelta(peerList.getEpoch(), MembershipDelta.Type.REMOVED, peer));
             System.out.println("Peer unsubscribed: " + name);
             printPeerList();
         } catch (NoSuchElementException e) {
@@ -70,17 +187,56 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
         }
     }
 
-    private void sendUpdatedList() {
-        for (PeerInfo p : peerList){
-            try{
-                p.getStub().updatePeerList(peerList);
-            } catch (RemoteException e) {
-                System.err.println("Cannot update peer list for: " + p);
-                System.err.println(e.getMessage());
+    // evicts a reported peer that does not answer a probe within the heartbeat timeout
+    private void confirmFailure(PeerInfo peer) {
+        try {
+            if (probe(peer)) {
+                System.out.println("Peer " + peer.getName() + " answered, report ignored");
+                refutedReports.get().increment();
+                return;
+            }
+            synchronized (this) {
+                // the first confirmed report wins, the peer may also have left or been evicted meanwhile
+                if (peerList.getElementByStub(peer.getStub()) == null)
+                    return;
+                System.out.println("Peer " + peer.getName() + " is not alive, unsubscribing ...");
+                removePeer(peer.getStub());
+                evictions.labels("reported").increment();
             }
+        } finally {
+            confirming.remove(peer.getName());
         }
     }
 
+    // a heartbeat probe of one peer, bounded by the timeout
+    private boolean probe(PeerInfo peer) {
+        Future<?> probe = heartbeatExecutor.submit(() -> {
+            long start = System.nanoTime();
+            peer.getStub().checkAlive();
+            heartbeatRtt.get().recordSince(start);
+            failureDetector.heartbeat(peer.getName(), System.currentTimeMillis());
+            return null;
+        });
+        try {
+            probe.get(HEARTBEAT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            probe.cancel(true);
+            missedHeartbeats.get().increment();
+            return false;
+        } catch (InterruptedException e) {
+            // the server is stopping, nobody is evicted
+            probe.cancel(true);
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    // the copy is serialized after the monitor is released, so it must not be the live list
+    private synchronized PeerList getPeerListSnapshot() {
+        return new PeerList(peerList);
+    }
+
     private void printPeerList() {
         System.out.println("\nPeer list:");
         for (PeerInfo p : peerList) {
@@ -89,14 +245,39 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
         System.out.print("\n");
     }
 
-    private void checkIfPeersAreAlive() throws RemoteException {
+    // probes every peer concurrently, each probe bounded by a timeout, then evicts the peers whose suspicion is too high
+    private void checkIfPeersAreAlive() throws InterruptedException {
         System.out.println("Checking if peers are alive ...\n");
-        for (int i = peerList.size() - 1; i >= 0; i--) {
-            try {
-                peerList.get(i).getStub().checkAlive();
-            } catch (Exception e) {
-                System.out.println("Peer " + peerList.get(i).getName() + " is not alive, unsubscribing ...");
-                unsubscribePeer(peerList.get(i).getStub());
+        List<PeerInfo> peers = new ArrayList<>();
+        getPeerListSnapshot().forEach(peers::add);
+
+        List<Callable<Void>> probes = new ArrayList<>();
+        for (PeerInfo peer : peers) {
+            probes.add(() -> {
+                long start = System.nanoTime();
+                peer.getStub().checkAlive();
+                heartbeatRtt.get().recordSince(start);
+                failureDetector.heartbeat(peer.getName(), System.currentTimeMillis());
+                return null;
+            });
+        }
+        // unanswered probes are cancelled at the timeout, they just do not count as heartbeats
+        for (Future<Void> probe : heartbeatExecutor.invokeAll(probes, HEARTBEAT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (probe.state() != Future.State.SUCCESS)
+                missedHeartbeats.get().increment();
+        }
+
+        long now = System.currentTimeMillis();
+        for (PeerInfo peer : peers) {
+            double phi = failureDetector.phi(peer.getName(), now);
+            if (phi > PHI_THRESHOLD) {
+                System.out.println("Peer " + peer.getName() + " is not alive (phi " + String.format("%.1f", phi) + "), unsubscribing ...");
+                try {
+                    removePeer(peer.getStub());
+                    evictions.labels("heartbeat").increment();
+                } catch (RuntimeException e) {
+                    // already unsubscribed, for example reported by another peer meanwhile
+                }
             }
         }
     }
@@ -109,9 +290,14 @@ public class Server extends UnicastRemoteObject implements ServerInterface {
             Server server = new Server();
             rmiRegistry.rebind("Server", server);
             System.out.println("Server bound to registry as 'Server'");
+
+            new MetricsEndpoint(server.getMetrics(), "Server", METRICS_PORT);
+            System.out.println("Metrics at http://localhost:" + METRICS_PORT + "/metrics");
         } catch (RemoteException e) {
             System.err.println("Error in creating registry or Server binding");
             throw new RuntimeException(e);
+        } catch (IOException e) {
+            System.err.println("Cannot start the metrics endpoint: " + e.getMessage());
         }
 
         System.out.println("Server is ready ...\n");
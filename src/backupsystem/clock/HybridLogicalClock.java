@@ -0,0 +1,47 @@
+package backupsystem.clock;
+
+import java.util.function.LongSupplier;
+
+// Hybrid logical clock: stamps follow the physical clock while the clocks of the peers agree, and still
+// order causally related events when they do not, since a peer never stamps below a stamp it has seen.
+// A stamp packs the milliseconds in the high 48 bits and a counter, for events in the same millisecond
+// or while the physical clock is behind, in the low 16 bits.
+public class HybridLogicalClock {
+    private static final int LOGICAL_BITS = 16;
+
+    private final LongSupplier physicalClock;
+    private long last;
+
+    public HybridLogicalClock() {
+        this(System::currentTimeMillis);
+    }
+
+    public HybridLogicalClock(LongSupplier physicalClock) {
+        this.physicalClock = physicalClock;
+        this.last = 0;
+    }
+
+    // stamp of a local event, greater than every stamp returned or received before
+    public synchronized long now() {
+        last = Math.max(last + 1, fromPhysicalTime(physicalClock.getAsLong()));
+        return last;
+    }
+
+    // merges a stamp received from another peer, the next local stamps will be greater
+    public synchronized void update(long received) {
+        last = Math.max(last, received);
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    public static long physicalTime(long stamp) {
+        return stamp >>> LOGICAL_BITS;
+    }
+
+    // smallest stamp of the given millisecond, to compare stamps with plain times
+    public static long fromPhysicalTime(long millis) {
+        return millis << LOGICAL_BITS;
+    }
+}
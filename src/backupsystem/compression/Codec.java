@@ -0,0 +1,17 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+
+// Block compression algorithm, every block is compressed independently
+public interface Codec {
+    // largest uncompressed block, one transfer chunk; the raw length of a block comes from the other peer
+    // and is checked against it before anything is allocated
+    int MAX_BLOCK_SIZE = 1024 * 1024;
+
+    // identifies the codec in blocks stored at rest
+    byte getId();
+    // identifies the codec when negotiating with other peers
+    String getName();
+    byte[] compress(byte[] data, int offset, int length);
+    byte[] decompress(byte[] data, int rawLength) throws IOException;
+}
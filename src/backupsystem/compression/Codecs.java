@@ -0,0 +1,55 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.Deflater;
+
+// Codecs known by this peer, in order of preference
+public class Codecs {
+    public static final Codec NONE = new IdentityCodec();
+    public static final Codec LZ = new LzCodec();
+    public static final Codec DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+    private static final List<Codec> SUPPORTED = List.of(LZ, DEFLATE, NONE);
+
+    public static String[] supportedNames() {
+        return SUPPORTED.stream().map(Codec::getName).toArray(String[]::new);
+    }
+
+    public static Codec byName(String name) throws IOException {
+        for (Codec codec : SUPPORTED) {
+            if (codec.getName().equals(name))
+                return codec;
+        }
+        throw new IOException("Unsupported codec: " + name);
+    }
+
+    public static Codec byId(byte id) throws IOException {
+        for (Codec codec : SUPPORTED) {
+            if (codec.getId() == id)
+                return codec;
+        }
+        throw new IOException("Unsupported codec id: " + id);
+    }
+
+    public static void checkRawLength(Codec codec, int rawLength) throws IOException {
+        if (rawLength < 0 || rawLength > Codec.MAX_BLOCK_SIZE)
+            throw new IOException("Invalid " + codec.getName() + " block: raw length " + rawLength + " is outside 0.." + Codec.MAX_BLOCK_SIZE);
+    }
+
+    // first codec of the preference list that the other peer supports too
+    public static Codec negotiate(List<String> preferred, String[] remoteNames) {
+        for (String name : preferred) {
+            for (String remoteName : remoteNames) {
+                if (name.equals(remoteName)) {
+                    try {
+                        return byName(name);
+                    } catch (IOException e) {
+                        // not supported locally, try the next one
+                    }
+                }
+            }
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,68 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.zip.CRC32C;
+
+// Block of data as sent between peers, compressed with the named codec.
+// It carries the CRC32C of the uncompressed data, checked when it is decompressed.
+public class CompressedBlock implements Serializable {
+    private static final long NO_CHECKSUM = -1;
+
+    private final String codecName;
+    private final int rawLength;
+    private final byte[] data;
+    private final long checksum;
+
+    public CompressedBlock(String codecName, int rawLength, byte[] data) {
+        this(codecName, rawLength, data, NO_CHECKSUM);
+    }
+
+    public CompressedBlock(String codecName, int rawLength, byte[] data, long checksum) {
+        this.codecName = codecName;
+        this.rawLength = rawLength;
+        this.data = data;
+        this.checksum = checksum;
+    }
+
+    // compresses with the codec only if the data looks compressible and actually shrinks
+    public static CompressedBlock compress(Codec codec, byte[] data, int offset, int length) {
+        return compress(codec, data, offset, length, checksum(data, offset, length));
+    }
+
+    // with the checksum already computed while the data was read
+    public static CompressedBlock compress(Codec codec, byte[] data, int offset, int length, long checksum) {
+        if (codec != Codecs.NONE && EntropyEstimator.isCompressible(data, offset, length)) {
+            byte[] compressed = codec.compress(data, offset, length);
+            if (compressed.length < length)
+                return new CompressedBlock(codec.getName(), length, compressed, checksum);
+        }
+        return new CompressedBlock(Codecs.NONE.getName(), length, Codecs.NONE.compress(data, offset, length), checksum);
+    }
+
+    // fails if the data was corrupted on the way
+    public byte[] decompress() throws IOException {
+        byte[] raw = Codecs.byName(codecName).decompress(data, rawLength);
+        if (checksum != NO_CHECKSUM && checksum(raw, 0, raw.length) != checksum)
+            throw new IOException("Checksum mismatch in block of " + rawLength + " bytes");
+        return raw;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public int getRawLength() {
+        return rawLength;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public static long checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+}
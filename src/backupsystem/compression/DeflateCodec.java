@@ -0,0 +1,70 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// JDK deflate, slower than LZ but with a better ratio
+public class DeflateCodec implements Codec {
+    private final int level;
+
+    public DeflateCodec(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getId() {
+        return 1;
+    }
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+            // deflate never expands data by more than a few bytes per 16 KB block
+            byte[] out = new byte[length + length / 1000 + 64];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                size += deflater.deflate(out, size, out.length - size);
+            }
+            return Arrays.copyOf(out, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int rawLength) throws IOException {
+        Codecs.checkRawLength(this, rawLength);
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            byte[] out = new byte[rawLength];
+            int size = 0;
+            while (size < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(out, size, rawLength - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                size += n;
+            }
+            if (size != rawLength)
+                throw new IOException("Corrupted deflate block: expected " + rawLength + " bytes, found " + size);
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted deflate block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+// Estimates from a few samples whether data is worth compressing: already compressed
+// or encrypted content has close to 8 bits of entropy per byte
+public class EntropyEstimator {
+    private static final double MAX_COMPRESSIBLE_ENTROPY = 7.5;
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    private static final int SAMPLES = 4;
+
+    // Shannon entropy in bits per byte
+    public static double entropy(byte[] data, int offset, int length) {
+        if (length == 0)
+            return 0;
+
+        int[] counts = new int[256];
+        for (int i = offset; i < offset + length; i++) {
+            counts[data[i] & 0xff]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    public static boolean isCompressible(byte[] data, int offset, int length) {
+        int sampleLength = Math.min(length, SAMPLE_SIZE);
+        return entropy(data, offset, sampleLength) < MAX_COMPRESSIBLE_ENTROPY;
+    }
+
+    // samples evenly spaced blocks of the file, so a compressed archive is detected without reading it all
+    public static boolean isCompressible(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+            long size = raf.length();
+            if (size == 0)
+                return false;
+
+            byte[] sample = new byte[SAMPLE_SIZE];
+            double total = 0;
+            int samples = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                long position = size <= SAMPLE_SIZE ? 0 : (size - SAMPLE_SIZE) * i / (SAMPLES - 1);
+                raf.seek(position);
+                int n = raf.read(sample);
+                if (n > 0) {
+                    total += entropy(sample, 0, n);
+                    samples++;
+                }
+                if (size <= SAMPLE_SIZE)
+                    break;
+            }
+            return samples > 0 && total / samples < MAX_COMPRESSIBLE_ENTROPY;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Stores data as it is, used for blocks that do not compress
+public class IdentityCodec implements Codec {
+    @Override
+    public byte getId() {
+        return 0;
+    }
+
+    @Override
+    public String getName() {
+        return "none";
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int rawLength) throws IOException {
+        if (data.length != rawLength)
+            throw new IOException("Corrupted block: expected " + rawLength + " bytes, found " + data.length);
+        return data;
+    }
+}
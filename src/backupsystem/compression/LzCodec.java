@@ -0,0 +1,145 @@
+package backupsystem.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Fast LZ77 codec in the style of LZ4: greedy matches found through a hash table of 4 byte sequences.
+// A block is a list of sequences: token, literal length, literals, 2 byte offset, match length.
+// The last sequence only has literals.
+public class LzCodec implements Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 14;
+
+    @Override
+    public byte getId() {
+        return 2;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        byte[] out = new byte[length + length / 255 + 16];
+        int[] table = new int[1 << HASH_BITS];
+        int end = offset + length;
+        int anchor = offset;
+        int ip = offset;
+        int op = 0;
+
+        while (ip + MIN_MATCH <= end) {
+            int sequence = readInt(data, ip);
+            int h = (sequence * 0x9e3779b1) >>> (32 - HASH_BITS);
+            // positions are stored plus one, so zero means empty slot
+            int ref = table[h] - 1 + offset;
+            table[h] = ip - offset + 1;
+
+            if (ref >= offset && ip - ref <= MAX_OFFSET && readInt(data, ref) == sequence) {
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < end && data[ref + matchLength] == data[ip + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(out, op, data, anchor, ip - anchor, ip - ref, matchLength);
+                ip += matchLength;
+                anchor = ip;
+            } else {
+                ip++;
+            }
+        }
+
+        op = writeSequence(out, op, data, anchor, end - anchor, 0, 0);
+        return Arrays.copyOf(out, op);
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int rawLength) throws IOException {
+        Codecs.checkRawLength(this, rawLength);
+        byte[] out = new byte[rawLength];
+        int ip = 0;
+        int op = 0;
+
+        try {
+            while (ip < data.length) {
+                int token = data[ip++] & 0xff;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xff;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(data, ip, out, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+
+                if (ip == data.length)
+                    break;
+
+                int matchOffset = (data[ip] & 0xff) | ((data[ip + 1] & 0xff) << 8);
+                ip += 2;
+                int matchLength = token & 0x0f;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = data[ip++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                if (matchOffset == 0 || matchOffset > op)
+                    throw new IOException("Corrupted lz block: invalid match offset " + matchOffset);
+                // byte by byte, the match can overlap the bytes it is producing
+                for (int i = 0; i < matchLength; i++) {
+                    out[op] = out[op - matchOffset];
+                    op++;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupted lz block", e);
+        }
+
+        if (op != rawLength)
+            throw new IOException("Corrupted lz block: expected " + rawLength + " bytes, found " + op);
+        return out;
+    }
+
+    private static int writeSequence(byte[] out, int op, byte[] data, int literalStart, int literalLength, int matchOffset, int matchLength) {
+        int tokenPosition = op++;
+        int token = Math.min(literalLength, 15) << 4;
+        op = writeLength(out, op, literalLength - 15);
+        System.arraycopy(data, literalStart, out, op, literalLength);
+        op += literalLength;
+
+        if (matchLength > 0) {
+            out[op++] = (byte) matchOffset;
+            out[op++] = (byte) (matchOffset >>> 8);
+            token |= Math.min(matchLength - MIN_MATCH, 15);
+            op = writeLength(out, op, matchLength - MIN_MATCH - 15);
+        }
+
+        out[tokenPosition] = (byte) token;
+        return op;
+    }
+
+    // lengths that do not fit in the token continue in bytes of 255 and a final smaller byte
+    private static int writeLength(byte[] out, int op, int remaining) {
+        if (remaining < 0)
+            return op;
+        while (remaining >= 255) {
+            out[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        out[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] data, int i) {
+        return (data[i] & 0xff) | ((data[i + 1] & 0xff) << 8) | ((data[i + 2] & 0xff) << 16) | ((data[i + 3] & 0xff) << 24);
+    }
+}
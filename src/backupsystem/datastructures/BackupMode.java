@@ -0,0 +1,13 @@
+package backupsystem.datastructures;
+
+// How a file is transferred to the peers that keep a copy of it
+public enum BackupMode {
+    // the whole file is uploaded in chunks
+    FULL,
+    // the file is split in content defined chunks and only the ones missing on the peer are uploaded
+    DEDUPLICATED,
+    // only the differences from the copy already on the peer are sent, rsync style
+    INCREMENTAL,
+    // the file is split in k data and m parity shards, one per peer, any k of them rebuild it
+    ERASURE_CODED
+}
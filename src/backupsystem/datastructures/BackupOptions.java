@@ -0,0 +1,69 @@
+package backupsystem.datastructures;
+
+// Settings of one backup, fixed when it starts so concurrent backups do not affect each other
+public class BackupOptions {
+    private final BackupMode mode;
+    private final int writeQuorum;
+    private final int replicationFactor;
+    private final int dataShards;
+    private final int parityShards;
+
+    public BackupOptions(BackupMode mode, int writeQuorum, int replicationFactor, int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 255)
+            throw new IllegalArgumentException("Invalid shard counts: " + dataShards + "+" + parityShards);
+        this.mode = mode;
+        this.writeQuorum = writeQuorum;
+        this.replicationFactor = replicationFactor;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+    }
+
+    public BackupMode getMode() {
+        return mode;
+    }
+
+    // number of peers that must acknowledge, 0 means all of them
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    // copies kept when the targets are chosen by the ring
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public BackupOptions withMode(BackupMode mode) {
+        return new BackupOptions(mode, writeQuorum, replicationFactor, dataShards, parityShards);
+    }
+
+    public BackupOptions withWriteQuorum(int writeQuorum) {
+        return new BackupOptions(mode, writeQuorum, replicationFactor, dataShards, parityShards);
+    }
+
+    public BackupOptions withReplicationFactor(int replicationFactor) {
+        return new BackupOptions(mode, writeQuorum, replicationFactor, dataShards, parityShards);
+    }
+
+    public BackupOptions withErasureCoding(int dataShards, int parityShards) {
+        return new BackupOptions(mode, writeQuorum, replicationFactor, dataShards, parityShards);
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.datastructures.BackupOptions{" +
+                "mode=" + mode +
+                ", writeQuorum=" + writeQuorum +
+                ", replicationFactor=" + replicationFactor +
+                ", dataShards=" + dataShards +
+                ", parityShards=" + parityShards +
+                '}';
+    }
+}
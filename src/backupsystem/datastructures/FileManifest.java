@@ -0,0 +1,75 @@
+package backupsystem.datastructures;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+// Ordered list of the chunks a file is made of
+public class FileManifest implements Serializable {
+    private final String fileName;
+    private final String[] chunkHashes;
+    private final int[] chunkLengths;
+    private transient long[] chunkOffsets;
+
+    public FileManifest(String fileName, String[] chunkHashes, int[] chunkLengths) {
+        if (chunkHashes.length != chunkLengths.length)
+            throw new IllegalArgumentException("Every chunk must have a hash and a length");
+        this.fileName = fileName;
+        this.chunkHashes = chunkHashes;
+        this.chunkLengths = chunkLengths;
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getChunkCount() {
+        return chunkHashes.length;
+    }
+
+    public String getChunkHash(int index) {
+        return chunkHashes[index];
+    }
+
+    public int getChunkLength(int index) {
+        return chunkLengths[index];
+    }
+
+    public String[] getChunkHashes() {
+        return chunkHashes.clone();
+    }
+
+    public long getSize() {
+        long[] offsets = getChunkOffsets();
+        return offsets[offsets.length - 1];
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    public long getChunkOffset(int index) {
+        return getChunkOffsets()[index];
+    }
+
+    // returns the index of the chunk containing the byte at the given offset
+    public int findChunk(long offset) {
+        long[] offsets = getChunkOffsets();
+        int index = Arrays.binarySearch(offsets, 0, chunkHashes.length, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private long[] getChunkOffsets() {
+        if (chunkOffsets == null) {
+            long[] offsets = new long[chunkLengths.length + 1];
+            for (int i = 0; i < chunkLengths.length; i++) {
+                offsets[i + 1] = offsets[i] + chunkLengths[i];
+            }
+            chunkOffsets = offsets;
+        }
+        return chunkOffsets;
+    }
+}
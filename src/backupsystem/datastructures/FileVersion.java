@@ -0,0 +1,80 @@
+package backupsystem.datastructures;
+
+import backupsystem.clock.HybridLogicalClock;
+
+import java.io.Serializable;
+
+// Metadata of a backed up copy, enough to choose which copy to download
+public class FileVersion implements Serializable {
+    private final String fileName;
+    private final long size;
+    private final long lastModified;
+    private final long version;
+    private final String contentHash;
+    private final long stamp;
+
+    public FileVersion(String fileName, long size, long lastModified) {
+        this(fileName, size, lastModified, 0, null, 0);
+    }
+
+    public FileVersion(String fileName, long size, long lastModified, long version, String contentHash, long stamp) {
+        this.fileName = fileName;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.version = version;
+        this.contentHash = contentHash;
+        this.stamp = stamp;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    // number of times the file was stored on the peer holding this copy, 0 if unknown
+    public long getVersion() {
+        return version;
+    }
+
+    // null if unknown
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    // hybrid logical clock stamp given by the owner to the backup, the same on every copy of it; 0 if unknown
+    public long getStamp() {
+        return stamp;
+    }
+
+    // copies are ordered by stamp, those without one by the time they were stored
+    public long getRecency() {
+        return stamp != 0 ? stamp : HybridLogicalClock.fromPhysicalTime(lastModified);
+    }
+
+    public boolean isNewerThan(FileVersion other) {
+        return getRecency() > other.getRecency();
+    }
+
+    // two copies of the same backup, or of backups with the same content
+    public boolean isSameContent(FileVersion other) {
+        return contentHash != null && contentHash.equals(other.contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.datastructures.FileVersion{" +
+                "fileName='" + fileName + '\'' +
+                ", size=" + size +
+                ", lastModified=" + lastModified +
+                ", version=" + version +
+                ", stamp=" + stamp +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package backupsystem.datastructures;
+
+import java.io.Serializable;
+
+// Single change of the peer list, sent instead of the whole list
+public class MembershipDelta implements Serializable {
+    public enum Type { ADDED, REMOVED }
+
+    private final long epoch;
+    private final Type type;
+    private final PeerInfo peer;
+
+    public MembershipDelta(long epoch, Type type, PeerInfo peer) {
+        this.epoch = epoch;
+        this.type = type;
+        this.peer = peer;
+    }
+
+    // epoch of the list after this change
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public PeerInfo getPeer() {
+        return peer;
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.datastructures.MembershipDelta{" +
+                "epoch=" + epoch +
+                ", type=" + type +
+                ", peer=" + peer.getName() +
+                '}';
+    }
+}
@@ -0,0 +1,30 @@
+package backupsystem.datastructures;
+
+import java.io.Serializable;
+
+// Small file sent whole inside a batch, together with many others in a single call
+public class PackedFile implements Serializable {
+    private final String fileName;
+    private final byte[] data;
+
+    public PackedFile(String fileName, byte[] data) {
+        this.fileName = fileName;
+        this.data = data;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.datastructures.PackedFile{" +
+                "fileName='" + fileName + '\'' +
+                ", size=" + data.length +
+                '}';
+    }
+}
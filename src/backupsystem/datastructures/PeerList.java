@@ -3,14 +3,23 @@ package backupsystem.datastructures;
 import backupsystem.exceptions.DuplicateElementException;
 import backupsystem.interfaces.PeerInterface;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+// List of peers indexed by name and by stub: remote stubs hash on their object id,
+// so membership checks do not scan the list
 public class PeerList implements Serializable, Iterable<PeerInfo> {
     private final List<PeerInfo> list;
+    private final boolean immutable;
+    // incremented on every change, lets peers detect missed updates
+    private long epoch;
+    private transient Map<String,PeerInfo> byName;
+    private transient Map<PeerInterface,PeerInfo> byStub;
+    // views without one peer, valid until the list changes
+    private transient Map<String,PeerList> withoutPeerViews;
 
     /*
      * ----------- Constructors -----------
@@ -18,36 +27,51 @@ public class PeerList implements Serializable, Iterable<PeerInfo> {
 
     public PeerList() {
         list = new ArrayList<>();
+        immutable = false;
+        epoch = 0;
+        buildIndexes();
     }
 
     // constructs object as a copy of passed list
     public PeerList(List<PeerInfo> list) {
-        this.list = new ArrayList<>();
-        for (PeerInfo peerInfo : list) {
-            this.list.add(new PeerInfo(peerInfo.getName(), peerInfo.getIPAddress(), peerInfo.getStub()));
-        }
+        this(list, false, 0);
+    }
+
+    // constructs object as a mutable copy of passed list, with the same epoch
+    public PeerList(PeerList other) {
+        this(other.list, false, other.epoch);
+    }
+
+    private PeerList(List<PeerInfo> list, boolean immutable, long epoch) {
+        this.list = new ArrayList<>(list);
+        this.immutable = immutable;
+        this.epoch = epoch;
+        buildIndexes();
     }
 
     /*
      * ----------- Getters -----------
      */
 
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // read only view of the names, backed by the index
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(byName.keySet());
+    }
+
     public PeerInfo get(int index) throws IndexOutOfBoundsException {
         return list.get(index);
     }
 
     public PeerInfo getElementByName(String name) {
-        for (PeerInfo p : list)
-            if (p.getName().equals(name))
-                return p;
-        return null;
+        return byName.get(name);
     }
 
     public PeerInfo getElementByStub(PeerInterface stub) {
-        for (PeerInfo p : list)
-            if (p.getStub().equals(stub))
-                return p;
-        return null;
+        return byStub.get(stub);
     }
 
     /*
@@ -56,7 +80,7 @@ public class PeerList implements Serializable, Iterable<PeerInfo> {
 
     @Override
     public Iterator<PeerInfo> iterator() {
-        return list.iterator();
+        return Collections.unmodifiableList(list).iterator();
     }
 
     public int size() {
@@ -68,11 +92,16 @@ public class PeerList implements Serializable, Iterable<PeerInfo> {
     }
 
     public void add(PeerInfo peer) throws DuplicateElementException {
+        checkMutable();
         if (nameInList(peer.getName()))
             throw new DuplicateElementException("Name already exists in list: " + peer.getName());
         if (stubInList(peer.getStub()))
             throw new DuplicateElementException("Stub already exists in list: " + peer.getStub());
         list.add(peer);
+        byName.put(peer.getName(), peer);
+        byStub.put(peer.getStub(), peer);
+        withoutPeerViews.clear();
+        epoch++;
     }
 
     public void add(String name, String IPaddr, PeerInterface stub) throws DuplicateElementException {
@@ -81,9 +110,15 @@ public class PeerList implements Serializable, Iterable<PeerInfo> {
     }
 
     public void remove(PeerInfo peer) throws NoSuchElementException {
-        if (!list.contains(peer))
+        checkMutable();
+        if (!peer.equals(byName.get(peer.getName())))
             throw new NoSuchElementException("Element not in list: " + peer.toString());
+        // the list keeps the subscription order, so only this step is linear
         list.remove(peer);
+        byName.remove(peer.getName());
+        byStub.remove(peer.getStub());
+        withoutPeerViews.clear();
+        epoch++;
     }
 
     public String remove(PeerInterface stub) throws NoSuchElementException {
@@ -101,25 +136,65 @@ public class PeerList implements Serializable, Iterable<PeerInfo> {
      */
 
     public boolean nameInList(String name) {
-        for (PeerInfo p : list) {
-            if (p.getName().equals(name))
-                return true;
-        }
-        return false;
+        return byName.containsKey(name);
     }
 
     public boolean stubInList(PeerInterface stub) {
+        return byStub.containsKey(stub);
+    }
+
+    // returns an immutable view, computed once per peer until the list changes
+    public PeerList getListWithoutPeer(String name) {
+        return withoutPeerViews.computeIfAbsent(name, n -> {
+            List<PeerInfo> others = new ArrayList<>(list.size());
+            for (PeerInfo p : list) {
+                if (!p.getName().equals(n))
+                    others.add(p);
+            }
+            return new PeerList(others, true, epoch);
+        });
+    }
+
+    // returns a new immutable list with the change applied, this list is left untouched
+    public PeerList withDelta(MembershipDelta delta) {
+        List<PeerInfo> updated = new ArrayList<>(list);
+        switch (delta.getType()) {
+            case ADDED -> {
+                if (!nameInList(delta.getPeer().getName()))
+                    updated.add(delta.getPeer());
+            }
+            case REMOVED -> updated.removeIf(p -> p.getName().equals(delta.getPeer().getName()));
+        }
+        return new PeerList(updated, true, delta.getEpoch());
+    }
+
+    // this list if already immutable, otherwise an immutable copy with the same epoch
+    public PeerList toImmutable() {
+        return immutable ? this : new PeerList(list, true, epoch);
+    }
+
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private void checkMutable() {
+        if (immutable)
+            throw new UnsupportedOperationException("Peer list view cannot be modified");
+    }
+
+    private void buildIndexes() {
+        byName = new HashMap<>();
+        byStub = new HashMap<>();
+        withoutPeerViews = new ConcurrentHashMap<>();
         for (PeerInfo p : list) {
-            if (p.getStub().equals(stub))
-                return true;
+            byName.put(p.getName(), p);
+            byStub.put(p.getStub(), p);
         }
-        return false;
     }
 
-    public PeerList getListWithoutPeer(String name) {
-        PeerList newList = new PeerList(list);
-        PeerInfo peer = getElementByName(name);
-        newList.remove(peer);
-        return newList;
+    // indexes are not sent over the wire, every peer rebuilds them once per received list
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildIndexes();
     }
 }
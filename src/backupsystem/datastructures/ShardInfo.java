@@ -0,0 +1,109 @@
+package backupsystem.datastructures;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+// Header of an erasure coded shard: which set of shards it belongs to and how to decode it.
+// It is stored at the start of every shard file, before the shard data.
+public class ShardInfo implements Serializable {
+    public static final int HEADER_SIZE = 4 + 3 + 4 + 3 * 8;
+    private static final int MAGIC = 0x52534844;
+
+    private final String fileName;
+    private final long setId;
+    private final long stamp;
+    private final long fileSize;
+    private final int dataShards;
+    private final int parityShards;
+    private final int blockSize;
+    private final int index;
+
+    public ShardInfo(String fileName, long setId, long stamp, long fileSize, int dataShards, int parityShards, int blockSize, int index) {
+        this.fileName = fileName;
+        this.setId = setId;
+        this.stamp = stamp;
+        this.fileSize = fileSize;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.blockSize = blockSize;
+        this.index = index;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    // same for all the shards written by one backup
+    public long getSetId() {
+        return setId;
+    }
+
+    // hybrid logical clock stamp given by the owner to the backup
+    public long getStamp() {
+        return stamp;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    // bytes of data in every shard of the set, the last stripe is padded with zeros
+    public long getShardSize() {
+        long stripeSize = (long) dataShards * blockSize;
+        return (fileSize + stripeSize - 1) / stripeSize * blockSize;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(dataShards);
+        out.writeByte(parityShards);
+        out.writeByte(index);
+        out.writeInt(blockSize);
+        out.writeLong(setId);
+        out.writeLong(stamp);
+        out.writeLong(fileSize);
+    }
+
+    public static ShardInfo readFrom(String fileName, DataInput in) throws IOException {
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a shard of " + fileName);
+        int dataShards = in.readUnsignedByte();
+        int parityShards = in.readUnsignedByte();
+        int index = in.readUnsignedByte();
+        int blockSize = in.readInt();
+        long setId = in.readLong();
+        long stamp = in.readLong();
+        long fileSize = in.readLong();
+        return new ShardInfo(fileName, setId, stamp, fileSize, dataShards, parityShards, blockSize, index);
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.datastructures.ShardInfo{" +
+                "fileName='" + fileName + '\'' +
+                ", setId=" + setId +
+                ", index=" + index +
+                ", dataShards=" + dataShards +
+                ", parityShards=" + parityShards +
+                ", fileSize=" + fileSize +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package backupsystem.delta;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Checksums of one block of the copy already stored on a peer
+public class BlockSignature implements Serializable {
+    private final long offset;
+    private final int weakChecksum;
+    private final byte[] strongHash;
+
+    public BlockSignature(long offset, int weakChecksum, byte[] strongHash) {
+        this.offset = offset;
+        this.weakChecksum = weakChecksum;
+        this.strongHash = strongHash;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getWeakChecksum() {
+        return weakChecksum;
+    }
+
+    public byte[] getStrongHash() {
+        return strongHash;
+    }
+
+    public static byte[] strongHash(byte[] data, int offset, int length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data, offset, length);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package backupsystem.delta;
+
+import java.io.Serializable;
+
+// Block signatures of the copy stored on a peer, with the version and stamp of that copy:
+// a delta built on them is accepted only while the same copy is still stored
+public class DeltaBase implements Serializable {
+    private final long version;
+    private final long stamp;
+    private final BlockSignature[] signatures;
+
+    public DeltaBase(long version, long stamp, BlockSignature[] signatures) {
+        this.version = version;
+        this.stamp = stamp;
+        this.signatures = signatures;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getStamp() {
+        return stamp;
+    }
+
+    public BlockSignature[] getSignatures() {
+        return signatures;
+    }
+}
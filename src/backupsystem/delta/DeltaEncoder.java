@@ -0,0 +1,148 @@
+package backupsystem.delta;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+// Computes the instructions that turn the peer's copy (known by its signatures) into the new file
+public class DeltaEncoder {
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 128 * 1024;
+
+    private final int blockSize;
+    private final int maxLiteralSize;
+    private final Map<Integer,List<BlockSignature>> signaturesByWeak;
+
+    @FunctionalInterface
+    public interface InstructionConsumer {
+        void accept(DeltaInstruction instruction) throws IOException;
+    }
+
+    public DeltaEncoder(BlockSignature[] signatures, int blockSize, int maxLiteralSize) {
+        this.blockSize = blockSize;
+        this.maxLiteralSize = maxLiteralSize;
+        this.signaturesByWeak = new HashMap<>();
+        for (BlockSignature signature : signatures) {
+            signaturesByWeak.computeIfAbsent(signature.getWeakChecksum(), k -> new ArrayList<>()).add(signature);
+        }
+    }
+
+    // like rsync, the block size grows with the square root of the file size
+    public static int blockSizeFor(long fileSize) {
+        long size = Long.highestOneBit(Math.max(1, (long) Math.sqrt(fileSize)));
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    // reads the new file once, holding at most one literal and one block in memory
+    public void encode(InputStream in, InstructionConsumer consumer) throws IOException {
+        byte[] buffer = new byte[maxLiteralSize + 2 * blockSize];
+        int end = 0;
+        int start = 0;
+        int literalStart = 0;
+        boolean eof = false;
+        boolean windowValid = false;
+        RollingChecksum checksum = new RollingChecksum(blockSize);
+        long pendingCopyOffset = -1;
+        long pendingCopyLength = 0;
+
+        while (true) {
+            // make sure the window and the byte after it are in the buffer
+            if (!eof && start + blockSize + 1 > end) {
+                System.arraycopy(buffer, literalStart, buffer, 0, end - literalStart);
+                end -= literalStart;
+                start -= literalStart;
+                literalStart = 0;
+                while (!eof && end < buffer.length) {
+                    int n = in.read(buffer, end, buffer.length - end);
+                    if (n < 0)
+                        eof = true;
+                    else
+                        end += n;
+                }
+            }
+            if (end - start < blockSize)
+                break;
+
+            if (!windowValid) {
+                checksum.reset(buffer, start);
+                windowValid = true;
+            }
+
+            BlockSignature match = findMatch(checksum.getValue(), buffer, start);
+            if (match != null) {
+                // flush the literal before the match, then extend or start a copy
+                if (start > literalStart) {
+                    flushCopy(consumer, pendingCopyOffset, pendingCopyLength);
+                    pendingCopyOffset = -1;
+                    pendingCopyLength = 0;
+                    consumer.accept(DeltaInstruction.literal(Arrays.copyOfRange(buffer, literalStart, start)));
+                }
+                if (pendingCopyOffset >= 0 && pendingCopyOffset + pendingCopyLength == match.getOffset()) {
+                    pendingCopyLength += blockSize;
+                } else {
+                    flushCopy(consumer, pendingCopyOffset, pendingCopyLength);
+                    pendingCopyOffset = match.getOffset();
+                    pendingCopyLength = blockSize;
+                }
+                start += blockSize;
+                literalStart = start;
+                windowValid = false;
+            } else {
+                if (start + blockSize < end)
+                    checksum.roll(buffer[start], buffer[start + blockSize]);
+                else
+                    windowValid = false;
+                start++;
+
+                if (start - literalStart >= maxLiteralSize) {
+                    flushCopy(consumer, pendingCopyOffset, pendingCopyLength);
+                    pendingCopyOffset = -1;
+                    pendingCopyLength = 0;
+                    consumer.accept(DeltaInstruction.literal(Arrays.copyOfRange(buffer, literalStart, start)));
+                    literalStart = start;
+                }
+            }
+        }
+
+        // the tail shorter than a block is always sent as literal, still cut at the maximum size
+        flushCopy(consumer, pendingCopyOffset, pendingCopyLength);
+        while (end > literalStart) {
+            int length = Math.min(end - literalStart, maxLiteralSize);
+            consumer.accept(DeltaInstruction.literal(Arrays.copyOfRange(buffer, literalStart, literalStart + length)));
+            literalStart += length;
+        }
+    }
+
+    private BlockSignature findMatch(int weak, byte[] buffer, int offset) {
+        List<BlockSignature> candidates = signaturesByWeak.get(weak);
+        if (candidates == null)
+            return null;
+
+        byte[] strong = BlockSignature.strongHash(buffer, offset, blockSize);
+        for (BlockSignature candidate : candidates) {
+            if (Arrays.equals(candidate.getStrongHash(), strong))
+                return candidate;
+        }
+        return null;
+    }
+
+    private void flushCopy(InstructionConsumer consumer, long offset, long length) throws IOException {
+        if (offset >= 0)
+            consumer.accept(DeltaInstruction.copy(offset, length));
+    }
+
+    // computes the signatures of the full blocks of a stored copy
+    public static BlockSignature[] computeSignatures(InputStream in, int blockSize) throws IOException {
+        List<BlockSignature> signatures = new ArrayList<>();
+        byte[] block = new byte[blockSize];
+        long offset = 0;
+        int n;
+
+        while ((n = in.readNBytes(block, 0, blockSize)) == blockSize) {
+            signatures.add(new BlockSignature(offset, RollingChecksum.of(block, 0, blockSize), BlockSignature.strongHash(block, 0, blockSize)));
+            offset += n;
+        }
+
+        return signatures.toArray(new BlockSignature[0]);
+    }
+}
@@ -0,0 +1,40 @@
+package backupsystem.delta;
+
+import java.io.Serializable;
+
+// Step to rebuild the new version of a file: copy a range of the old version or append literal bytes
+public class DeltaInstruction implements Serializable {
+    private final long baseOffset;
+    private final long length;
+    private final byte[] literal;
+
+    private DeltaInstruction(long baseOffset, long length, byte[] literal) {
+        this.baseOffset = baseOffset;
+        this.length = length;
+        this.literal = literal;
+    }
+
+    public static DeltaInstruction copy(long baseOffset, long length) {
+        return new DeltaInstruction(baseOffset, length, null);
+    }
+
+    public static DeltaInstruction literal(byte[] data) {
+        return new DeltaInstruction(-1, data.length, data);
+    }
+
+    public boolean isCopy() {
+        return literal == null;
+    }
+
+    public long getBaseOffset() {
+        return baseOffset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public byte[] getLiteral() {
+        return literal;
+    }
+}
@@ -0,0 +1,41 @@
+package backupsystem.delta;
+
+// rsync weak checksum, can be moved one byte forward in constant time
+public class RollingChecksum {
+    private final int blockSize;
+    private int a;
+    private int b;
+
+    public RollingChecksum(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public void reset(byte[] data, int offset) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < blockSize; i++) {
+            int x = data[offset + i] & 0xff;
+            a += x;
+            b += (blockSize - i) * x;
+        }
+        a &= 0xffff;
+        b &= 0xffff;
+    }
+
+    // slides the window removing the first byte and appending the next one
+    public void roll(byte out, byte in) {
+        int x = out & 0xff;
+        a = (a - x + (in & 0xff)) & 0xffff;
+        b = (b - blockSize * x + a) & 0xffff;
+    }
+
+    public int getValue() {
+        return a | (b << 16);
+    }
+
+    public static int of(byte[] data, int offset, int blockSize) {
+        RollingChecksum checksum = new RollingChecksum(blockSize);
+        checksum.reset(data, offset);
+        return checksum.getValue();
+    }
+}
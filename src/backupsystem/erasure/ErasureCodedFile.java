@@ -0,0 +1,149 @@
+package backupsystem.erasure;
+
+import backupsystem.datastructures.ShardInfo;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Splits a file into k data and m parity shards and puts it back together from any k of them.
+// The file is cut in stripes of k blocks, block i of every stripe goes to shard i, so both
+// directions work one batch of stripes at a time and never hold the whole file in memory.
+public final class ErasureCodedFile {
+    private static final int STRIPES_PER_BATCH = 16;
+
+    // reads length bytes of shard data starting at offset, the header is not counted
+    @FunctionalInterface
+    public interface ShardSource {
+        byte[] read(int shardIndex, long offset, int length) throws Exception;
+    }
+
+    private ErasureCodedFile() {}
+
+    // writes every shard, header included, to the path with the same index
+    public static void encode(Path source, ReedSolomon codec, int blockSize, long setId, long stamp, Path[] shardPaths) throws IOException {
+        int k = codec.getDataShards();
+        int n = codec.getTotalShards();
+        long fileSize = Files.size(source);
+        int batchLength = STRIPES_PER_BATCH * blockSize;
+        byte[][] shards = new byte[n][batchLength];
+        OutputStream[] outputs = new OutputStream[n];
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+            for (int i = 0; i < n; i++) {
+                outputs[i] = new BufferedOutputStream(Files.newOutputStream(shardPaths[i]));
+                new ShardInfo(source.getFileName().toString(), setId, stamp, fileSize, k, n - k, blockSize, i).writeTo(new DataOutputStream(outputs[i]));
+            }
+
+            long shardSize = new ShardInfo(null, setId, stamp, fileSize, k, n - k, blockSize, 0).getShardSize();
+            for (long done = 0; done < shardSize; done += batchLength) {
+                int length = (int) Math.min(batchLength, shardSize - done);
+                for (int stripe = 0; stripe < length / blockSize; stripe++) {
+                    for (int d = 0; d < k; d++) {
+                        int read = in.readNBytes(shards[d], stripe * blockSize, blockSize);
+                        Arrays.fill(shards[d], stripe * blockSize + read, (stripe + 1) * blockSize, (byte) 0);
+                    }
+                }
+                codec.encodeParity(shards, 0, length);
+                for (int i = 0; i < n; i++) {
+                    outputs[i].write(shards[i], 0, length);
+                }
+            }
+        } finally {
+            IOException error = null;
+            for (OutputStream out : outputs) {
+                try {
+                    if (out != null)
+                        out.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null)
+                throw error;
+        }
+    }
+
+    // rebuilds the file from the available shards of one set, fetching k of them in parallel;
+    // a shard that fails is replaced by another one and the batch is fetched again
+    public static void decode(ShardInfo set, Collection<Integer> availableShards, ShardSource source, ExecutorService executor, Path destination) throws IOException {
+        int k = set.getDataShards();
+        int n = k + set.getParityShards();
+        int blockSize = set.getBlockSize();
+        ReedSolomon codec = new ReedSolomon(k, set.getParityShards());
+
+        // data shards first, they need no decoding
+        Deque<Integer> spare = new ArrayDeque<>(new TreeSet<>(availableShards));
+        List<Integer> chosen = new ArrayList<>();
+        while (chosen.size() < k && !spare.isEmpty()) {
+            chosen.add(spare.removeFirst());
+        }
+        if (chosen.size() < k)
+            throw new IOException("Only " + chosen.size() + " of the " + k + " shards needed for " + set.getFileName() + " are available");
+
+        int batchLength = STRIPES_PER_BATCH * blockSize;
+        byte[][] shards = new byte[n][];
+        long shardSize = set.getShardSize();
+        long remaining = set.getFileSize();
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(destination))) {
+            for (long done = 0; done < shardSize; done += batchLength) {
+                int length = (int) Math.min(batchLength, shardSize - done);
+                boolean[] present = fetchBatch(source, executor, chosen, spare, shards, done, length, k, set.getFileName());
+
+                codec.decodeMissing(shards, present, 0, length);
+                for (int stripe = 0; stripe < length / blockSize && remaining > 0; stripe++) {
+                    for (int d = 0; d < k && remaining > 0; d++) {
+                        int count = (int) Math.min(blockSize, remaining);
+                        out.write(shards[d], stripe * blockSize, count);
+                        remaining -= count;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean[] fetchBatch(ShardSource source, ExecutorService executor, List<Integer> chosen, Deque<Integer> spare,
+                                        byte[][] shards, long offset, int length, int k, String fileName) throws IOException {
+        boolean[] present = new boolean[shards.length];
+        List<Integer> pending = new ArrayList<>(chosen);
+
+        while (!pending.isEmpty()) {
+            Map<Integer,Future<byte[]>> requests = new LinkedHashMap<>();
+            for (int index : pending) {
+                requests.put(index, executor.submit(() -> source.read(index, offset, length)));
+            }
+
+            pending = new ArrayList<>();
+            for (var request : requests.entrySet()) {
+                try {
+                    byte[] data = request.getValue().get();
+                    if (data.length != length)
+                        throw new EOFException("Shard " + request.getKey() + " of " + fileName + " is shorter than expected");
+                    shards[request.getKey()] = data;
+                    present[request.getKey()] = true;
+                } catch (ExecutionException | EOFException e) {
+                    // replace the shard with a spare one, only for this batch and the next ones
+                    chosen.remove(request.getKey());
+                    if (spare.isEmpty())
+                        throw new IOException("Not enough shards left to rebuild " + fileName + ": " + e.getMessage(), e);
+                    int replacement = spare.removeFirst();
+                    chosen.add(replacement);
+                    pending.add(replacement);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Recovery interrupted");
+                }
+            }
+        }
+
+        // missing data shards are decoded into a buffer of the right size
+        for (int d = 0; d < k; d++) {
+            if (!present[d] && (shards[d] == null || shards[d].length < length))
+                shards[d] = new byte[length];
+        }
+        return present;
+    }
+}
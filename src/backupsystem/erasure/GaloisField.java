@@ -0,0 +1,111 @@
+package backupsystem.erasure;
+
+// Arithmetic in GF(2^8) with the polynomial x^8 + x^4 + x^3 + x^2 + 1: addition is xor,
+// multiplication goes through a full 256x256 table so the coding loops do one lookup per byte
+public final class GaloisField {
+    private static final int POLYNOMIAL = 0x11d;
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MUL = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256)
+                x ^= POLYNOMIAL;
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private GaloisField() {}
+
+    public static int multiply(int a, int b) {
+        return MUL[a][b] & 0xff;
+    }
+
+    public static int divide(int a, int b) {
+        if (b == 0)
+            throw new ArithmeticException("Division by zero in GF(256)");
+        if (a == 0)
+            return 0;
+        return EXP[LOG[a] + 255 - LOG[b]];
+    }
+
+    public static int power(int a, int n) {
+        if (n == 0)
+            return 1;
+        if (a == 0)
+            return 0;
+        return EXP[(LOG[a] * n) % 255];
+    }
+
+    // row of the multiplication table, indexed by the other operand
+    static byte[] multiplicationRow(int a) {
+        return MUL[a];
+    }
+
+    // Gauss-Jordan elimination, throws if the matrix is singular
+    static int[][] invert(int[][] matrix) {
+        int n = matrix.length;
+        int[][] work = new int[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(matrix[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n)
+                throw new IllegalArgumentException("Singular matrix");
+            int[] swap = work[col];
+            work[col] = work[pivot];
+            work[pivot] = swap;
+
+            int scale = work[col][col];
+            for (int c = 0; c < 2 * n; c++) {
+                work[col][c] = divide(work[col][c], scale);
+            }
+            for (int r = 0; r < n; r++) {
+                if (r != col && work[r][col] != 0) {
+                    int factor = work[r][col];
+                    for (int c = 0; c < 2 * n; c++) {
+                        work[r][c] ^= multiply(factor, work[col][c]);
+                    }
+                }
+            }
+        }
+
+        int[][] inverse = new int[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, inverse[r], 0, n);
+        }
+        return inverse;
+    }
+
+    static int[][] multiply(int[][] a, int[][] b) {
+        int[][] product = new int[a.length][b[0].length];
+        for (int r = 0; r < a.length; r++) {
+            for (int c = 0; c < b[0].length; c++) {
+                int value = 0;
+                for (int i = 0; i < b.length; i++) {
+                    value ^= multiply(a[r][i], b[i][c]);
+                }
+                product[r][c] = value;
+            }
+        }
+        return product;
+    }
+}
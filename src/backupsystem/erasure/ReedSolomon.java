@@ -0,0 +1,105 @@
+package backupsystem.erasure;
+
+import java.util.Arrays;
+
+// Systematic Reed-Solomon code over GF(256): k data shards are stored as they are and m parity
+// shards are computed from them, any k of the k+m shards are enough to rebuild the data.
+// The coding matrix is a Vandermonde matrix normalized so that its top k rows are the identity.
+public class ReedSolomon {
+    private final int dataShards;
+    private final int parityShards;
+    private final int[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards < 0 || dataShards + parityShards > 255)
+            throw new IllegalArgumentException("Invalid shard counts: " + dataShards + "+" + parityShards);
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        int total = dataShards + parityShards;
+        int[][] vandermonde = new int[total][dataShards];
+        for (int r = 0; r < total; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                vandermonde[r][c] = GaloisField.power(r, c);
+            }
+        }
+        int[][] top = new int[dataShards][];
+        System.arraycopy(vandermonde, 0, top, 0, dataShards);
+        this.matrix = GaloisField.multiply(vandermonde, GaloisField.invert(top));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    // fills the parity shards from the data shards, over the same range of every shard
+    public void encodeParity(byte[][] shards, int offset, int length) {
+        for (int p = 0; p < parityShards; p++) {
+            byte[] parity = shards[dataShards + p];
+            Arrays.fill(parity, offset, offset + length, (byte) 0);
+            for (int d = 0; d < dataShards; d++) {
+                addMultiple(parity, shards[d], matrix[dataShards + p][d], offset, length);
+            }
+        }
+    }
+
+    // rebuilds the missing data shards from any k present shards, parity shards are not rebuilt
+    public void decodeMissing(byte[][] shards, boolean[] present, int offset, int length) {
+        int[] rows = new int[dataShards];
+        int found = 0;
+        for (int i = 0; i < shards.length && found < dataShards; i++) {
+            if (present[i])
+                rows[found++] = i;
+        }
+        if (found < dataShards)
+            throw new IllegalArgumentException("Need " + dataShards + " shards, only " + found + " present");
+
+        boolean dataComplete = true;
+        for (int d = 0; d < dataShards; d++) {
+            dataComplete &= present[d];
+        }
+        if (dataComplete)
+            return;
+
+        // the rows of the present shards form an invertible matrix mapping data to them
+        int[][] subMatrix = new int[dataShards][];
+        for (int i = 0; i < dataShards; i++) {
+            subMatrix[i] = matrix[rows[i]];
+        }
+        int[][] decoding = GaloisField.invert(subMatrix);
+
+        for (int d = 0; d < dataShards; d++) {
+            if (present[d])
+                continue;
+            byte[] target = shards[d];
+            Arrays.fill(target, offset, offset + length, (byte) 0);
+            for (int i = 0; i < dataShards; i++) {
+                addMultiple(target, shards[rows[i]], decoding[d][i], offset, length);
+            }
+        }
+    }
+
+    // target += coefficient * source
+    private static void addMultiple(byte[] target, byte[] source, int coefficient, int offset, int length) {
+        if (coefficient == 0)
+            return;
+        if (coefficient == 1) {
+            for (int i = offset; i < offset + length; i++) {
+                target[i] ^= source[i];
+            }
+            return;
+        }
+        byte[] row = GaloisField.multiplicationRow(coefficient);
+        for (int i = offset; i < offset + length; i++) {
+            target[i] ^= row[source[i] & 0xff];
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package backupsystem.exceptions;
+
+import java.io.IOException;
+
+public class SupersededBackupException extends IOException {
+    public SupersededBackupException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,394 @@
+package backupsystem.harness;
+
+import backupsystem.datastructures.PeerInfo;
+import backupsystem.interfaces.ServerInterface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.rmi.Naming;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless load generator and soak test: starts a server and many peers on localhost, each in its own JVM,
+// sends them a mix of backups and restores with random arrivals (open loop, so latency is not hidden
+// by a slow cluster) while peers join, leave and crash, then reports throughput, latency percentiles and
+// how long the server took to evict the crashed peers. Every option is --name=value, for example:
+//   java -cp <classes> backupsystem.harness.ClusterHarness --peers=8 --duration=300 --opsPerSecond=20 --crashesPerMinute=2
+public class ClusterHarness {
+    private static final long DETECTION_POLL_MILLIS = 50;
+    private static final long DRAIN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final long EXIT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Map<String,String> options;
+    private final Random random;
+    private final File workDir;
+    private final List<PeerProcess> peers;
+    private final Map<String,LatencyRecorder> latencies;
+    private final Map<String,AtomicInteger> failures;
+    private final Map<String,AtomicLong> bytes;
+    private final Map<String,String> lastErrors;
+    private final LatencyRecorder detections;
+    // name of each crashed peer the server still lists, with the time it was killed
+    private final Map<String,Long> undetectedCrashes;
+    private final AtomicInteger lostOperations;
+    private final long[] sizes;
+    private final double[] sizeWeights;
+    private Process server;
+    private ServerInterface serverStub;
+    private int nextPeerIndex;
+    private long nextOperationId;
+    private int joins;
+    private int leaves;
+    private int crashes;
+    private int skippedOperations;
+
+    public ClusterHarness(Map<String,String> options) {
+        this.options = options;
+        this.random = new Random(getLong("seed", 1));
+        this.workDir = new File(options.getOrDefault("workDir", "harness")).getAbsoluteFile();
+        this.peers = new CopyOnWriteArrayList<>();
+        this.latencies = new ConcurrentHashMap<>();
+        this.failures = new ConcurrentHashMap<>();
+        this.bytes = new ConcurrentHashMap<>();
+        this.lastErrors = new ConcurrentHashMap<>();
+        this.detections = new LatencyRecorder();
+        this.undetectedCrashes = new ConcurrentHashMap<>();
+        this.lostOperations = new AtomicInteger();
+
+        // --sizes=64k:0.6,1m:0.3,8m:0.1 chooses a file size with the given weights
+        String[] entries = options.getOrDefault("sizes", "64k:0.6,1m:0.3,8m:0.1").split(",");
+        this.sizes = new long[entries.length];
+        this.sizeWeights = new double[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].split(":");
+            sizes[i] = parseSize(entry[0]);
+            sizeWeights[i] = entry.length > 1 ? Double.parseDouble(entry[1]) : 1;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String,String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options are --name=value: " + arg);
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        ClusterHarness harness = new ClusterHarness(options);
+        Runtime.getRuntime().addShutdownHook(new Thread(harness::killAll));
+        harness.run();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        Files.createDirectories(workDir.toPath().resolve("logs"));
+        startServer();
+        Thread.ofVirtual().name("harness-detection").start(this::watchEvictions);
+
+        for (int i = 0; i < getLong("peers", 4); i++)
+            join();
+        awaitReady();
+        System.out.println("Cluster ready with " + readyPeers().size() + " peers, running for " + getLong("duration", 60) + " s ...");
+
+        double opsPerSecond = getDouble("opsPerSecond", 5);
+        double joinsPerSecond = getDouble("joinsPerMinute", 2) / 60;
+        double leavesPerSecond = getDouble("leavesPerMinute", 1) / 60;
+        double crashesPerSecond = getDouble("crashesPerMinute", 1) / 60;
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(getLong("duration", 60));
+        long nextOperation = start + nextArrival(opsPerSecond);
+        long nextJoin = start + nextArrival(joinsPerSecond);
+        long nextLeave = start + nextArrival(leavesPerSecond);
+        long nextCrash = start + nextArrival(crashesPerSecond);
+
+        while (true) {
+            long next = Math.min(Math.min(nextOperation, nextJoin), Math.min(nextLeave, nextCrash));
+            if (next >= end)
+                break;
+            TimeUnit.NANOSECONDS.sleep(next - System.nanoTime());
+
+            if (next == nextOperation) {
+                sendOperation();
+                nextOperation += nextArrival(opsPerSecond);
+            } else if (next == nextJoin) {
+                if (peers.stream().filter(this::isMember).count() < getLong("maxPeers", 8))
+                    join();
+                nextJoin += nextArrival(joinsPerSecond);
+            } else if (next == nextLeave) {
+                leaveOrCrash(false);
+                nextLeave += nextArrival(leavesPerSecond);
+            } else {
+                leaveOrCrash(true);
+                nextCrash += nextArrival(crashesPerSecond);
+            }
+        }
+        TimeUnit.NANOSECONDS.sleep(end - System.nanoTime());
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Workload done, waiting for the operations in progress ...");
+        awaitDrained();
+        // the last crashes get their chance to be detected before the report
+        long detectionDeadline = System.currentTimeMillis() + getLong("detectionTimeout", 60) * 1000;
+        while (!undetectedCrashes.isEmpty() && System.currentTimeMillis() < detectionDeadline)
+            Thread.sleep(DETECTION_POLL_MILLIS);
+
+        printReport(elapsed);
+        shutdown();
+    }
+
+    /*
+     * ----------- Processes -----------
+     */
+
+    private void startServer() throws Exception {
+        int port = (int) getLong("port", 1199);
+        List<String> command = javaCommand(options.getOrDefault("serverHeap", "256m"));
+        command.add(HarnessServer.class.getName());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(getLong("heartbeatMillis", 2000)));
+
+        File log = new File(workDir, "logs" + File.separator + "server.log");
+        server = new ProcessBuilder(command)
+                .directory(workDir)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                .start();
+
+        // ready when the registry answers
+        long deadline = System.currentTimeMillis() + EXIT_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                serverStub = (ServerInterface) Naming.lookup("rmi://" + serverAddress() + "/Server");
+                return;
+            } catch (Exception e) {
+                if (!server.isAlive() || System.currentTimeMillis() > deadline)
+                    throw new IOException("Server did not start, see " + log, e);
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private void join() throws IOException {
+        int index = nextPeerIndex++;
+        List<String> command = javaCommand(options.getOrDefault("peerHeap", "256m"));
+        command.add(HarnessPeer.class.getName());
+        command.add(serverAddress());
+        command.add(String.valueOf(random.nextLong()));
+
+        File log = new File(workDir, "logs" + File.separator + "peer-" + index + ".log");
+        peers.add(new PeerProcess(index, command, workDir, log, this::completed));
+        joins++;
+    }
+
+    // a leave or crash that would take the cluster under --minPeers is skipped
+    private void leaveOrCrash(boolean crash) {
+        List<PeerProcess> ready = readyPeers();
+        if (ready.size() <= getLong("minPeers", 2))
+            return;
+
+        PeerProcess peer = ready.get(random.nextInt(ready.size()));
+        if (crash) {
+            undetectedCrashes.put(peer.getName(), System.nanoTime());
+            peer.crash();
+            lostOperations.addAndGet(peer.abandon());
+            crashes++;
+            System.out.println("Crashed " + peer.getName());
+        } else {
+            peer.leave();
+            leaves++;
+            System.out.println("Leaving " + peer.getName());
+        }
+    }
+
+    private void shutdown() throws InterruptedException {
+        for (PeerProcess peer : readyPeers())
+            peer.leave();
+        for (PeerProcess peer : peers)
+            peer.awaitExit(EXIT_TIMEOUT_MILLIS);
+        server.destroy();
+        server.waitFor(EXIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void killAll() {
+        for (PeerProcess peer : peers)
+            peer.crash();
+        if (server != null)
+            server.destroyForcibly();
+    }
+
+    /*
+     * ----------- Workload -----------
+     */
+
+    // a restore needs a file the peer backed up, otherwise the peer backs up a new one
+    private void sendOperation() {
+        List<PeerProcess> ready = readyPeers();
+        int inFlight = ready.stream().mapToInt(PeerProcess::getInFlight).sum();
+        if (ready.isEmpty() || inFlight >= getLong("maxInFlight", 64)) {
+            skippedOperations++;
+            return;
+        }
+
+        PeerProcess peer = ready.get(random.nextInt(ready.size()));
+        String id = String.valueOf(nextOperationId++);
+        List<String> files = peer.getBackedUpFiles();
+        if (!files.isEmpty() && random.nextDouble() < getDouble("restoreRatio", 0.3))
+            peer.restore(id, files.get(random.nextInt(files.size())));
+        else
+            peer.backup(id, nextSize());
+    }
+
+    private void completed(PeerProcess peer, String operation, boolean succeeded, long nanos, long size, String error) {
+        if (succeeded) {
+            latencies.computeIfAbsent(operation, k -> new LatencyRecorder()).record(nanos);
+            bytes.computeIfAbsent(operation, k -> new AtomicLong()).addAndGet(size);
+        } else {
+            failures.computeIfAbsent(operation, k -> new AtomicInteger()).incrementAndGet();
+            lastErrors.put(operation, error);
+        }
+    }
+
+    private long nextSize() {
+        double total = Arrays.stream(sizeWeights).sum();
+        double choice = random.nextDouble() * total;
+        for (int i = 0; i < sizes.length; i++) {
+            choice -= sizeWeights[i];
+            if (choice < 0)
+                return sizes[i];
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    // exponential gaps give Poisson arrivals, a rate of 0 never arrives
+    private long nextArrival(double perSecond) {
+        if (perSecond <= 0)
+            return Long.MAX_VALUE / 4;
+        return (long) (-Math.log(1 - random.nextDouble()) / perSecond * 1e9);
+    }
+
+    /*
+     * ----------- Failure detection -----------
+     */
+
+    // a crash counts as detected when the server no longer lists the peer, whoever reported it
+    private void watchEvictions() {
+        while (true) {
+            try {
+                Thread.sleep(DETECTION_POLL_MILLIS);
+                if (undetectedCrashes.isEmpty())
+                    continue;
+                long now = System.nanoTime();
+                Set<String> names = new HashSet<>();
+                for (PeerInfo peer : serverStub.getPeerList(null))
+                    names.add(peer.getName());
+
+                for (Map.Entry<String,Long> crash : undetectedCrashes.entrySet()) {
+                    if (!names.contains(crash.getKey()) && undetectedCrashes.remove(crash.getKey(), crash.getValue())) {
+                        detections.record(now - crash.getValue());
+                        System.out.println("Server evicted " + crash.getKey() + " after " + millis(now - crash.getValue()) + " ms");
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                System.err.println("Cannot read the server peer list: " + e.getMessage());
+            }
+        }
+    }
+
+    /*
+     * ----------- Report -----------
+     */
+
+    private void printReport(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println("\n----- Cluster harness report -----\n");
+        System.out.printf("duration %.1f s, peers joined %d, left %d, crashed %d%n", seconds, joins, leaves, crashes);
+        System.out.printf("operations skipped at the in-flight limit %d, lost with a crashed peer %d%n%n", skippedOperations, lostOperations.get());
+
+        for (String operation : List.of("backup", "restore")) {
+            LatencyRecorder recorder = latencies.getOrDefault(operation, new LatencyRecorder());
+            long transferred = bytes.getOrDefault(operation, new AtomicLong()).get();
+            System.out.printf("%-8s ok %d, failed %d, %.2f ops/s, %.2f MB/s%n", operation, recorder.getCount(),
+                    failures.getOrDefault(operation, new AtomicInteger()).get(), recorder.getCount() / seconds, transferred / seconds / 1e6);
+            System.out.printf("         latency ms p50 %s, p90 %s, p99 %s, max %s%n", millis(recorder.getPercentile(50)),
+                    millis(recorder.getPercentile(90)), millis(recorder.getPercentile(99)), millis(recorder.getMax()));
+            if (lastErrors.containsKey(operation))
+                System.out.println("         last error: " + lastErrors.get(operation));
+        }
+
+        System.out.printf("%nfailure detection: %d crashes detected, %d not detected%n", detections.getCount(), undetectedCrashes.size());
+        System.out.printf("         time to eviction ms p50 %s, p90 %s, max %s%n", millis(detections.getPercentile(50)),
+                millis(detections.getPercentile(90)), millis(detections.getMax()));
+        System.out.println("\nLogs of the server and of every peer are in " + new File(workDir, "logs"));
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    private List<PeerProcess> readyPeers() {
+        return peers.stream().filter(PeerProcess::isReady).toList();
+    }
+
+    // joined and not yet gone, subscribed or still starting
+    private boolean isMember(PeerProcess peer) {
+        return peer.isReady() || (peer.getName() == null && peer.isAlive());
+    }
+
+    private void awaitReady() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + EXIT_TIMEOUT_MILLIS;
+        while (readyPeers().size() < peers.size() && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+    }
+
+    private void awaitDrained() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (peers.stream().anyMatch(p -> p.getInFlight() > 0) && System.currentTimeMillis() < deadline)
+            Thread.sleep(100);
+    }
+
+    private List<String> javaCommand(String heap) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heap);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        return command;
+    }
+
+    private String serverAddress() {
+        return "localhost:" + getLong("port", 1199);
+    }
+
+    private long getLong(String option, long defaultValue) {
+        return options.containsKey(option) ? Long.parseLong(options.get(option)) : defaultValue;
+    }
+
+    private double getDouble(String option, double defaultValue) {
+        return options.containsKey(option) ? Double.parseDouble(options.get(option)) : defaultValue;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+
+    // 512, 64k, 1m, 2g
+    private static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        long unit = switch (value.charAt(value.length() - 1)) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1;
+        };
+        return Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)) * unit;
+    }
+}
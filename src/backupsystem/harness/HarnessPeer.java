@@ -0,0 +1,114 @@
+package backupsystem.harness;
+
+import backupsystem.agents.Peer;
+import backupsystem.agents.PeerClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+// A peer process driven by the cluster harness instead of the menu. It reads one command per line
+// on standard input and answers on standard output, everything else the peer prints goes to standard error:
+//   backup <id> <size>         -> DONE <id> backup ok|fail <nanos> <bytes> [error]
+//   restore <id> <fileName>    -> DONE <id> restore ok|fail <nanos> <bytes> [error]
+//   leave                      -> LEFT, then the process exits
+// After subscribing it prints READY <name>. It exits when its standard input is closed.
+public class HarnessPeer {
+    private static final Duration DEADLINE = Duration.ofMinutes(2);
+
+    private final PrintStream protocol;
+    private final PeerClient client;
+    private final Random random;
+    private Path dataDir;
+
+    private HarnessPeer(PrintStream protocol, PeerClient client, long seed) {
+        this.protocol = protocol;
+        this.client = client;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String serverAddress = args[0];
+        long seed = Long.parseLong(args[1]);
+        PrintStream protocol = System.out;
+        System.setOut(System.err);
+
+        PeerClient client = new PeerClient(new Peer());
+        client.subscribe(serverAddress, DEADLINE).get();
+        HarnessPeer harnessPeer = new HarnessPeer(protocol, client, seed);
+        harnessPeer.dataDir = Files.createDirectories(Paths.get("data", client.getPeer().getName()));
+        harnessPeer.reply("READY " + client.getPeer().getName());
+        harnessPeer.serve();
+        System.exit(0);
+    }
+
+    private void serve() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            String[] command = line.trim().split(" ", 3);
+            switch (command[0]) {
+                case "backup" -> backup(command[1], Long.parseLong(command[2]));
+                case "restore" -> restore(command[1], command[2]);
+                case "leave" -> {
+                    leave();
+                    return;
+                }
+                default -> System.err.println("Unknown harness command: " + line);
+            }
+        }
+    }
+
+    // the file is written before the clock starts, only the backup itself is measured
+    private void backup(String id, long size) throws IOException {
+        Path file = dataDir.resolve("load-" + id + ".bin");
+        byte[] data = new byte[(int) size];
+        random.nextBytes(data);
+        Files.write(file, data);
+
+        long start = System.nanoTime();
+        report(id, "backup", start, size, client.backup(file));
+    }
+
+    private void restore(String id, String fileName) {
+        long size = dataDir.resolve(fileName).toFile().length();
+        long start = System.nanoTime();
+        report(id, "restore", start, size, client.recover(fileName));
+    }
+
+    private void leave() {
+        try {
+            client.unsubscribe(DEADLINE).get();
+        } catch (Exception e) {
+            System.err.println("Cannot unsubscribe: " + e.getMessage());
+        }
+        reply("LEFT");
+    }
+
+    private void report(String id, String operation, long start, long size, CompletableFuture<?> future) {
+        future.whenComplete((result, error) -> {
+            long nanos = System.nanoTime() - start;
+            if (error == null) {
+                reply("DONE " + id + " " + operation + " ok " + nanos + " " + size);
+            } else {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                reply("DONE " + id + " " + operation + " fail " + nanos + " " + size + " " + String.valueOf(cause.getMessage()).replace('\n', ' '));
+            }
+        });
+    }
+
+    private void reply(String line) {
+        synchronized (protocol) {
+            protocol.println(line);
+            protocol.flush();
+        }
+    }
+}
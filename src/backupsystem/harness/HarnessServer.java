@@ -0,0 +1,26 @@
+package backupsystem.harness;
+
+import backupsystem.agents.Server;
+
+import java.io.IOException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+
+// The server process launched by the cluster harness: a registry on the given port and a server
+// with the given heartbeat period. It exits when the harness closes its standard input
+public class HarnessServer {
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        long heartbeatPeriodMillis = Long.parseLong(args[1]);
+
+        Registry rmiRegistry = LocateRegistry.createRegistry(port);
+        Server server = new Server(heartbeatPeriodMillis);
+        rmiRegistry.rebind("Server", server);
+        System.out.println("Server bound on port " + port + ", heartbeat every " + heartbeatPeriodMillis + " ms");
+
+        while (System.in.read() != -1) {
+            // nothing is sent, the harness only closes the stream
+        }
+        System.exit(0);
+    }
+}
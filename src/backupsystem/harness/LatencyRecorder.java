@@ -0,0 +1,45 @@
+package backupsystem.harness;
+
+import java.util.Arrays;
+
+// Keeps every sample, the runs of the harness are short enough
+public class LatencyRecorder {
+    private long[] samples;
+    private int count;
+
+    public LatencyRecorder() {
+        this.samples = new long[1024];
+        this.count = 0;
+    }
+
+    public synchronized void record(long nanos) {
+        if (count == samples.length)
+            samples = Arrays.copyOf(samples, count * 2);
+        samples[count++] = nanos;
+    }
+
+    public synchronized int getCount() {
+        return count;
+    }
+
+    // nearest rank, 0 if there are no samples
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)];
+    }
+
+    public long getMax() {
+        return getPercentile(100);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "backupsystem.harness.LatencyRecorder{" +
+                "count=" + count +
+                '}';
+    }
+}
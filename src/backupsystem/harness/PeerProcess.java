@@ -0,0 +1,151 @@
+package backupsystem.harness;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+// One peer JVM started by the harness, talking to it through the HarnessPeer protocol
+class PeerProcess {
+    @FunctionalInterface
+    interface Listener {
+        void completed(PeerProcess peer, String operation, boolean succeeded, long nanos, long bytes, String error);
+    }
+
+    private final int index;
+    private final Process process;
+    private final PrintWriter commands;
+    private final Listener listener;
+    private final Set<String> inFlight;
+    private final List<String> backedUpFiles;
+    private volatile String name;
+    private volatile boolean left;
+
+    PeerProcess(int index, List<String> command, File workDir, File log, Listener listener) throws IOException {
+        this.index = index;
+        this.process = new ProcessBuilder(command)
+                .directory(workDir)
+                .redirectError(ProcessBuilder.Redirect.appendTo(log))
+                .start();
+        this.commands = new PrintWriter(process.getOutputStream(), true);
+        this.listener = listener;
+        this.inFlight = ConcurrentHashMap.newKeySet();
+        this.backedUpFiles = new CopyOnWriteArrayList<>();
+        this.name = null;
+        this.left = false;
+
+        Thread.ofVirtual().name("harness-peer-" + index).start(this::readReplies);
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    int getIndex() {
+        return index;
+    }
+
+    // null until the peer subscribed
+    String getName() {
+        return name;
+    }
+
+    boolean isReady() {
+        return name != null && !left && process.isAlive();
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    int getInFlight() {
+        return inFlight.size();
+    }
+
+    List<String> getBackedUpFiles() {
+        return backedUpFiles;
+    }
+
+    /*
+     * ----------- Commands -----------
+     */
+
+    void backup(String id, long size) {
+        send(id, "backup " + id + " " + size);
+    }
+
+    void restore(String id, String fileName) {
+        send(id, "restore " + id + " " + fileName);
+    }
+
+    // the peer unsubscribes and exits
+    void leave() {
+        left = true;
+        commands.println("leave");
+    }
+
+    // no unsubscription, the server and the other peers have to notice
+    void crash() {
+        left = true;
+        process.destroyForcibly();
+    }
+
+    // closing the input makes a peer that did not leave exit as well
+    boolean awaitExit(long timeoutMillis) throws InterruptedException {
+        commands.close();
+        if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS))
+            process.destroyForcibly();
+        return !process.isAlive();
+    }
+
+    // the operations still running when the process went away
+    int abandon() {
+        int lost = inFlight.size();
+        inFlight.clear();
+        return lost;
+    }
+
+    private void send(String id, String command) {
+        inFlight.add(id);
+        commands.println(command);
+    }
+
+    private void readReplies() {
+        try (BufferedReader replies = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = replies.readLine()) != null) {
+                String[] reply = line.split(" ", 7);
+                switch (reply[0]) {
+                    case "READY" -> name = reply[1];
+                    case "DONE" -> {
+                        if (!inFlight.remove(reply[1]))
+                            continue;
+                        boolean succeeded = reply[3].equals("ok");
+                        if (succeeded && reply[2].equals("backup"))
+                            backedUpFiles.add("load-" + reply[1] + ".bin");
+                        listener.completed(this, reply[2], succeeded, Long.parseLong(reply[4]), Long.parseLong(reply[5]), succeeded ? null : reply[6]);
+                    }
+                    case "LEFT" -> left = true;
+                    default -> System.err.println("Unexpected reply from peer " + index + ": " + line);
+                }
+            }
+        } catch (IOException e) {
+            // the process was killed
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.harness.PeerProcess{" +
+                "index=" + index +
+                ", name='" + name + '\'' +
+                ", left=" + left +
+                '}';
+    }
+}
@@ -1,20 +1,61 @@
 package backupsystem.interfaces;
 
+import backupsystem.compression.CompressedBlock;
+import backupsystem.datastructures.FileManifest;
+import backupsystem.datastructures.FileVersion;
+import backupsystem.datastructures.MembershipDelta;
+import backupsystem.datastructures.PackedFile;
 import backupsystem.datastructures.PeerList;
+import backupsystem.datastructures.ShardInfo;
+import backupsystem.delta.DeltaBase;
+import backupsystem.delta.DeltaInstruction;
 import backupsystem.exceptions.CallerNotSubscribedException;
+import backupsystem.membership.MembershipUpdate;
+import backupsystem.transfer.TransferTicket;
 
 import java.io.File;
 import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.AbstractMap;
+import java.util.List;
 
 // Questa interfaccia contiene i metodi invocabili da un host remoto
 
 public interface PeerInterface extends Remote {
     void updatePeerList(PeerList list) throws RemoteException;
+    void applyMembershipDelta(MembershipDelta delta) throws RemoteException;
     void backupFile(File file, byte[] fileData, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    String[] backupFiles(List<PackedFile> files, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    long openBackupSession(String fileName, long fileSize, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void putChunk(long sessionId, long offset, byte[] chunkData, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void putCompressedChunk(long sessionId, long offset, CompressedBlock chunk, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    TransferTicket openUploadChannel(long sessionId, String codecName, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void commitBackupSession(long sessionId, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void abortBackupSession(long sessionId, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    long resumeBackupSession(long sessionId, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    long openShardSession(String fileName, long shardSize, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    ShardInfo getShardInfo(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    byte[] readShardChunk(String fileName, long offset, int length, PeerInterface owner) throws IOException, CallerNotSubscribedException;
     AbstractMap.SimpleImmutableEntry<File,byte[]> getBackedUpFile(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    List<PackedFile> getBackedUpFiles(List<String> fileNames, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    FileVersion[] listBackedUpFileVersions(PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    FileVersion getBackedUpFileVersion(String fileName, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    byte[] readBackedUpFileChunk(String fileName, long offset, int length, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    TransferTicket openDownloadChannel(String fileName, long offset, String codecName, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    CompressedBlock readCompressedBackedUpFileChunk(String fileName, long offset, int length, String codecName, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    String[] findMissingChunks(String[] chunkHashes, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void storeChunks(List<CompressedBlock> chunks, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void commitManifest(FileManifest manifest, long stamp, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    DeltaBase getBlockSignatures(String fileName, int blockSize, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    long openDeltaSession(String fileName, long fileSize, long stamp, long baseVersion, long baseStamp, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void applyDelta(long sessionId, List<DeltaInstruction> delta, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    void commitDeltaSession(long sessionId, String contentHash, PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    FileVersion getReplicaVersion(String ownerName, String fileName, PeerInterface caller) throws IOException, CallerNotSubscribedException;
+    TransferTicket openReplicaChannel(String ownerName, FileVersion version, PeerInterface caller) throws IOException, CallerNotSubscribedException;
     String[] showBackedUpFiles(PeerInterface owner) throws IOException, CallerNotSubscribedException;
+    String[] getSupportedCodecs(PeerInterface caller) throws RemoteException, CallerNotSubscribedException;
+    List<MembershipUpdate> ping(List<MembershipUpdate> updates, PeerInterface caller) throws RemoteException, CallerNotSubscribedException;
+    boolean pingRequest(String targetName, List<MembershipUpdate> updates, PeerInterface caller) throws RemoteException, CallerNotSubscribedException;
     void checkAlive() throws RemoteException;
 }
\ No newline at end of file
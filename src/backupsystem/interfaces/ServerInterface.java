@@ -1,5 +1,7 @@
 package backupsystem.interfaces;
 
+import backupsystem.datastructures.PeerList;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
@@ -8,4 +10,6 @@ import java.rmi.RemoteException;
 public interface ServerInterface extends Remote {
     String subscribePeer(PeerInterface caller) throws RemoteException;
     void unsubscribePeer(PeerInterface caller) throws RemoteException;
+    PeerList getPeerList(PeerInterface caller) throws RemoteException;
+    void reportFailedPeer(String peerName, PeerInterface reporter) throws RemoteException;
 }
@@ -0,0 +1,41 @@
+package backupsystem.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Direct buffers of one size, reused between reads: allocating a direct buffer is slow and its memory is
+// freed only by the GC. When all are in use a new one is allocated, at most maxIdle are kept afterwards
+public class DirectBufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> idle;
+
+    public DirectBufferPool(int bufferSize, int maxIdle) {
+        this.bufferSize = bufferSize;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // cleared, ready to be filled
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = idle.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    // the buffer must not be used after it is released
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferSize)
+            idle.offer(buffer);
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.io.DirectBufferPool{" +
+                "bufferSize=" + bufferSize +
+                ", idle=" + idle.size() +
+                '}';
+    }
+}
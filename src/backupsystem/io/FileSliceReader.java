@@ -0,0 +1,182 @@
+package backupsystem.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+// Reads a range of a file as a sequence of slices without copying it to the heap: large ranges are memory mapped
+// a window at a time, small ones are read into a pooled direct buffer. A slice is valid until the next one is read,
+// so one pass over it can checksum, hash, compress and send the data.
+public class FileSliceReader implements Closeable {
+    // smaller ranges are read, mapping costs more than it saves on them
+    public static final long MAP_THRESHOLD = 4L * 1024 * 1024;
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final int POOLED_BUFFER_SIZE = 1024 * 1024;
+    private static final DirectBufferPool POOL = new DirectBufferPool(POOLED_BUFFER_SIZE, 32);
+
+    private final FileChannel channel;
+    private final boolean ownsChannel;
+    private final long end;
+    private final int sliceSize;
+    private final boolean mapped;
+    private long position;
+    private long slicePosition;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private ByteBuffer pooled;
+
+    // reads [offset, end) of the channel, which is left open
+    public FileSliceReader(FileChannel channel, long offset, long end, int sliceSize) throws IOException {
+        this(channel, false, offset, end, sliceSize);
+    }
+
+    private FileSliceReader(FileChannel channel, boolean ownsChannel, long offset, long end, int sliceSize) throws IOException {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.end = Math.min(end, channel.size());
+        this.mapped = this.end - offset >= MAP_THRESHOLD;
+        // a pooled buffer holds at most one slice
+        this.sliceSize = mapped ? sliceSize : Math.min(sliceSize, POOLED_BUFFER_SIZE);
+        this.position = offset;
+        this.slicePosition = offset;
+        this.window = null;
+        this.windowStart = offset;
+        this.pooled = null;
+    }
+
+    // reads [offset, end) of the file, closing the reader closes the file
+    public static FileSliceReader open(Path path, long offset, long end, int sliceSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new FileSliceReader(channel, true, offset, end, sliceSize);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    // where the last slice returned starts in the file
+    public long getSlicePosition() {
+        return slicePosition;
+    }
+
+    // where the next slice starts, the end of the range once all the slices are read
+    public long getPosition() {
+        return position;
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /*
+     * ----------- Reading -----------
+     */
+
+    // the next slice, read only, or null at the end of the range; the file may end before the range does
+    public ByteBuffer next() throws IOException {
+        if (position >= end)
+            return null;
+        slicePosition = position;
+        ByteBuffer slice = mapped ? nextMapped() : nextPooled();
+        if (slice != null)
+            position += slice.remaining();
+        return slice;
+    }
+
+    private ByteBuffer nextMapped() throws IOException {
+        if (window == null || position >= windowStart + window.capacity()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW, end - windowStart));
+        }
+        int start = (int) (position - windowStart);
+        int length = Math.min(sliceSize, window.capacity() - start);
+        return window.slice(start, length).asReadOnlyBuffer();
+    }
+
+    private ByteBuffer nextPooled() throws IOException {
+        if (pooled == null)
+            pooled = POOL.acquire();
+        pooled.clear().limit((int) Math.min(sliceSize, end - position));
+        while (pooled.hasRemaining()) {
+            if (channel.read(pooled, position + pooled.position()) < 0)
+                break;
+        }
+        pooled.flip();
+        return pooled.hasRemaining() ? pooled.asReadOnlyBuffer() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pooled != null) {
+            POOL.release(pooled);
+            pooled = null;
+        }
+        window = null;
+        if (ownsChannel)
+            channel.close();
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    // the whole file in an array of exactly its size, the only copy made on the heap;
+    // the single call transfers are limited to what fits in an array
+    public static byte[] readAll(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8)
+                throw new IOException(path.getFileName() + " is too large to be read in one array: " + size + " bytes");
+            return read(channel, 0, size);
+        }
+    }
+
+    // at most length bytes starting at offset, fewer only at the end of the file
+    public static byte[] read(Path path, long offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, offset, Math.max(offset, Math.min(channel.size(), offset + length)));
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long offset, long end) throws IOException {
+        byte[] data = new byte[(int) (end - offset)];
+        int length = 0;
+        try (FileSliceReader reader = new FileSliceReader(channel, offset, end, Integer.MAX_VALUE)) {
+            ByteBuffer slice;
+            while ((slice = reader.next()) != null) {
+                int n = slice.remaining();
+                slice.get(data, length, n);
+                length += n;
+            }
+        }
+        // the file got shorter while it was read
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    // CRC32C of the slice, as carried by compressed blocks, without moving its position
+    public static long checksum(ByteBuffer slice) {
+        CRC32C crc = new CRC32C();
+        crc.update(slice.duplicate());
+        return crc.getValue();
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.io.FileSliceReader{" +
+                "position=" + position +
+                ", end=" + end +
+                ", mapped=" + mapped +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package backupsystem.membership;
+
+import backupsystem.datastructures.MembershipDelta;
+import backupsystem.datastructures.PeerInfo;
+import backupsystem.datastructures.PeerList;
+import backupsystem.interfaces.PeerInterface;
+
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// Delivers membership changes to peers in background: every peer has its own queue,
+// so deltas arrive in order and a slow peer only delays itself
+public class MembershipPublisher {
+    // a peer that falls this far behind gets one snapshot instead of the queued deltas
+    private static final int MAX_PENDING_DELTAS = 64;
+
+    private final ExecutorService executor;
+    private final Map<PeerInterface,PeerQueue> queues;
+    private final Supplier<PeerList> snapshotSupplier;
+
+    private static class PeerQueue {
+        private final Deque<MembershipDelta> pending = new ArrayDeque<>();
+        private boolean snapshotNeeded = false;
+        private boolean draining = false;
+    }
+
+    public MembershipPublisher(Supplier<PeerList> snapshotSupplier) {
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.queues = new ConcurrentHashMap<>();
+        this.snapshotSupplier = snapshotSupplier;
+    }
+
+    public void publish(Iterable<PeerInfo> recipients, MembershipDelta delta) {
+        for (PeerInfo recipient : recipients) {
+            PeerQueue queue = queues.computeIfAbsent(recipient.getStub(), k -> new PeerQueue());
+            boolean startDrain;
+
+            synchronized (queue) {
+                if (queue.pending.size() >= MAX_PENDING_DELTAS) {
+                    queue.pending.clear();
+                    queue.snapshotNeeded = true;
+                } else if (!queue.snapshotNeeded) {
+                    queue.pending.add(delta);
+                }
+                startDrain = !queue.draining;
+                queue.draining = true;
+            }
+
+            if (startDrain)
+                executor.execute(() -> drain(recipient, queue));
+        }
+    }
+
+    // stops delivering to a peer that left the network
+    public void forget(PeerInterface stub) {
+        queues.remove(stub);
+    }
+
+    private void drain(PeerInfo recipient, PeerQueue queue) {
+        while (true) {
+            MembershipDelta delta;
+            boolean snapshot;
+            synchronized (queue) {
+                snapshot = queue.snapshotNeeded;
+                delta = snapshot ? null : queue.pending.poll();
+                queue.snapshotNeeded = false;
+                if (!snapshot && delta == null) {
+                    queue.draining = false;
+                    return;
+                }
+            }
+
+            try {
+                if (snapshot)
+                    recipient.getStub().updatePeerList(snapshotSupplier.get());
+                else
+                    recipient.getStub().applyMembershipDelta(delta);
+            } catch (RemoteException e) {
+                // the peer asks for a snapshot when it sees the gap, or it is evicted by the heartbeat
+                System.err.println("Cannot update peer list for: " + recipient.getName());
+                System.err.println(e.getMessage());
+                synchronized (queue) {
+                    queue.pending.clear();
+                }
+            }
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
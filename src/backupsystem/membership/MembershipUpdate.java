@@ -0,0 +1,49 @@
+package backupsystem.membership;
+
+import java.io.Serializable;
+
+// Gossiped opinion about a member; a higher incarnation, set only by the member itself, wins
+public class MembershipUpdate implements Serializable {
+    public enum State { ALIVE, SUSPECT, DEAD }
+
+    private final String name;
+    private final State state;
+    private final int incarnation;
+
+    public MembershipUpdate(String name, State state, int incarnation) {
+        this.name = name;
+        this.state = state;
+        this.incarnation = incarnation;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getIncarnation() {
+        return incarnation;
+    }
+
+    // SWIM precedence: higher incarnation, then dead over suspect over alive. A member declared dead
+    // by mistake comes back only by refuting it with a higher incarnation
+    public boolean overrides(MembershipUpdate other) {
+        if (other == null)
+            return true;
+        if (incarnation != other.incarnation)
+            return incarnation > other.incarnation;
+        return state.ordinal() > other.state.ordinal();
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.membership.MembershipUpdate{" +
+                "name='" + name + '\'' +
+                ", state=" + state +
+                ", incarnation=" + incarnation +
+                '}';
+    }
+}
@@ -0,0 +1,95 @@
+package backupsystem.membership;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Phi accrual failure detector (Hayashibara et al.): instead of a yes/no answer it returns how
+// unlikely it is, given the intervals seen so far, that the next heartbeat is just late.
+// A phi of 8 means a chance of about 1e-8 of wrongly declaring the peer dead.
+public class PhiAccrualFailureDetector {
+    private static final int MAX_SAMPLES = 100;
+
+    private final long expectedIntervalMillis;
+    private final long minStdDeviationMillis;
+    private final long acceptablePauseMillis;
+    private final Map<String,History> histories;
+
+    private static class History {
+        private final Deque<Long> intervals = new ArrayDeque<>();
+        private long lastHeartbeat;
+        private double sum;
+        private double squaredSum;
+
+        private History(long now, long expectedInterval) {
+            this.lastHeartbeat = now;
+            // first sample: the expected interval, so a new peer is not judged on nothing
+            add(expectedInterval);
+        }
+
+        private void add(long interval) {
+            if (intervals.size() == MAX_SAMPLES) {
+                long removed = intervals.removeFirst();
+                sum -= removed;
+                squaredSum -= (double) removed * removed;
+            }
+            intervals.addLast(interval);
+            sum += interval;
+            squaredSum += (double) interval * interval;
+        }
+
+        private double mean() {
+            return sum / intervals.size();
+        }
+
+        private double stdDeviation() {
+            double mean = mean();
+            return Math.sqrt(Math.max(0, squaredSum / intervals.size() - mean * mean));
+        }
+    }
+
+    public PhiAccrualFailureDetector(long expectedIntervalMillis, long minStdDeviationMillis, long acceptablePauseMillis) {
+        this.expectedIntervalMillis = expectedIntervalMillis;
+        this.minStdDeviationMillis = minStdDeviationMillis;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+        this.histories = new ConcurrentHashMap<>();
+    }
+
+    public void heartbeat(String name, long nowMillis) {
+        History history = histories.computeIfAbsent(name, k -> new History(nowMillis, expectedIntervalMillis));
+        synchronized (history) {
+            if (nowMillis > history.lastHeartbeat) {
+                history.add(nowMillis - history.lastHeartbeat);
+                history.lastHeartbeat = nowMillis;
+            }
+        }
+    }
+
+    public double phi(String name, long nowMillis) {
+        History history = histories.get(name);
+        if (history == null)
+            return 0;
+
+        double elapsed;
+        double mean;
+        double stdDeviation;
+        synchronized (history) {
+            elapsed = nowMillis - history.lastHeartbeat;
+            mean = history.mean() + acceptablePauseMillis;
+            stdDeviation = Math.max(history.stdDeviation(), minStdDeviationMillis);
+        }
+
+        // logistic approximation of the normal cumulative distribution
+        double y = (elapsed - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean)
+            return -Math.log10(e / (1 + e));
+        else
+            return -Math.log10(1 - 1 / (1 + e));
+    }
+
+    public void remove(String name) {
+        histories.remove(name);
+    }
+}
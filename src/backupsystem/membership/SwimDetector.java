@@ -0,0 +1,273 @@
+package backupsystem.membership;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// SWIM failure detector: every protocol period one random member is pinged directly, then through
+// a few other members if it does not answer. Unanswered members become suspects and are declared
+// dead only if nobody refutes the suspicion in time. Updates travel piggybacked on pings,
+// so the load on each peer does not grow with the size of the network.
+public class SwimDetector {
+    private static final long PROTOCOL_PERIOD_MILLIS = 1000;
+    private static final long PING_TIMEOUT_MILLIS = 400;
+    private static final int INDIRECT_PROBES = 3;
+    private static final int SUSPICION_MULTIPLIER = 4;
+    private static final int RETRANSMIT_MULTIPLIER = 3;
+    private static final int MAX_PIGGYBACKED_UPDATES = 8;
+
+    private final String selfName;
+    private final Supplier<Set<String>> members;
+    private final Transport transport;
+    private final Consumer<String> onDead;
+    private final Map<String,MembershipUpdate> states;
+    private final Map<String,Long> suspectedSince;
+    // updates still to be gossiped and how many more times each one is sent
+    private final Map<String,MembershipUpdate> pendingUpdates;
+    private final Map<String,Integer> transmissionsLeft;
+    private final Deque<String> probeOrder;
+    private final ExecutorService probeExecutor;
+    private final ScheduledExecutorService scheduler;
+    private final Random random;
+    private int incarnation;
+
+    // remote calls used by the detector, implemented by the peer on top of PeerInterface
+    public interface Transport {
+        List<MembershipUpdate> ping(String target, List<MembershipUpdate> updates) throws Exception;
+        boolean pingRequest(String relay, String target, List<MembershipUpdate> updates) throws Exception;
+    }
+
+    public SwimDetector(String selfName, Supplier<Set<String>> members, Transport transport, Consumer<String> onDead) {
+        this.selfName = selfName;
+        this.members = members;
+        this.transport = transport;
+        this.onDead = onDead;
+        this.states = new ConcurrentHashMap<>();
+        this.suspectedSince = new ConcurrentHashMap<>();
+        this.pendingUpdates = new HashMap<>();
+        this.transmissionsLeft = new HashMap<>();
+        this.probeOrder = new ArrayDeque<>();
+        this.probeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "swim-" + selfName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.random = new Random();
+        this.incarnation = 0;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                protocolPeriod();
+            } catch (InterruptedException e) {
+                // detector stopped
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                System.err.println("Error in failure detection round: " + e.getMessage());
+            }
+        }, PROTOCOL_PERIOD_MILLIS, PROTOCOL_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        probeExecutor.shutdownNow();
+    }
+
+    public MembershipUpdate.State getState(String name) {
+        MembershipUpdate update = states.get(name);
+        return update == null ? MembershipUpdate.State.ALIVE : update.getState();
+    }
+
+    /*
+     * ----------- Incoming messages -----------
+     */
+
+    // a member pinged this peer: merge its updates and answer with ours
+    public List<MembershipUpdate> handlePing(List<MembershipUpdate> updates) {
+        merge(updates);
+        return piggyback();
+    }
+
+    // a member asks this peer to ping the target on its behalf
+    public boolean handlePingRequest(String target, List<MembershipUpdate> updates) {
+        merge(updates);
+        return probe(target, PING_TIMEOUT_MILLIS);
+    }
+
+    /*
+     * ----------- Protocol -----------
+     */
+
+    private void protocolPeriod() throws InterruptedException {
+        Set<String> current = members.get();
+        forgetRemovedMembers(current);
+        expireSuspicions(current.size());
+
+        String target = nextTarget(current);
+        if (target == null || probe(target, PING_TIMEOUT_MILLIS) || getState(target) == MembershipUpdate.State.DEAD)
+            return;
+
+        // no direct answer: ask k other members to ping the target
+        List<String> relays = new ArrayList<>(current);
+        relays.remove(target);
+        relays.remove(selfName);
+        Collections.shuffle(relays, random);
+        List<MembershipUpdate> updates = piggyback();
+        List<Callable<Boolean>> requests = new ArrayList<>();
+        for (String relay : relays.subList(0, Math.min(INDIRECT_PROBES, relays.size()))) {
+            requests.add(() -> transport.pingRequest(relay, target, updates));
+        }
+
+        if (!requests.isEmpty()) {
+            long remaining = PROTOCOL_PERIOD_MILLIS - PING_TIMEOUT_MILLIS;
+            for (Future<Boolean> answer : probeExecutor.invokeAll(requests, remaining, TimeUnit.MILLISECONDS)) {
+                try {
+                    if (answer.get())
+                        return;
+                } catch (ExecutionException | CancellationException e) {
+                    // relay failed or did not answer in time
+                }
+            }
+        }
+
+        MembershipUpdate known = states.get(target);
+        enqueue(new MembershipUpdate(target, MembershipUpdate.State.SUSPECT, known == null ? 0 : known.getIncarnation()));
+    }
+
+    // returns true if the target answered within the timeout; a suspected target is also told, so it can refute
+    private boolean probe(String target, long timeoutMillis) {
+        List<MembershipUpdate> updates = piggyback();
+        MembershipUpdate known = states.get(target);
+        if (known != null && known.getState() != MembershipUpdate.State.ALIVE && !updates.contains(known)) {
+            updates = new ArrayList<>(updates);
+            updates.add(known);
+        }
+        List<MembershipUpdate> sent = updates;
+        Future<List<MembershipUpdate>> answer = probeExecutor.submit(() -> transport.ping(target, sent));
+        try {
+            merge(answer.get(timeoutMillis, TimeUnit.MILLISECONDS));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            answer.cancel(true);
+            return false;
+        }
+    }
+
+    // members are probed in a shuffled round robin, so each one is probed within a bounded time.
+    // Dead members are probed too: they stay in the list only until the server evicts them,
+    // or because the server found them alive, and then the probe lets them refute
+    private String nextTarget(Set<String> current) {
+        synchronized (probeOrder) {
+            while (!probeOrder.isEmpty()) {
+                String candidate = probeOrder.poll();
+                if (current.contains(candidate))
+                    return candidate;
+            }
+
+            List<String> shuffled = new ArrayList<>(current);
+            shuffled.remove(selfName);
+            Collections.shuffle(shuffled, random);
+            probeOrder.addAll(shuffled);
+            return probeOrder.poll();
+        }
+    }
+
+    private void expireSuspicions(int memberCount) {
+        long timeout = SUSPICION_MULTIPLIER * PROTOCOL_PERIOD_MILLIS * Math.max(1, log2(memberCount));
+        long now = System.currentTimeMillis();
+
+        for (var entry : suspectedSince.entrySet()) {
+            if (now - entry.getValue() >= timeout) {
+                MembershipUpdate known = states.get(entry.getKey());
+                if (known != null && known.getState() == MembershipUpdate.State.SUSPECT)
+                    enqueue(new MembershipUpdate(entry.getKey(), MembershipUpdate.State.DEAD, known.getIncarnation()));
+            }
+        }
+    }
+
+    private void forgetRemovedMembers(Set<String> current) {
+        states.keySet().removeIf(name -> !current.contains(name));
+        suspectedSince.keySet().removeIf(name -> !current.contains(name));
+    }
+
+    /*
+     * ----------- Dissemination -----------
+     */
+
+    private void merge(List<MembershipUpdate> updates) {
+        for (MembershipUpdate update : updates) {
+            if (update.getName().equals(selfName)) {
+                refute(update);
+            } else if (update.overrides(states.get(update.getName()))) {
+                enqueue(update);
+            }
+        }
+    }
+
+    // somebody suspects this peer: answer with a higher incarnation, or again with the current one
+    // if the suspicion is older than the last refutation
+    private synchronized void refute(MembershipUpdate update) {
+        if (update.getState() != MembershipUpdate.State.ALIVE) {
+            if (update.getIncarnation() >= incarnation)
+                incarnation = update.getIncarnation() + 1;
+            addToDissemination(new MembershipUpdate(selfName, MembershipUpdate.State.ALIVE, incarnation));
+        }
+    }
+
+    // applies an update locally and schedules it to be gossiped
+    private void enqueue(MembershipUpdate update) {
+        MembershipUpdate previous;
+        synchronized (this) {
+            previous = states.get(update.getName());
+            if (!update.overrides(previous))
+                return;
+            states.put(update.getName(), update);
+            addToDissemination(update);
+        }
+
+        switch (update.getState()) {
+            case ALIVE -> suspectedSince.remove(update.getName());
+            case SUSPECT -> suspectedSince.putIfAbsent(update.getName(), System.currentTimeMillis());
+            case DEAD -> {
+                suspectedSince.remove(update.getName());
+                if (previous == null || previous.getState() != MembershipUpdate.State.DEAD)
+                    onDead.accept(update.getName());
+            }
+        }
+    }
+
+    private synchronized void addToDissemination(MembershipUpdate update) {
+        int transmissions = RETRANSMIT_MULTIPLIER * Math.max(1, log2(members.get().size() + 1));
+        pendingUpdates.put(update.getName(), update);
+        transmissionsLeft.put(update.getName(), transmissions);
+    }
+
+    // the updates sent the fewest times go first, each one is sent a logarithmic number of times
+    private synchronized List<MembershipUpdate> piggyback() {
+        List<String> names = new ArrayList<>(transmissionsLeft.keySet());
+        names.sort(Comparator.comparing(transmissionsLeft::get).reversed());
+
+        List<MembershipUpdate> updates = new ArrayList<>();
+        for (String name : names.subList(0, Math.min(MAX_PIGGYBACKED_UPDATES, names.size()))) {
+            updates.add(pendingUpdates.get(name));
+            int left = transmissionsLeft.get(name) - 1;
+            if (left <= 0) {
+                transmissionsLeft.remove(name);
+                pendingUpdates.remove(name);
+            } else {
+                transmissionsLeft.put(name, left);
+            }
+        }
+        return updates;
+    }
+
+    private static int log2(int n) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, n));
+    }
+}
@@ -0,0 +1,66 @@
+package backupsystem.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts values in fixed buckets, recording is a search in the bounds and two adds, without locks or allocation
+public class Histogram {
+    // upper bounds of the latency buckets in nanoseconds, from 50 µs to 60 s
+    public static final long[] LATENCY_BOUNDS_NANOS = {
+            50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000, 500_000_000,
+            1_000_000_000, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L, 30_000_000_000L, 60_000_000_000L
+    };
+
+    private final long[] bounds;
+    // one more than the bounds, the last one is for the values above all of them
+    private final LongAdder[] buckets;
+    private final LongAdder sum;
+
+    public Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+        this.sum = new LongAdder();
+    }
+
+    public void record(long value) {
+        int index = Arrays.binarySearch(bounds, value);
+        buckets[index >= 0 ? index : -index - 1].increment();
+        sum.add(value);
+    }
+
+    // records the time since start, taken with System.nanoTime()
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    // counts of values up to each bound, the last one is the total count
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    @Override
+    public String toString() {
+        long[] counts = getCumulativeCounts();
+        return "backupsystem.metrics.Histogram{" +
+                "count=" + counts[counts.length - 1] +
+                ", sum=" + getSum() +
+                '}';
+    }
+}
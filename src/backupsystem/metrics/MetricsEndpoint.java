@@ -0,0 +1,73 @@
+package backupsystem.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// Publishes the metrics of an agent as an MBean and on GET /metrics in the Prometheus text format,
+// with the HTTP server of the JDK. Scrapes run on virtual threads, recording never waits for them
+public class MetricsEndpoint implements Closeable {
+    private final HttpServer httpServer;
+    private final ObjectName objectName;
+
+    // port 0 chooses a free port
+    public MetricsEndpoint(MetricsRegistry registry, String agentName, int port) throws IOException {
+        this.objectName = registerMBean(registry, agentName);
+        this.httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            try (exchange) {
+                if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = PrometheusFormat.write(registry).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", PrometheusFormat.CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, exchange.getRequestMethod().equals("HEAD") ? -1 : body.length);
+                if (exchange.getRequestMethod().equals("GET")) {
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            }
+        });
+        httpServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        httpServer.start();
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        try {
+            if (objectName != null)
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            // already unregistered
+        }
+    }
+
+    // backupsystem:type=Metrics,name=<agent>, not registered if the name is taken, the HTTP endpoint still works
+    private static ObjectName registerMBean(MetricsRegistry registry, String agentName) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = ObjectName.getInstance("backupsystem:type=Metrics,name=" + ObjectName.quote(agentName));
+            mBeanServer.registerMBean(new MetricsMBean(registry), name);
+            return name;
+        } catch (JMException e) {
+            System.err.println("Cannot register metrics MBean: " + e.getMessage());
+            return null;
+        }
+    }
+}
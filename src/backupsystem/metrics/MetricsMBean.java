@@ -0,0 +1,68 @@
+package backupsystem.metrics;
+
+import javax.management.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Shows every sample of the registry as a read only attribute named like the Prometheus series,
+// the attributes follow the metrics created since the last time the MBean was described
+public class MetricsMBean implements DynamicMBean {
+    private final MetricsRegistry registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Double value = collect().get(attribute);
+        if (value == null)
+            throw new AttributeNotFoundException("No such metric: " + attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String,Double> samples = collect();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (samples.containsKey(attribute))
+                list.add(new Attribute(attribute, samples.get(attribute)));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (MetricsRegistry.Family family : registry.getFamilies()) {
+            for (MetricsRegistry.Sample sample : registry.collect(family))
+                attributes.add(new MBeanAttributeInfo(PrometheusFormat.format(sample), "double", family.getHelp(), true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of a backup system agent", attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    private Map<String,Double> collect() {
+        Map<String,Double> samples = new LinkedHashMap<>();
+        for (MetricsRegistry.Sample sample : registry.collect())
+            samples.put(PrometheusFormat.format(sample), sample.value());
+        return samples;
+    }
+}
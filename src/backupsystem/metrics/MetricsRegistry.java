@@ -0,0 +1,247 @@
+package backupsystem.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Counters, histograms and gauges of one agent. Every metric belongs to a family with a name and at most one label:
+// the hot path keeps the family and looks up the label value in a concurrent map, which does not allocate once
+// the value was seen. Gauges are read only when the metrics are collected.
+public class MetricsRegistry {
+    public enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    // one value of a family as exported, the name already has the _bucket, _sum or _count suffix of histograms
+    public record Sample(String name, Map<String,String> labels, double value) {}
+
+    private final Map<String,Family> families;
+
+    public MetricsRegistry() {
+        this.families = new ConcurrentHashMap<>();
+    }
+
+    /*
+     * ----------- Families -----------
+     */
+
+    public abstract static class Family {
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final String labelName;
+
+        private Family(String name, String help, Type type, String labelName) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labelName = labelName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        abstract void collect(List<Sample> samples);
+
+        Map<String,String> labelsOf(String labelValue) {
+            return labelName == null ? Map.of() : Map.of(labelName, labelValue);
+        }
+    }
+
+    // a family whose metrics are updated by the agent, one for each label value
+    public abstract static class RecordedFamily<T> extends Family {
+        private final Map<String,T> children;
+
+        private RecordedFamily(String name, String help, Type type, String labelName) {
+            super(name, help, type, labelName);
+            this.children = new ConcurrentHashMap<>();
+        }
+
+        // the metric with the given label value, created the first time
+        public T labels(String labelValue) {
+            T child = children.get(labelValue);
+            return child != null ? child : children.computeIfAbsent(labelValue, v -> newChild());
+        }
+
+        // the metric of a family without label
+        public T get() {
+            return labels("");
+        }
+
+        abstract T newChild();
+
+        abstract void collect(String labelValue, T child, List<Sample> samples);
+
+        @Override
+        void collect(List<Sample> samples) {
+            new TreeMap<>(children).forEach((labelValue, child) -> collect(labelValue, child, samples));
+        }
+    }
+
+    public static class CounterFamily extends RecordedFamily<LongAdder> {
+        private CounterFamily(String name, String help, String labelName) {
+            super(name, help, Type.COUNTER, labelName);
+        }
+
+        @Override
+        LongAdder newChild() {
+            return new LongAdder();
+        }
+
+        @Override
+        void collect(String labelValue, LongAdder child, List<Sample> samples) {
+            samples.add(new Sample(getName(), labelsOf(labelValue), child.sum()));
+        }
+    }
+
+    public static class HistogramFamily extends RecordedFamily<Histogram> {
+        private final long[] bounds;
+        // histograms record integers, for example nanoseconds, exported in the base unit, for example seconds
+        private final double scale;
+
+        private HistogramFamily(String name, String help, String labelName, long[] bounds, double scale) {
+            super(name, help, Type.HISTOGRAM, labelName);
+            this.bounds = bounds;
+            this.scale = scale;
+        }
+
+        @Override
+        Histogram newChild() {
+            return new Histogram(bounds);
+        }
+
+        @Override
+        void collect(String labelValue, Histogram child, List<Sample> samples) {
+            long[] counts = child.getCumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                Map<String,String> labels = new LinkedHashMap<>(labelsOf(labelValue));
+                labels.put("le", i < bounds.length ? formatBound(bounds[i] * scale) : "+Inf");
+                samples.add(new Sample(getName() + "_bucket", labels, counts[i]));
+            }
+            samples.add(new Sample(getName() + "_sum", labelsOf(labelValue), child.getSum() * scale));
+            samples.add(new Sample(getName() + "_count", labelsOf(labelValue), counts[counts.length - 1]));
+        }
+
+        private static String formatBound(double bound) {
+            return bound == Math.rint(bound) ? String.valueOf((long) bound) : String.valueOf(bound);
+        }
+    }
+
+    // read when the metrics are collected, one value for each label value in the map
+    public static class GaugeFamily extends Family {
+        private final Supplier<Map<String,Long>> values;
+
+        private GaugeFamily(String name, String help, String labelName, Supplier<Map<String,Long>> values) {
+            super(name, help, Type.GAUGE, labelName);
+            this.values = values;
+        }
+
+        @Override
+        void collect(List<Sample> samples) {
+            new TreeMap<>(values.get()).forEach((labelValue, value) -> samples.add(new Sample(getName(), labelsOf(labelValue), value)));
+        }
+    }
+
+    // a counter kept by another component, read when the metrics are collected
+    public static class SuppliedCounterFamily extends Family {
+        private final LongSupplier value;
+
+        private SuppliedCounterFamily(String name, String help, LongSupplier value) {
+            super(name, help, Type.COUNTER, null);
+            this.value = value;
+        }
+
+        @Override
+        void collect(List<Sample> samples) {
+            samples.add(new Sample(getName(), labelsOf(""), value.getAsLong()));
+        }
+    }
+
+    /*
+     * ----------- Registration -----------
+     */
+
+    public CounterFamily counter(String name, String help, String labelName) {
+        return withoutLabel(register(new CounterFamily(name, help, labelName)), labelName);
+    }
+
+    public CounterFamily counter(String name, String help) {
+        return counter(name, help, (String) null);
+    }
+
+    public SuppliedCounterFamily counter(String name, String help, LongSupplier value) {
+        return register(new SuppliedCounterFamily(name, help, value));
+    }
+
+    public HistogramFamily histogram(String name, String help, String labelName, long[] bounds, double scale) {
+        return withoutLabel(register(new HistogramFamily(name, help, labelName, bounds, scale)), labelName);
+    }
+
+    // latencies recorded in nanoseconds, exported in seconds
+    public HistogramFamily latency(String name, String help, String labelName) {
+        return histogram(name, help, labelName, Histogram.LATENCY_BOUNDS_NANOS, 1e-9);
+    }
+
+    public GaugeFamily gauge(String name, String help, String labelName, Supplier<Map<String,Long>> values) {
+        return register(new GaugeFamily(name, help, labelName, values));
+    }
+
+    public GaugeFamily gauge(String name, String help, LongSupplier value) {
+        return gauge(name, help, null, () -> Map.of("", value.getAsLong()));
+    }
+
+    // a family without label is exported from the start, also while it is still zero
+    private static <F extends RecordedFamily<?>> F withoutLabel(F family, String labelName) {
+        if (labelName == null)
+            family.get();
+        return family;
+    }
+
+    // registering the same name again returns the family already registered
+    @SuppressWarnings("unchecked")
+    private <F extends Family> F register(F family) {
+        Family existing = families.putIfAbsent(family.getName(), family);
+        if (existing == null)
+            return family;
+        if (existing.getClass() != family.getClass())
+            throw new IllegalArgumentException("Metric already registered with another type: " + family.getName());
+        return (F) existing;
+    }
+
+    /*
+     * ----------- Collection -----------
+     */
+
+    public List<Family> getFamilies() {
+        List<Family> sorted = new ArrayList<>(families.values());
+        sorted.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return Collections.unmodifiableList(sorted);
+    }
+
+    public List<Sample> collect(Family family) {
+        List<Sample> samples = new ArrayList<>();
+        family.collect(samples);
+        return samples;
+    }
+
+    public List<Sample> collect() {
+        List<Sample> samples = new ArrayList<>();
+        for (Family family : getFamilies())
+            family.collect(samples);
+        return samples;
+    }
+}
@@ -0,0 +1,48 @@
+package backupsystem.metrics;
+
+import java.util.Map;
+
+// Writes the metrics in the Prometheus text exposition format, version 0.0.4
+public class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static String write(MetricsRegistry registry) {
+        StringBuilder out = new StringBuilder();
+        for (MetricsRegistry.Family family : registry.getFamilies()) {
+            out.append("# HELP ").append(family.getName()).append(' ').append(escape(family.getHelp(), false)).append('\n');
+            out.append("# TYPE ").append(family.getName()).append(' ').append(family.getType().name().toLowerCase()).append('\n');
+            for (MetricsRegistry.Sample sample : registry.collect(family))
+                out.append(format(sample)).append(' ').append(formatValue(sample.value())).append('\n');
+        }
+        return out.toString();
+    }
+
+    // name{label="value",...}, also used as attribute name by the MBean
+    public static String format(MetricsRegistry.Sample sample) {
+        if (sample.labels().isEmpty())
+            return sample.name();
+
+        StringBuilder out = new StringBuilder(sample.name()).append('{');
+        boolean first = true;
+        for (Map.Entry<String,String> label : sample.labels().entrySet()) {
+            if (!first)
+                out.append(',');
+            out.append(label.getKey()).append("=\"").append(escape(label.getValue(), true)).append('"');
+            first = false;
+        }
+        return out.append('}').toString();
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String escape(String text, boolean quoted) {
+        String escaped = text.replace("\\", "\\\\").replace("\n", "\\n");
+        return quoted ? escaped.replace("\"", "\\\"") : escaped;
+    }
+}
@@ -0,0 +1,65 @@
+package backupsystem.placement;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// Consistent hashing ring over peer names: every peer owns many points on the ring, and a key is
+// placed on the first distinct peers found walking clockwise from its hash. When a peer joins or
+// leaves only the keys next to its points change owner.
+public class ConsistentHashRing {
+    private static final int VIRTUAL_NODES = 64;
+
+    private final TreeMap<Long,String> ring;
+    private final int peerCount;
+
+    public ConsistentHashRing(Collection<String> peerNames) {
+        this.ring = new TreeMap<>();
+        for (String name : peerNames) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(name + "#" + i), name);
+            }
+        }
+        this.peerCount = new HashSet<>(peerNames).size();
+    }
+
+    // at most count distinct peers responsible for the key, the excluded one is skipped
+    public List<String> getOwners(String key, int count, String excluded) {
+        List<String> owners = new ArrayList<>(count);
+        int wanted = Math.min(count, peerCount - (excluded != null && ring.containsValue(excluded) ? 1 : 0));
+        if (wanted <= 0)
+            return owners;
+
+        // walk clockwise from the key, wrapping around once
+        long start = hash(key);
+        for (var map : List.of(ring.tailMap(start, true), ring.headMap(start, false))) {
+            for (String name : map.values()) {
+                if (!name.equals(excluded) && !owners.contains(name)) {
+                    owners.add(name);
+                    if (owners.size() == wanted)
+                        return owners;
+                }
+            }
+        }
+        return owners;
+    }
+
+    // ring key of a backed up file
+    public static String keyOf(String ownerName, String fileName) {
+        return ownerName + "/" + fileName;
+    }
+
+    private static long hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package backupsystem.placement;
+
+import backupsystem.datastructures.FileVersion;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+// Restores the replication factor after membership changes: for every copy this peer holds,
+// the ring placement before and after the change is compared and the copy is pushed only
+// to the peers that became owners. Changes are handled one at a time, in background;
+// failed copies are tried again later, as long as the target is still an owner.
+public class ReplicaRebalancer {
+    private static final int MAX_ATTEMPTS = 5;
+    // doubled at every attempt
+    private static final long FIRST_RETRY_DELAY_MILLIS = 2000;
+
+    private final String selfName;
+    private final IntSupplier replicationFactor;
+    private final Transport transport;
+    private final ScheduledExecutorService executor;
+    // members after the last change, retries check the placement against them
+    private volatile Set<String> members;
+
+    // storage and remote calls used by the rebalancer, implemented by the peer
+    public interface Transport {
+        Map<String,String[]> storedFiles() throws IOException;
+        FileVersion localVersion(String ownerName, String fileName) throws IOException;
+        FileVersion remoteVersion(String target, String ownerName, String fileName) throws Exception;
+        void push(String target, String ownerName, String fileName) throws Exception;
+    }
+
+    public ReplicaRebalancer(String selfName, IntSupplier replicationFactor, Transport transport) {
+        this.selfName = selfName;
+        this.replicationFactor = replicationFactor;
+        this.transport = transport;
+        this.members = Set.of();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rebalance-" + selfName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void membershipChanged(Set<String> before, Set<String> after) {
+        if (before.equals(after))
+            return;
+
+        Set<String> oldMembers = Set.copyOf(before);
+        Set<String> newMembers = Set.copyOf(after);
+        members = newMembers;
+        executor.execute(() -> {
+            try {
+                rebalance(oldMembers, newMembers);
+            } catch (Exception e) {
+                System.err.println("Error in re-replication: " + e.getMessage());
+            }
+        });
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private void rebalance(Set<String> before, Set<String> after) throws IOException {
+        ConsistentHashRing oldRing = new ConsistentHashRing(before);
+        ConsistentHashRing newRing = new ConsistentHashRing(after);
+        int factor = replicationFactor.getAsInt();
+
+        for (var entry : transport.storedFiles().entrySet()) {
+            String ownerName = entry.getKey();
+            // copies of peers that left can no longer be recovered by anyone
+            if (!after.contains(ownerName))
+                continue;
+
+            for (String fileName : entry.getValue()) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+
+                String key = ConsistentHashRing.keyOf(ownerName, fileName);
+                List<String> oldOwners = oldRing.getOwners(key, factor, ownerName);
+                List<String> newOwners = newRing.getOwners(key, factor, ownerName);
+                if (new HashSet<>(oldOwners).equals(new HashSet<>(newOwners)) || !isResponsible(oldOwners, newOwners))
+                    continue;
+
+                for (String target : newOwners) {
+                    if (!target.equals(selfName) && !oldOwners.contains(target))
+                        copy(target, ownerName, fileName, 1);
+                }
+            }
+        }
+    }
+
+    // peers accept copies only from the current holders: the first old owner that is still one pushes,
+    // every holder that is one does if none is left
+    private boolean isResponsible(List<String> oldOwners, List<String> newOwners) {
+        for (String owner : oldOwners) {
+            if (newOwners.contains(owner))
+                return owner.equals(selfName);
+        }
+        return newOwners.contains(selfName);
+    }
+
+    private void copy(String target, String ownerName, String fileName, int attempt) {
+        try {
+            FileVersion local = transport.localVersion(ownerName, fileName);
+            if (local == null)
+                return;
+            // the target may already have it, from the owner or from another holder
+            FileVersion remote = transport.remoteVersion(target, ownerName, fileName);
+            if (remote != null && (!local.isNewerThan(remote) || local.isSameContent(remote)))
+                return;
+
+            transport.push(target, ownerName, fileName);
+            System.out.println("Re-replicated " + fileName + " of " + ownerName + " on " + target);
+        } catch (Exception e) {
+            if (attempt >= MAX_ATTEMPTS || executor.isShutdown()) {
+                System.err.println("Cannot re-replicate " + fileName + " of " + ownerName + " on " + target + ": " + e.getMessage());
+                return;
+            }
+            long delay = FIRST_RETRY_DELAY_MILLIS << (attempt - 1);
+            System.err.println("Cannot re-replicate " + fileName + " of " + ownerName + " on " + target + ", retrying in " + delay + " ms: " + e.getMessage());
+            try {
+                executor.schedule(() -> retry(target, ownerName, fileName, attempt + 1), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException stopped) {
+                // the rebalancer was stopped meanwhile
+            }
+        }
+    }
+
+    // membership may have changed since the failure: the copy is pushed only if the target is still an owner
+    private void retry(String target, String ownerName, String fileName, int attempt) {
+        Set<String> current = members;
+        if (!current.contains(ownerName) || !current.contains(target))
+            return;
+        String key = ConsistentHashRing.keyOf(ownerName, fileName);
+        if (new ConsistentHashRing(current).getOwners(key, replicationFactor.getAsInt(), ownerName).contains(target))
+            copy(target, ownerName, fileName, attempt);
+    }
+}
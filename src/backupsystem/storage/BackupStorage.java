@@ -0,0 +1,545 @@
+package backupsystem.storage;
+
+import backupsystem.datastructures.FileManifest;
+import backupsystem.datastructures.FileVersion;
+import backupsystem.datastructures.PackedFile;
+import backupsystem.datastructures.ShardInfo;
+import backupsystem.exceptions.SupersededBackupException;
+import backupsystem.io.FileSliceReader;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Files of other peers stored on this peer, either as full copies, as manifests of deduplicated chunks
+// or as erasure coded shards. What is stored is recorded in the catalog, so listings and version
+// queries never scan the directories. Data is written to temporary files without any lock; only moving
+// a file into place and recording it in the catalog is serialized, per (owner, file) stripe.
+public class BackupStorage implements Closeable {
+    private static final String BACKUP_DIR = "backups_of_other_peers";
+    private static final String MANIFEST_DIR = "manifests";
+    private static final String CHUNK_DIR = "chunk_store";
+    private static final String SHARD_DIR = "shards";
+    private static final String CATALOG_FILE = "catalog.log";
+    private static final int LOCK_STRIPES = 256;
+    private static final int HASH_SLICE_SIZE = 1024 * 1024;
+
+    private final Path root;
+    private final ChunkStore chunkStore;
+    private final Catalog catalog;
+    private final LockStripes locks;
+    // blocks served by read, null when disabled
+    private volatile BlockCache blockCache;
+
+    @FunctionalInterface
+    public interface DeletionThrottle {
+        void beforeDelete(Path file) throws IOException;
+    }
+
+    public BackupStorage(Path root) throws IOException {
+        this.root = root;
+        this.chunkStore = new ChunkStore(root.resolve(CHUNK_DIR));
+        this.catalog = new Catalog(root.resolve(CATALOG_FILE));
+        this.locks = new LockStripes(LOCK_STRIPES);
+        this.blockCache = null;
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    public ChunkStore getChunkStore() {
+        return chunkStore;
+    }
+
+    public BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    /*
+     * ----------- Setters -----------
+     */
+
+    public void setBlockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+    }
+
+    // null if nothing is stored for the owner under that name
+    public CatalogEntry getEntry(String ownerName, String fileName) {
+        return catalog.get(ownerName, new File(fileName).getName());
+    }
+
+    public boolean isFullCopy(String ownerName, String fileName) {
+        CatalogEntry entry = getEntry(ownerName, fileName);
+        return entry != null && entry.getKind() == CatalogEntry.Kind.FULL;
+    }
+
+    public Path getBackupPath(String ownerName, String fileName) {
+        return root.resolve(BACKUP_DIR).resolve(ownerName).resolve(new File(fileName).getName());
+    }
+
+    public Path getManifestPath(String ownerName, String fileName) {
+        return root.resolve(MANIFEST_DIR).resolve(ownerName).resolve(new File(fileName).getName());
+    }
+
+    public Path getShardPath(String ownerName, String fileName) {
+        return root.resolve(SHARD_DIR).resolve(ownerName).resolve(new File(fileName).getName());
+    }
+
+    /*
+     * ----------- Storage methods -----------
+     */
+
+    // moves a completely written temporary file into place as a full copy, replacing any deduplicated
+    // or erasure coded version of the same file; fails if a backup with a greater stamp is already stored
+    public void commitFullCopy(String ownerName, String fileName, Path tempPath, long stamp) throws IOException {
+        // hashing reads the whole file, so it is done before taking the lock
+        String contentHash = hashFile(tempPath);
+        ReentrantLock lock = locks.get(ownerName, new File(fileName).getName());
+        lock.lock();
+        try {
+            checkNotSuperseded(ownerName, fileName, stamp);
+            installFullCopy(ownerName, fileName, tempPath, contentHash, stamp, System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // moves a file rebuilt from a delta into place, only if it has the content hash computed by the owner
+    // and the copy it was built on is still the stored one; the delta is rejected otherwise
+    public void commitDelta(String ownerName, String fileName, Path tempPath, long stamp, long baseVersion, long baseStamp, String expectedHash) throws IOException {
+        String contentHash = hashFile(tempPath);
+        if (!contentHash.equals(expectedHash))
+            throw new IOException("The delta of " + new File(fileName).getName() + " does not rebuild the owner's file");
+
+        ReentrantLock lock = locks.get(ownerName, new File(fileName).getName());
+        lock.lock();
+        try {
+            checkNotSuperseded(ownerName, fileName, stamp);
+            if (!isStoredVersion(ownerName, fileName, baseVersion, baseStamp))
+                throw new IOException("The stored copy of " + new File(fileName).getName() + " changed while the delta was applied");
+            installFullCopy(ownerName, fileName, tempPath, contentHash, stamp, System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // stores a copy moved from another peer with the stamp and time of the original backup, only if the copy
+    // held here is older; otherwise the temporary file is deleted and false is returned.
+    // Check and replacement are atomic, so a newer backup is never overwritten.
+    public boolean commitReplica(String ownerName, String fileName, Path tempPath, FileVersion version) throws IOException {
+        String contentHash = hashFile(tempPath);
+        ReentrantLock lock = locks.get(ownerName, new File(fileName).getName());
+        lock.lock();
+        try {
+            // shards count too, the copy must be newer than whatever is stored
+            CatalogEntry current = getEntry(ownerName, fileName);
+            if (current != null && !version.isNewerThan(toVersion(current))) {
+                Files.deleteIfExists(tempPath);
+                return false;
+            }
+            installFullCopy(ownerName, fileName, tempPath, contentHash, version.getStamp(), version.getLastModified());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // stores many small files of the same backup as full copies, the catalog is written once for the whole batch;
+    // returns the error of each file, null for the stored ones
+    public String[] storeFullCopies(String ownerName, List<PackedFile> files, long stamp, Path tempDir) throws IOException {
+        String[] errors = new String[files.size()];
+        Path[] tempPaths = new Path[files.size()];
+        Files.createDirectories(tempDir);
+
+        // the data is written and forced without holding any lock
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                tempPaths[i] = Files.createTempFile(tempDir, "batch", ".part");
+                try (FileChannel channel = FileChannel.open(tempPaths[i], StandardOpenOption.WRITE)) {
+                    ByteBuffer data = ByteBuffer.wrap(files.get(i).getData());
+                    while (data.hasRemaining()) {
+                        channel.write(data);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                errors[i] = e.getMessage();
+            }
+        }
+
+        // then all the files of the batch are moved into place and recorded under their locks
+        List<CatalogEntry> stored = new ArrayList<>();
+        List<String> replaced = new ArrayList<>();
+        List<ReentrantLock> batchLocks = locks.getAll(ownerName, files.stream().map(f -> new File(f.getFileName()).getName()).toList());
+        batchLocks.forEach(ReentrantLock::lock);
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                if (errors[i] != null)
+                    continue;
+                PackedFile file = files.get(i);
+                try {
+                    checkNotSuperseded(ownerName, file.getFileName(), stamp);
+                    Path backupPath = getBackupPath(ownerName, file.getFileName());
+                    Files.createDirectories(backupPath.getParent());
+                    Files.move(tempPaths[i], backupPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    stored.add(new CatalogEntry(ownerName, backupPath.getFileName().toString(), CatalogEntry.Kind.FULL, file.getData().length,
+                            ChunkStore.hash(file.getData(), 0, file.getData().length), 0, stamp, System.currentTimeMillis()));
+                    replaced.add(file.getFileName());
+                } catch (IOException e) {
+                    errors[i] = e.getMessage();
+                }
+            }
+
+            catalog.putAll(stored);
+            for (CatalogEntry entry : stored)
+                invalidate(ownerName, entry.getFileName());
+            for (String fileName : replaced) {
+                Files.deleteIfExists(getManifestPath(ownerName, fileName));
+                Files.deleteIfExists(getShardPath(ownerName, fileName));
+            }
+        } finally {
+            batchLocks.forEach(ReentrantLock::unlock);
+            for (Path tempPath : tempPaths) {
+                if (tempPath != null)
+                    Files.deleteIfExists(tempPath);
+            }
+        }
+        return errors;
+    }
+
+    // moves a received shard into place, a peer keeps at most one shard per file and it replaces any other version
+    public void commitShard(String ownerName, String fileName, Path tempPath, long stamp) throws IOException {
+        String contentHash = hashFile(tempPath);
+        ReentrantLock lock = locks.get(ownerName, new File(fileName).getName());
+        lock.lock();
+        try {
+            checkNotSuperseded(ownerName, fileName, stamp);
+            Path shardPath = getShardPath(ownerName, fileName);
+            Files.createDirectories(shardPath.getParent());
+            Files.move(tempPath, shardPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            catalog.put(ownerName, shardPath.getFileName().toString(), CatalogEntry.Kind.SHARD, Files.size(shardPath), contentHash, stamp, System.currentTimeMillis());
+            invalidate(ownerName, shardPath.getFileName().toString());
+
+            Files.deleteIfExists(getBackupPath(ownerName, fileName));
+            Files.deleteIfExists(getManifestPath(ownerName, fileName));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // a manifest replaces any full copy of the same file, all its chunks must already be stored
+    public void storeManifest(String ownerName, FileManifest manifest, long stamp) throws IOException {
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            if (!chunkStore.contains(manifest.getChunkHash(i)))
+                throw new IOException("Missing chunk " + manifest.getChunkHash(i) + " of " + manifest.getFileName());
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < manifest.getChunkCount(); i++) {
+            lines.add(manifest.getChunkHash(i) + " " + manifest.getChunkLength(i));
+        }
+
+        // every writer has its own temporary file, only the move into place is serialized
+        Path manifestPath = getManifestPath(ownerName, manifest.getFileName());
+        Files.createDirectories(manifestPath.getParent());
+        Path tempPath = Files.createTempFile(manifestPath.getParent(), manifestPath.getFileName().toString(), ".part");
+
+        // chunk hashes identify the content, so the hash of the list identifies the file
+        byte[] chunkList = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+        String contentHash = ChunkStore.hash(chunkList, 0, chunkList.length);
+
+        ReentrantLock lock = locks.get(ownerName, manifestPath.getFileName().toString());
+        try {
+            Files.write(tempPath, lines);
+            lock.lock();
+            try {
+                checkNotSuperseded(ownerName, manifest.getFileName(), stamp);
+                Files.move(tempPath, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                catalog.put(ownerName, manifestPath.getFileName().toString(), CatalogEntry.Kind.MANIFEST, manifest.getSize(), contentHash, stamp, System.currentTimeMillis());
+                invalidate(ownerName, manifestPath.getFileName().toString());
+
+                Files.deleteIfExists(getBackupPath(ownerName, manifest.getFileName()));
+                Files.deleteIfExists(getShardPath(ownerName, manifest.getFileName()));
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    // returns null if the owner has no copy of the file on this peer
+    public FileManifest readManifest(String ownerName, String fileName) throws IOException {
+        CatalogEntry entry = getEntry(ownerName, fileName);
+        if (entry == null || entry.getKind() != CatalogEntry.Kind.MANIFEST)
+            return null;
+
+        Path manifestPath = getManifestPath(ownerName, fileName);
+        List<String> lines = Files.readAllLines(manifestPath);
+        String[] hashes = new String[lines.size()];
+        int[] lengths = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            String[] fields = lines.get(i).split(" ");
+            hashes[i] = fields[0];
+            lengths[i] = Integer.parseInt(fields[1]);
+        }
+
+        return new FileManifest(new File(fileName).getName(), hashes, lengths);
+    }
+
+    // returns null if the owner has no shard of the file on this peer
+    public ShardInfo readShardInfo(String ownerName, String fileName) throws IOException {
+        CatalogEntry entry = getEntry(ownerName, fileName);
+        if (entry == null || entry.getKind() != CatalogEntry.Kind.SHARD)
+            return null;
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(getShardPath(ownerName, fileName)))) {
+            return ShardInfo.readFrom(new File(fileName).getName(), in);
+        }
+    }
+
+    // reads shard data, offset 0 is the first byte after the header
+    public byte[] readShard(String ownerName, String fileName, long offset, int length) throws IOException {
+        Path shardPath = getShardPath(ownerName, fileName);
+        if (readShardInfo(ownerName, fileName) == null)
+            throw new FileNotFoundException("No shard of " + fileName + " for " + ownerName);
+
+        try (FileChannel channel = FileChannel.open(shardPath, StandardOpenOption.READ)) {
+            long position = ShardInfo.HEADER_SIZE + offset;
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - position)));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0)
+                    break;
+            }
+            return buffer.position() == buffer.capacity() ? buffer.array() : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    // answered from the catalog, null if there is no full or deduplicated copy
+    public FileVersion getVersion(String ownerName, String fileName) {
+        CatalogEntry entry = getEntry(ownerName, fileName);
+        if (entry == null || entry.getKind() == CatalogEntry.Kind.SHARD)
+            return null;
+
+        return toVersion(entry);
+    }
+
+    // true if the full or deduplicated copy stored for the file is still the given one
+    public boolean isStoredVersion(String ownerName, String fileName, long version, long stamp) {
+        FileVersion current = getVersion(ownerName, fileName);
+        return current != null && current.getVersion() == version && current.getStamp() == stamp;
+    }
+
+    // reads at most length bytes starting at offset, fewer only at the end of the file
+    public byte[] read(String ownerName, String fileName, long offset, int length) throws IOException {
+        BlockCache cache = blockCache;
+        CatalogEntry entry = getEntry(ownerName, fileName);
+        if (cache == null || entry == null || entry.getKind() == CatalogEntry.Kind.SHARD)
+            return readStored(ownerName, fileName, offset, length);
+
+        long end = Math.min(entry.getSize(), offset + length);
+        if (offset >= end)
+            return new byte[0];
+
+        // a range that is exactly one block is the cached block itself, others are copied out of the blocks
+        long firstBlock = offset / BlockCache.BLOCK_SIZE;
+        long lastBlock = (end - 1) / BlockCache.BLOCK_SIZE;
+        if (firstBlock == lastBlock && offset == firstBlock * BlockCache.BLOCK_SIZE
+                && end == Math.min(entry.getSize(), offset + BlockCache.BLOCK_SIZE)) {
+            return readBlock(cache, entry, firstBlock);
+        }
+
+        byte[] data = new byte[(int) (end - offset)];
+        int copied = 0;
+        for (long i = firstBlock; i <= lastBlock; i++) {
+            byte[] block = readBlock(cache, entry, i);
+            int start = (int) Math.max(0, offset + copied - i * BlockCache.BLOCK_SIZE);
+            int n = Math.min(block.length - start, data.length - copied);
+            // the file got shorter than its entry
+            if (n <= 0)
+                return Arrays.copyOf(data, copied);
+            System.arraycopy(block, start, data, copied, n);
+            copied += n;
+        }
+        return copied == data.length ? data : Arrays.copyOf(data, copied);
+    }
+
+    // sequential stream over the stored copy, null if the owner has no copy of the file on this peer
+    public InputStream openInputStream(String ownerName, String fileName) throws IOException {
+        if (isFullCopy(ownerName, fileName))
+            return Files.newInputStream(getBackupPath(ownerName, fileName));
+
+        FileManifest manifest = readManifest(ownerName, fileName);
+        if (manifest == null)
+            return null;
+
+        // chunks are opened one at a time while the stream is read
+        return new SequenceInputStream(new Enumeration<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < manifest.getChunkCount();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return chunkStore.openInputStream(manifest.getChunkHash(next++));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    // file names of the owner, whatever the way they are stored
+    public String[] list(String ownerName) {
+        return catalog.getFileNames(ownerName);
+    }
+
+    // versions of all the full and deduplicated copies of the owner
+    public FileVersion[] listVersions(String ownerName) {
+        List<FileVersion> versions = new ArrayList<>();
+        for (String fileName : catalog.getFileNames(ownerName)) {
+            FileVersion version = getVersion(ownerName, fileName);
+            if (version != null)
+                versions.add(version);
+        }
+        return versions.toArray(new FileVersion[0]);
+    }
+
+    // size of the files of the owner; deduplicated copies count their whole size, their chunks may be shared
+    public long getStoredBytes(String ownerName) {
+        long bytes = 0;
+        for (String fileName : catalog.getFileNames(ownerName)) {
+            CatalogEntry entry = catalog.get(ownerName, fileName);
+            if (entry != null)
+                bytes += entry.getSize();
+        }
+        return bytes;
+    }
+
+    // names of the peers that have at least one file stored here
+    public String[] listOwners() {
+        return catalog.getOwnerNames();
+    }
+
+    // deletes all the backups of other peers held by this peer
+    // the throttle is asked before each file is deleted, so a mass deletion can run as background work
+    public void deleteAll(DeletionThrottle throttle) throws IOException {
+        catalog.clear();
+        BlockCache cache = blockCache;
+        if (cache != null)
+            cache.invalidateAll();
+        for (Path dir : new Path[]{ root.resolve(BACKUP_DIR), root.resolve(MANIFEST_DIR), root.resolve(SHARD_DIR) }) {
+            if (Files.exists(dir)) {
+                try (var stream = Files.walk(dir)) {
+                    for (Path p : stream.filter(Files::isRegularFile).toList()) {
+                        throttle.beforeDelete(p);
+                        Files.delete(p);
+                    }
+                }
+            }
+        }
+        chunkStore.deleteAll(throttle);
+    }
+
+    @Override
+    public void close() throws IOException {
+        catalog.close();
+    }
+
+    private byte[] readStored(String ownerName, String fileName, long offset, int length) throws IOException {
+        if (isFullCopy(ownerName, fileName))
+            return FileSliceReader.read(getBackupPath(ownerName, fileName), offset, length);
+
+        FileManifest manifest = readManifest(ownerName, fileName);
+        if (manifest == null)
+            throw new FileNotFoundException("No backup of " + fileName + " for " + ownerName);
+
+        // concatenate the chunks overlapping the requested range
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, manifest.getSize() - offset)));
+        for (int i = manifest.findChunk(offset); buffer.hasRemaining(); i++) {
+            byte[] chunk = chunkStore.get(manifest.getChunkHash(i));
+            int start = (int) Math.max(0, offset + buffer.position() - manifest.getChunkOffset(i));
+            buffer.put(chunk, start, Math.min(chunk.length - start, buffer.remaining()));
+        }
+        return buffer.array();
+    }
+
+    // the block from the cache or from the stored copy; a block read while a new version was installed
+    // is returned but not cached, it may belong to either version
+    private byte[] readBlock(BlockCache cache, CatalogEntry entry, long blockIndex) throws IOException {
+        BlockCache.BlockKey key = new BlockCache.BlockKey(entry.getOwnerName(), entry.getFileName(), entry.getVersion(), entry.getStamp(), blockIndex);
+        byte[] block = cache.get(key);
+        if (block != null)
+            return block;
+
+        block = readStored(entry.getOwnerName(), entry.getFileName(), blockIndex * BlockCache.BLOCK_SIZE, BlockCache.BLOCK_SIZE);
+        if (getEntry(entry.getOwnerName(), entry.getFileName()) == entry)
+            cache.put(key, block);
+        return block;
+    }
+
+    private void invalidate(String ownerName, String fileName) {
+        BlockCache cache = blockCache;
+        if (cache != null)
+            cache.invalidate(ownerName, fileName);
+    }
+
+    // the new copy is moved in and recorded before the older versions are deleted,
+    // so a reader following the catalog always finds the file it points to; the lock must be held
+    private void installFullCopy(String ownerName, String fileName, Path tempPath, String contentHash, long stamp, long timestamp) throws IOException {
+        Path backupPath = getBackupPath(ownerName, fileName);
+        Files.createDirectories(backupPath.getParent());
+        Files.move(tempPath, backupPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        catalog.put(ownerName, backupPath.getFileName().toString(), CatalogEntry.Kind.FULL, Files.size(backupPath), contentHash, stamp, timestamp);
+        invalidate(ownerName, backupPath.getFileName().toString());
+
+        Files.deleteIfExists(getManifestPath(ownerName, fileName));
+        Files.deleteIfExists(getShardPath(ownerName, fileName));
+    }
+
+    private static FileVersion toVersion(CatalogEntry entry) {
+        return new FileVersion(entry.getFileName(), entry.getSize(), entry.getTimestamp(), entry.getVersion(), entry.getContentHash(), entry.getStamp());
+    }
+
+    // a backup that arrives after a later one of the same file, over a slower connection, must not replace it;
+    // the lock must be held
+    private void checkNotSuperseded(String ownerName, String fileName, long stamp) throws IOException {
+        CatalogEntry current = getEntry(ownerName, fileName);
+        if (current != null && current.getStamp() > stamp)
+            throw new SupersededBackupException("A later backup of " + new File(fileName).getName() + " is already stored");
+    }
+
+    private static String hashFile(Path path) throws IOException {
+        try (FileSliceReader reader = FileSliceReader.open(path, 0, Long.MAX_VALUE, HASH_SLICE_SIZE)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer slice;
+            while ((slice = reader.next()) != null)
+                digest.update(slice);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package backupsystem.storage;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Blocks of stored copies recently served to their owners, so that a mass restore reading the same files
+// from many peers hits the disk and the chunk store once. Bounded in bytes, on the heap or in direct memory.
+// A block is keyed by the version of the copy it was read from, a new version of a file never finds the old blocks;
+// they are dropped anyway when the file changes, to give the space back.
+//
+// LRU evicts the least recently used blocks. TINY_LFU is W-TinyLFU: new blocks enter a small LRU window,
+// then are admitted to the main space only if they were asked more often than the block they would evict,
+// so one large restore read once does not flush the files that everybody asks for.
+public class BlockCache {
+    public enum Policy { LRU, TINY_LFU }
+
+    public record BlockKey(String ownerName, String fileName, long version, long stamp, long blockIndex) {}
+
+    private record FileKey(String ownerName, String fileName) {}
+
+    // files are cached in aligned blocks, a small file is a single block of its size
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    private static final double WINDOW_FRACTION = 0.01;
+    private static final double PROTECTED_FRACTION = 0.8;
+
+    private final long capacity;
+    private final Policy policy;
+    private final boolean offHeap;
+    private final ReentrantLock lock;
+    private final Map<BlockKey,Node> nodes;
+    private final Map<FileKey,Set<BlockKey>> blocksByFile;
+    // the only segment with LRU; window, probation and protected with TINY_LFU
+    private final Segment window;
+    private final Segment probation;
+    private final Segment protectedSegment;
+    private final FrequencySketch sketch;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    private final LongAdder rejections;
+
+    private static class Node {
+        private final BlockKey key;
+        private final ByteBuffer data;
+        private Segment segment;
+        private Node previous;
+        private Node next;
+
+        private Node(BlockKey key, ByteBuffer data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        private int size() {
+            return data.capacity();
+        }
+    }
+
+    // a list from the least to the most recently used, with the bytes it holds
+    private static class Segment {
+        private final long capacity;
+        private Node head;
+        private Node tail;
+        private long bytes;
+
+        private Segment(long capacity) {
+            this.capacity = capacity;
+        }
+
+        private void addLast(Node node) {
+            node.segment = this;
+            node.previous = tail;
+            node.next = null;
+            if (tail != null)
+                tail.next = node;
+            else
+                head = node;
+            tail = node;
+            bytes += node.size();
+        }
+
+        private void remove(Node node) {
+            if (node.previous != null)
+                node.previous.next = node.next;
+            else
+                head = node.next;
+            if (node.next != null)
+                node.next.previous = node.previous;
+            else
+                tail = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.segment = null;
+            bytes -= node.size();
+        }
+
+        private void moveToLast(Node node) {
+            remove(node);
+            addLast(node);
+        }
+
+        private boolean isOverCapacity() {
+            return bytes > capacity;
+        }
+    }
+
+    // a capacity of 0 or less disables the cache
+    public BlockCache(long capacity, Policy policy, boolean offHeap) {
+        this.capacity = Math.max(0, capacity);
+        this.policy = policy;
+        this.offHeap = offHeap;
+        this.lock = new ReentrantLock();
+        this.nodes = new HashMap<>();
+        this.blocksByFile = new HashMap<>();
+        if (policy == Policy.TINY_LFU) {
+            // the window holds at least one whole block, except in tiny caches
+            long windowCapacity = Math.min(this.capacity / 2, Math.max((long) (this.capacity * WINDOW_FRACTION), BLOCK_SIZE));
+            long mainCapacity = this.capacity - windowCapacity;
+            this.window = new Segment(windowCapacity);
+            this.probation = new Segment(mainCapacity);
+            this.protectedSegment = new Segment((long) (mainCapacity * PROTECTED_FRACTION));
+            // about one counter for each small block the cache can hold
+            this.sketch = new FrequencySketch((int) Math.min(1 << 16, Math.max(1024, this.capacity / (16 * 1024))));
+        } else {
+            this.window = null;
+            this.probation = new Segment(this.capacity);
+            this.protectedSegment = null;
+            this.sketch = null;
+        }
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.rejections = new LongAdder();
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    // blocks pushed out to make room, not counting the invalidated ones
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // new blocks that TINY_LFU did not admit, they were asked less often than the blocks they would replace
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getSize() {
+        lock.lock();
+        try {
+            return bytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getBlockCount() {
+        lock.lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * ----------- Cache methods -----------
+     */
+
+    // the block or null; on the heap the cached array itself is returned, it must not be modified
+    public byte[] get(BlockKey key) {
+        ByteBuffer data;
+        lock.lock();
+        try {
+            if (sketch != null)
+                sketch.increment(key.hashCode());
+            Node node = nodes.get(key);
+            if (node == null) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            onHit(node);
+            data = node.data;
+        } finally {
+            lock.unlock();
+        }
+
+        if (data.hasArray())
+            return data.array();
+        byte[] copy = new byte[data.capacity()];
+        data.get(0, copy);
+        return copy;
+    }
+
+    // keeps the block if it fits and the policy admits it; on the heap the array itself is kept, it must not be modified
+    public void put(BlockKey key, byte[] block) {
+        if (block.length > capacity || block.length == 0)
+            return;
+        ByteBuffer data = offHeap ? ByteBuffer.allocateDirect(block.length).put(0, block) : ByteBuffer.wrap(block);
+
+        lock.lock();
+        try {
+            if (nodes.containsKey(key))
+                return;
+            Node node = new Node(key, data);
+            nodes.put(key, node);
+            blocksByFile.computeIfAbsent(new FileKey(key.ownerName(), key.fileName()), k -> new HashSet<>()).add(key);
+            if (policy == Policy.LRU) {
+                probation.addLast(node);
+                while (probation.isOverCapacity())
+                    evict(probation.head);
+            } else {
+                window.addLast(node);
+                // window blocks that fall out compete for the main space
+                while (window.isOverCapacity() && window.head != null)
+                    admit(window.head);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // drops every block of the file, whatever its version
+    public void invalidate(String ownerName, String fileName) {
+        lock.lock();
+        try {
+            Set<BlockKey> keys = blocksByFile.remove(new FileKey(ownerName, fileName));
+            if (keys != null) {
+                for (BlockKey key : keys)
+                    unlink(nodes.remove(key));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            for (Node node : nodes.values())
+                unlink(node);
+            nodes.clear();
+            blocksByFile.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    private void onHit(Node node) {
+        if (node.segment == probation && protectedSegment != null) {
+            // asked again, promoted; the protected blocks that do not fit go back to probation
+            probation.remove(node);
+            protectedSegment.addLast(node);
+            while (protectedSegment.isOverCapacity()) {
+                Node demoted = protectedSegment.head;
+                protectedSegment.remove(demoted);
+                probation.addLast(demoted);
+            }
+        } else {
+            node.segment.moveToLast(node);
+        }
+    }
+
+    // size aware admission: the candidate replaces the least recently used blocks of the main space
+    // only while it is more frequent than each of them
+    private void admit(Node candidate) {
+        window.remove(candidate);
+        long mainCapacity = probation.capacity;
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode());
+
+        while (probation.bytes + protectedSegment.bytes + candidate.size() > mainCapacity) {
+            Node victim = probation.head != null ? probation.head : protectedSegment.head;
+            if (victim == null || sketch.frequency(victim.key.hashCode()) >= candidateFrequency) {
+                rejections.increment();
+                drop(candidate);
+                return;
+            }
+            evict(victim);
+        }
+        probation.addLast(candidate);
+    }
+
+    private void evict(Node node) {
+        evictions.increment();
+        unlink(node);
+        drop(node);
+    }
+
+    // removes a node that is no longer in a segment from the indexes
+    private void drop(Node node) {
+        nodes.remove(node.key);
+        FileKey fileKey = new FileKey(node.key.ownerName(), node.key.fileName());
+        Set<BlockKey> keys = blocksByFile.get(fileKey);
+        if (keys != null) {
+            keys.remove(node.key);
+            if (keys.isEmpty())
+                blocksByFile.remove(fileKey);
+        }
+    }
+
+    private static void unlink(Node node) {
+        if (node != null && node.segment != null)
+            node.segment.remove(node);
+    }
+
+    private long bytes() {
+        return probation.bytes + (window != null ? window.bytes + protectedSegment.bytes : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.storage.BlockCache{" +
+                "capacity=" + capacity +
+                ", policy=" + policy +
+                ", offHeap=" + offHeap +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                '}';
+    }
+
+    // approximate access counts in 4 rows of saturating counters (count-min sketch); all the counts are halved
+    // after a number of accesses, so that blocks popular long ago do not stay in the cache forever
+    private static class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int accesses;
+
+        private FrequencySketch(int width) {
+            int size = Integer.highestOneBit(Math.max(16, width - 1) << 1);
+            this.counters = new byte[ROWS][size];
+            this.mask = size - 1;
+            this.sampleSize = 10 * size;
+            this.accesses = 0;
+        }
+
+        private void increment(int hash) {
+            for (int row = 0; row < ROWS; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT)
+                    counters[row][index]++;
+            }
+            if (++accesses >= sampleSize)
+                age();
+        }
+
+        private int frequency(int hash) {
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < ROWS; row++)
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            return frequency;
+        }
+
+        private void age() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++)
+                    row[i] >>= 1;
+            }
+            accesses /= 2;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package backupsystem.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+// Append-only catalog of the files stored for other peers, with the whole index in memory.
+// Every change is a record [length, crc32, payload] appended to the log and forced to disk;
+// at startup the log is replayed and a torn or corrupted tail, left by a crash, is cut off.
+// Files are only ever replaced by a newer version or all dropped at once, so the records are puts and clears;
+// when most records are stale the log is rewritten with only the live entries.
+public class Catalog implements Closeable {
+    private static final byte PUT = 1;
+    private static final byte CLEAR = 3;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final Path logPath;
+    private final Map<String,Map<String,CatalogEntry>> entries;
+    private FileChannel log;
+    private int records;
+    private int liveEntries;
+
+    public Catalog(Path logPath) throws IOException {
+        this.logPath = logPath;
+        this.entries = new ConcurrentHashMap<>();
+        Files.createDirectories(logPath.getParent());
+        this.log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+    }
+
+    /*
+     * ----------- Queries -----------
+     */
+
+    public CatalogEntry get(String ownerName, String fileName) {
+        Map<String,CatalogEntry> files = entries.get(ownerName);
+        return files == null ? null : files.get(fileName);
+    }
+
+    public String[] getFileNames(String ownerName) {
+        Map<String,CatalogEntry> files = entries.get(ownerName);
+        return files == null ? new String[0] : new TreeSet<>(files.keySet()).toArray(new String[0]);
+    }
+
+    public String[] getOwnerNames() {
+        TreeSet<String> owners = new TreeSet<>();
+        for (var owner : entries.entrySet()) {
+            if (!owner.getValue().isEmpty())
+                owners.add(owner.getKey());
+        }
+        return owners.toArray(new String[0]);
+    }
+
+    /*
+     * ----------- Updates -----------
+     */
+
+    // records a new version of the file, returns the stored entry
+    public synchronized CatalogEntry put(String ownerName, String fileName, CatalogEntry.Kind kind, long size, String contentHash, long stamp, long timestamp) throws IOException {
+        return putAll(List.of(new CatalogEntry(ownerName, fileName, kind, size, contentHash, 0, stamp, timestamp))).get(0);
+    }
+
+    // records many files with a single write to disk, the versions of the given entries are ignored
+    public synchronized List<CatalogEntry> putAll(List<CatalogEntry> updates) throws IOException {
+        List<CatalogEntry> stored = new ArrayList<>(updates.size());
+        Map<String,CatalogEntry> latest = new HashMap<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+        for (CatalogEntry update : updates) {
+            String key = update.getOwnerName() + "/" + update.getFileName();
+            CatalogEntry previous = latest.containsKey(key) ? latest.get(key) : get(update.getOwnerName(), update.getFileName());
+            CatalogEntry entry = new CatalogEntry(update.getOwnerName(), update.getFileName(), update.getKind(), update.getSize(),
+                    update.getContentHash(), previous == null ? 1 : previous.getVersion() + 1, update.getStamp(), update.getTimestamp());
+            latest.put(key, entry);
+            stored.add(entry);
+            records.write(toRecord(encodePut(entry)).array());
+        }
+
+        write(ByteBuffer.wrap(records.toByteArray()), stored.size());
+        for (CatalogEntry entry : stored) {
+            apply(PUT, entry);
+        }
+        compactIfStale();
+        return stored;
+    }
+
+    public synchronized void clear() throws IOException {
+        append(encode(CLEAR, "", ""));
+        apply(CLEAR, null);
+        compactIfStale();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+    }
+
+    /*
+     * ----------- Log -----------
+     */
+
+    private void replay() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0;
+        long size = log.size();
+
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            if (length <= 0 || length > MAX_RECORD_SIZE || position + RECORD_HEADER_SIZE + length > size)
+                break;
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + RECORD_HEADER_SIZE);
+            if (crc32(payload.array()) != crc)
+                break;
+
+            decode(payload.array());
+            records++;
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        // drop whatever follows the last complete record
+        if (position < size) {
+            System.err.println("Catalog " + logPath + ": discarding " + (size - position) + " bytes after the last valid record");
+            log.truncate(position);
+            log.force(true);
+        }
+        log.position(position);
+        compactIfStale();
+    }
+
+    private void append(byte[] payload) throws IOException {
+        write(toRecord(payload), 1);
+    }
+
+    private void write(ByteBuffer data, int count) throws IOException {
+        while (data.hasRemaining()) {
+            log.write(data);
+        }
+        log.force(false);
+        records += count;
+    }
+
+    private void apply(byte type, CatalogEntry entry) {
+        switch (type) {
+            case PUT -> {
+                if (entries.computeIfAbsent(entry.getOwnerName(), o -> new ConcurrentHashMap<>()).put(entry.getFileName(), entry) == null)
+                    liveEntries++;
+            }
+            case CLEAR -> {
+                entries.clear();
+                liveEntries = 0;
+            }
+        }
+    }
+
+    // writes the live entries to a new log and replaces the old one, once most records are stale
+    private void compactIfStale() throws IOException {
+        if (records <= MIN_COMPACTION_RECORDS || records <= 2 * liveEntries)
+            return;
+
+        Path tempPath = logPath.resolveSibling(logPath.getFileName() + ".compact");
+        int written = 0;
+        try (FileChannel compacted = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map<String,CatalogEntry> files : entries.values()) {
+                for (CatalogEntry entry : files.values()) {
+                    ByteBuffer record = toRecord(encodePut(entry));
+                    while (record.hasRemaining()) {
+                        compacted.write(record);
+                    }
+                    written++;
+                }
+            }
+            compacted.force(true);
+        }
+
+        log.close();
+        Files.move(tempPath, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log.position(log.size());
+        records = written;
+    }
+
+    private void decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String ownerName = in.readUTF();
+        String fileName = in.readUTF();
+        if (type == PUT) {
+            CatalogEntry.Kind kind = CatalogEntry.Kind.values()[in.readByte()];
+            long size = in.readLong();
+            String contentHash = in.readUTF();
+            long version = in.readLong();
+            long timestamp = in.readLong();
+            // records written before stamps existed end here
+            long stamp = in.available() >= Long.BYTES ? in.readLong() : 0;
+            apply(PUT, new CatalogEntry(ownerName, fileName, kind, size, contentHash, version, stamp, timestamp));
+        } else {
+            apply(type, new CatalogEntry(ownerName, fileName, null, 0, null, 0, 0, 0));
+        }
+    }
+
+    private static byte[] encode(byte type, String ownerName, String fileName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeUTF(ownerName);
+        out.writeUTF(fileName);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodePut(CatalogEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PUT);
+        out.writeUTF(entry.getOwnerName());
+        out.writeUTF(entry.getFileName());
+        out.writeByte(entry.getKind().ordinal());
+        out.writeLong(entry.getSize());
+        out.writeUTF(entry.getContentHash());
+        out.writeLong(entry.getVersion());
+        out.writeLong(entry.getTimestamp());
+        out.writeLong(entry.getStamp());
+        return bytes.toByteArray();
+    }
+
+    private static ByteBuffer toRecord(byte[] payload) {
+        return ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length)
+                .putInt(payload.length)
+                .putInt(crc32(payload))
+                .put(payload)
+                .flip();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (log.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Catalog " + logPath + " ended while reading a record");
+        }
+    }
+
+    private static int crc32(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,63 @@
+package backupsystem.storage;
+
+// Catalog record of one file stored for another peer
+public class CatalogEntry {
+    public enum Kind { FULL, MANIFEST, SHARD }
+
+    private final String ownerName;
+    private final String fileName;
+    private final Kind kind;
+    private final long size;
+    private final String contentHash;
+    private final long version;
+    private final long stamp;
+    private final long timestamp;
+
+    public CatalogEntry(String ownerName, String fileName, Kind kind, long size, String contentHash, long version, long stamp, long timestamp) {
+        this.ownerName = ownerName;
+        this.fileName = fileName;
+        this.kind = kind;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.version = version;
+        this.stamp = stamp;
+        this.timestamp = timestamp;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    // size of the original file, for shards the size of the shard
+    public long getSize() {
+        return size;
+    }
+
+    // SHA-256 of what is stored: the bytes of a full copy or shard, the chunk list of a manifest
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    // incremented every time the owner's file is stored again on this peer
+    public long getVersion() {
+        return version;
+    }
+
+    // hybrid logical clock stamp of the backup, given by the owner; 0 for copies stored before stamps existed
+    public long getStamp() {
+        return stamp;
+    }
+
+    // time of the backup, kept when a copy is re-replicated
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,127 @@
+package backupsystem.storage;
+
+import backupsystem.compression.Codec;
+import backupsystem.compression.Codecs;
+import backupsystem.compression.CompressedBlock;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+// Content addressed store: each chunk is saved once, under the SHA-256 of its content.
+// Chunks are stored compressed, prefixed by the codec id and the uncompressed length.
+public class ChunkStore {
+    private static final int HEADER_SIZE = 5;
+
+    private final Path root;
+    private volatile Codec codec;
+
+    public ChunkStore(Path root) {
+        this.root = root;
+        this.codec = Codecs.LZ;
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public boolean contains(String hash) {
+        return Files.isRegularFile(getChunkPath(hash));
+    }
+
+    // stores the chunk if not already present and returns its hash
+    public String put(byte[] data) throws IOException {
+        return put(data, CompressedBlock.compress(codec, data, 0, data.length));
+    }
+
+    // stores a chunk received already compressed, without compressing it again
+    public String put(CompressedBlock block) throws IOException {
+        return put(block.decompress(), block);
+    }
+
+    private String put(byte[] data, CompressedBlock block) throws IOException {
+        String hash = hash(data, 0, data.length);
+        Path chunkPath = getChunkPath(hash);
+
+        if (!Files.exists(chunkPath)) {
+            Files.createDirectories(chunkPath.getParent());
+            Path tempPath = Files.createTempFile(chunkPath.getParent(), hash, ".part");
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .put(Codecs.byName(block.getCodecName()).getId())
+                    .putInt(block.getRawLength());
+            try (var out = Files.newOutputStream(tempPath)) {
+                out.write(header.array());
+                out.write(block.getData());
+            }
+            try {
+                Files.move(tempPath, chunkPath, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // stored concurrently by another upload
+                Files.deleteIfExists(tempPath);
+            }
+        }
+
+        return hash;
+    }
+
+    public byte[] get(String hash) throws IOException {
+        byte[] stored = Files.readAllBytes(getChunkPath(hash));
+        if (stored.length < HEADER_SIZE)
+            throw new IOException("Corrupted chunk " + hash);
+
+        ByteBuffer header = ByteBuffer.wrap(stored, 0, HEADER_SIZE);
+        Codec chunkCodec = Codecs.byId(header.get());
+        int rawLength = header.getInt();
+        return chunkCodec.decompress(Arrays.copyOfRange(stored, HEADER_SIZE, stored.length), rawLength);
+    }
+
+    public InputStream openInputStream(String hash) throws IOException {
+        return new ByteArrayInputStream(get(hash));
+    }
+
+    public void deleteAll(BackupStorage.DeletionThrottle throttle) throws IOException {
+        if (Files.exists(root)) {
+            try (var stream = Files.walk(root)) {
+                for (Path p : stream.filter(Files::isRegularFile).toList()) {
+                    throttle.beforeDelete(p);
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    /*
+     * ----------- Utility methods -----------
+     */
+
+    public static String hash(byte[] data, int offset, int length) {
+        MessageDigest digest = newDigest();
+        digest.update(data, offset, length);
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // the digest chunks and stored copies are named and checked with
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // chunks are spread in subdirectories named after the first byte of the hash
+    private Path getChunkPath(String hash) {
+        if (!hash.matches("[0-9a-f]{64}"))
+            throw new IllegalArgumentException("Invalid chunk hash: " + hash);
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+}
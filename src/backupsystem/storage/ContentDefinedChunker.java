@@ -0,0 +1,69 @@
+package backupsystem.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+// Splits a stream in chunks whose boundaries depend on the content (gear rolling hash),
+// so an insertion in a file only changes the chunks around it
+public class ContentDefinedChunker {
+    public static final int MIN_CHUNK_SIZE = 16 * 1024;
+    public static final int MAX_CHUNK_SIZE = 256 * 1024;
+    // 16 bits of the hash must be zero, so chunks are about 64 KB on average
+    private static final long BOUNDARY_MASK = 0xffffL << 48;
+    private static final int WINDOW_SIZE = 64;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // fixed seed, every peer must cut chunks at the same positions
+        SplittableRandom random = new SplittableRandom(0x6261636b7570L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer {
+        // data is reused for the next chunk, only the first length bytes are valid
+        void accept(byte[] data, int length) throws IOException;
+    }
+
+    public static void split(InputStream in, ChunkConsumer consumer) throws IOException {
+        byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        int filled = 0;
+        boolean eof = false;
+
+        while (true) {
+            // keep the buffer full, so a boundary can always be searched up to the max chunk size
+            while (!eof && filled < buffer.length) {
+                int n = in.read(buffer, filled, buffer.length - filled);
+                if (n < 0)
+                    eof = true;
+                else
+                    filled += n;
+            }
+            if (filled == 0)
+                return;
+
+            int cut = findBoundary(buffer, filled);
+            consumer.accept(buffer, cut);
+
+            System.arraycopy(buffer, cut, buffer, 0, filled - cut);
+            filled -= cut;
+        }
+    }
+
+    private static int findBoundary(byte[] buffer, int length) {
+        if (length <= MIN_CHUNK_SIZE)
+            return length;
+
+        long hash = 0;
+        // the hash only depends on the last 64 bytes, so hashing can start just before the minimum size
+        for (int i = MIN_CHUNK_SIZE - WINDOW_SIZE; i < length; i++) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+            if (i >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0)
+                return i + 1;
+        }
+        return length;
+    }
+}
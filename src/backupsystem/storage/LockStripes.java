@@ -0,0 +1,46 @@
+package backupsystem.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Fixed set of locks shared by all the (owner, file) pairs: writes of the same file are serialized,
+// writes of different files almost never wait on each other, and no lock is ever created or removed
+public class LockStripes {
+    private final ReentrantLock[] locks;
+
+    // the number of stripes is rounded up to a power of two
+    public LockStripes(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public ReentrantLock get(String ownerName, String fileName) {
+        return locks[indexOf(ownerName, fileName)];
+    }
+
+    // locks of many files, in stripe order so that two threads locking overlapping sets cannot deadlock
+    public List<ReentrantLock> getAll(String ownerName, Collection<String> fileNames) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (String fileName : fileNames) {
+            indexes.add(indexOf(ownerName, fileName));
+        }
+        List<ReentrantLock> result = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            result.add(locks[index]);
+        }
+        return result;
+    }
+
+    private int indexOf(String ownerName, String fileName) {
+        int h = 31 * ownerName.hashCode() + fileName.hashCode();
+        // spread the high bits, names often differ only at the end
+        h ^= h >>> 16;
+        return h & (locks.length - 1);
+    }
+}
@@ -0,0 +1,33 @@
+package backupsystem.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+// Groups small items into batches bounded by total size and item count,
+// so many of them travel in one call instead of one round trip each
+public final class BatchPlanner {
+    private BatchPlanner() {}
+
+    // keeps the order of the items, an item bigger than maxBytes gets a batch of its own
+    public static <T> List<List<T>> pack(List<T> items, ToLongFunction<T> size, long maxBytes, int maxItems) {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> batch = new ArrayList<>();
+        long batchBytes = 0;
+
+        for (T item : items) {
+            long itemBytes = size.applyAsLong(item);
+            if (!batch.isEmpty() && (batchBytes + itemBytes > maxBytes || batch.size() >= maxItems)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(item);
+            batchBytes += itemBytes;
+        }
+        if (!batch.isEmpty())
+            batches.add(batch);
+
+        return batches;
+    }
+}
@@ -0,0 +1,107 @@
+package backupsystem.transfer;
+
+import backupsystem.compression.Codec;
+import backupsystem.compression.Codecs;
+import backupsystem.compression.CompressedBlock;
+import backupsystem.io.FileSliceReader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+// Data channel transfers that negotiated a codec: the file is cut in frames of one block, each compressed
+// on its own when it looks compressible, sent as [codec id, raw length, data length, CRC32C of the raw bytes, data].
+// Frames go through the heap; transfers without a codec keep the zero-copy stream of DataChannelServer.send
+public class CompressedFrames {
+    public static final int FRAME_SIZE = Codec.MAX_BLOCK_SIZE;
+
+    private static final int HEADER_SIZE = 1 + Integer.BYTES + Integer.BYTES + Long.BYTES;
+
+    @FunctionalInterface
+    public interface FrameListener {
+        // before each frame is sent, with its size on the wire
+        void beforeFrame(int length) throws IOException;
+    }
+
+    // sends [position, end) of the file, returns where it stopped: before the end only if the file got shorter
+    public static long send(FileChannel file, long position, long end, WritableByteChannel channel, Codec codec, FrameListener listener) throws IOException {
+        byte[] raw = new byte[FRAME_SIZE];
+        try (FileSliceReader reader = new FileSliceReader(file, position, end, FRAME_SIZE)) {
+            ByteBuffer slice;
+            while ((slice = reader.next()) != null) {
+                int n = slice.remaining();
+                long checksum = FileSliceReader.checksum(slice);
+                slice.get(raw, 0, n);
+                CompressedBlock block = CompressedBlock.compress(codec, raw, 0, n, checksum);
+
+                listener.beforeFrame(HEADER_SIZE + block.getData().length);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .put(Codecs.byName(block.getCodecName()).getId())
+                        .putInt(n)
+                        .putInt(block.getData().length)
+                        .putLong(checksum)
+                        .flip();
+                writeFully(channel, header);
+                writeFully(channel, ByteBuffer.wrap(block.getData()));
+                position += n;
+            }
+        }
+        return position;
+    }
+
+    // the raw bytes of the next frame, checked against their checksum; null if the stream ended between two frames
+    public static byte[] receive(ReadableByteChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(channel, header) && header.position() == 0)
+            return null;
+        if (header.hasRemaining())
+            throw new EOFException("Data channel closed inside a frame header");
+
+        header.flip();
+        Codec codec = Codecs.byId(header.get());
+        int rawLength = header.getInt();
+        int dataLength = header.getInt();
+        long checksum = header.getLong();
+        // a block is sent compressed only if it shrinks, so the data is never longer than the raw bytes
+        Codecs.checkRawLength(codec, rawLength);
+        if (dataLength < 0 || dataLength > rawLength)
+            throw new IOException("Invalid frame: " + dataLength + " bytes of data for " + rawLength + " raw bytes");
+
+        ByteBuffer data = ByteBuffer.allocate(dataLength);
+        if (!readFully(channel, data))
+            throw new EOFException("Data channel closed inside a frame of " + dataLength + " bytes");
+        return new CompressedBlock(codec.getName(), rawLength, data.array(), checksum).decompress();
+    }
+
+    // writes the next frame at position of the file, returns its length, 0 if the stream ended between two frames
+    public static int receive(ReadableByteChannel channel, FileChannel file, long position, long end) throws IOException {
+        byte[] frame = receive(channel);
+        if (frame == null)
+            return 0;
+        if (position + frame.length > end)
+            throw new IOException("Frame of " + frame.length + " bytes at " + position + " goes past the end at " + end);
+
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        while (buffer.hasRemaining()) {
+            file.write(buffer, position + buffer.position());
+        }
+        return frame.length;
+    }
+
+    private static boolean readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package backupsystem.transfer;
+
+import backupsystem.compression.Codecs;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Socket data plane next to RMI: file bytes move between channels without going through the heap.
+// A connection starts with the 8 byte token of a ticket, then the registered handler owns the socket.
+public class DataChannelServer implements Closeable {
+    private static final long TICKET_VALIDITY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final int SLICE_SIZE = 64 * 1024;
+    private static final int HEADER_TIMEOUT_MILLIS = 10_000;
+
+    private final ServerSocketChannel serverChannel;
+    private final Map<Long,PendingTransfer> pendingTransfers;
+    private final ExecutorService connectionExecutor;
+    private final SecureRandom random;
+    private final Thread acceptThread;
+
+    @FunctionalInterface
+    public interface TransferHandler {
+        void handle(SocketChannel channel) throws IOException;
+    }
+
+    private record PendingTransfer(TransferHandler handler, long expiresAt) {}
+
+    public DataChannelServer(int port) throws IOException {
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.pendingTransfers = new ConcurrentHashMap<>();
+        this.connectionExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        this.random = new SecureRandom();
+        this.acceptThread = new Thread(this::acceptLoop, "data-channel-accept");
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // the handler runs once, when a connection presents the returned ticket
+    public TransferTicket register(long size, TransferHandler handler) {
+        return register(size, Codecs.NONE.getName(), handler);
+    }
+
+    // the ticket tells the other side the codec of the frames, the handler must use the same
+    public TransferTicket register(long size, String codecName, TransferHandler handler) {
+        long now = System.currentTimeMillis();
+        pendingTransfers.values().removeIf(p -> p.expiresAt() < now);
+
+        long token;
+        do {
+            token = random.nextLong();
+        } while (pendingTransfers.putIfAbsent(token, new PendingTransfer(handler, now + TICKET_VALIDITY_MILLIS)) != null);
+
+        return new TransferTicket(getPort(), token, size, codecName);
+    }
+
+    private void acceptLoop() {
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                connectionExecutor.execute(() -> serve(channel));
+            } catch (IOException e) {
+                if (serverChannel.isOpen())
+                    System.err.println("Error in accepting data connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            // a connection that does not present its ticket in time is dropped, idle it would hold its thread forever;
+            // channel reads ignore the socket timeout, so the token is read through the socket stream
+            long token;
+            try {
+                channel.socket().setSoTimeout(HEADER_TIMEOUT_MILLIS);
+                token = new DataInputStream(channel.socket().getInputStream()).readLong();
+                channel.socket().setSoTimeout(0);
+            } catch (EOFException | SocketTimeoutException e) {
+                return;
+            }
+
+            PendingTransfer transfer = pendingTransfers.remove(token);
+            if (transfer == null || transfer.expiresAt() < System.currentTimeMillis())
+                return;
+
+            transfer.handler().handle(channel);
+        } catch (IOException e) {
+            System.err.println("Error in data transfer: " + e.getMessage());
+        }
+    }
+
+    /*
+     * ----------- Client side -----------
+     */
+
+    // sends a range of a file with transferTo, returns where it stopped: before the end only if the file got shorter.
+    // On a virtual thread the socket is not blocking underneath and transferTo can make no progress while the
+    // socket buffer is full, then a plain write of one slice waits for the socket instead of spinning
+    public static long send(FileChannel file, long position, long end, SocketChannel channel) throws IOException {
+        ByteBuffer buffer = null;
+        while (position < end) {
+            long n = file.transferTo(position, end - position, channel);
+            if (n <= 0) {
+                if (buffer == null)
+                    buffer = ByteBuffer.allocate(SLICE_SIZE);
+                buffer.clear().limit((int) Math.min(SLICE_SIZE, end - position));
+                n = file.read(buffer, position);
+                if (n <= 0)
+                    break;
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            position += n;
+        }
+        return position;
+    }
+
+    // opens a connection to a peer's data channel and presents the ticket
+    public static SocketChannel connect(String host, TransferTicket ticket) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, ticket.getPort()));
+        try {
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(ticket.getToken()).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        connectionExecutor.shutdownNow();
+        pendingTransfers.clear();
+    }
+}
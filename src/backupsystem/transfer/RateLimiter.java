@@ -0,0 +1,65 @@
+package backupsystem.transfer;
+
+import java.util.concurrent.TimeUnit;
+
+// Token bucket: transfers may burst up to one second worth of bytes,
+// but on average they do not go faster than the configured rate
+public class RateLimiter {
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefill;
+
+    // a rate of 0 or less means no limit
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    // takes effect for the next acquire, the bucket never holds more than one second at the new rate
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = bytesPerSecond <= 0 ? 0 : Math.min(tokens, bytesPerSecond);
+        this.lastRefill = System.nanoTime();
+    }
+
+    // blocks until the bytes can be sent, requests bigger than the bucket go into debt
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond <= 0)
+                return;
+            take(bytes);
+            waitNanos = getWaitNanos();
+        }
+
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    // takes the bytes without waiting, the bucket may go into debt
+    public synchronized void take(long bytes) {
+        if (bytesPerSecond <= 0)
+            return;
+        refill();
+        tokens -= bytes;
+    }
+
+    // how long until the bucket is out of debt, 0 if bytes can be taken now
+    public synchronized long getWaitNanos() {
+        if (bytesPerSecond <= 0)
+            return 0;
+        refill();
+        return tokens < 0 ? (long) Math.ceil(-tokens * 1e9 / bytesPerSecond) : 0;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+        lastRefill = now;
+    }
+}
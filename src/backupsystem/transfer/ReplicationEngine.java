@@ -0,0 +1,64 @@
+package backupsystem.transfer;
+
+import backupsystem.datastructures.PeerInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+// Pushes a write to several peers at once and returns as soon as a write quorum has acknowledged
+public class ReplicationEngine {
+    private final ExecutorService executor;
+    private final Semaphore transferSlots;
+
+    @FunctionalInterface
+    public interface ReplicaWriter {
+        void write(PeerInfo target) throws Exception;
+    }
+
+    public ReplicationEngine(int maxParallelTransfers) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("replication-", 0).factory());
+        this.transferSlots = new Semaphore(maxParallelTransfers);
+    }
+
+    // a quorum of 0 (or greater than the number of targets) waits for every target
+    public ReplicationResult replicate(List<PeerInfo> targets, int writeQuorum, ReplicaWriter writer) throws InterruptedException {
+        int quorum = (writeQuorum <= 0 || writeQuorum > targets.size()) ? targets.size() : writeQuorum;
+        ReplicationResult result = new ReplicationResult(targets.stream().map(PeerInfo::getName).toList(), quorum);
+
+        List<Future<?>> transfers = new ArrayList<>(targets.size());
+        for (PeerInfo target : targets) {
+            transfers.add(executor.submit(() -> {
+                try {
+                    transferSlots.acquire();
+                    try {
+                        writer.write(target);
+                    } finally {
+                        transferSlots.release();
+                    }
+                    result.succeeded(target.getName());
+                } catch (Exception e) {
+                    result.failed(target.getName(), e);
+                }
+            }));
+        }
+        result.setTransfers(transfers);
+
+        // transfers still running after the quorum keep going in background and update the result
+        try {
+            result.awaitQuorum();
+        } catch (InterruptedException e) {
+            // the caller gave up, so the transfers are stopped too
+            result.cancel();
+            throw e;
+        }
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
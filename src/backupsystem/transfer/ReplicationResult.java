@@ -0,0 +1,175 @@
+package backupsystem.transfer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Per-target outcome of a replicated write, updated while transfers complete.
+// Backups wait for the quorum on virtual threads, so a lock and not a monitor, which would pin their carrier
+public class ReplicationResult {
+    public enum Status { PENDING, SUCCEEDED, FAILED }
+
+    private final Map<String,Status> statuses;
+    private final Map<String,Exception> errors;
+    private final int writeQuorum;
+    private final ReentrantLock lock;
+    private final Condition statusChanged;
+    private int acknowledged;
+    private int failed;
+    private List<Future<?>> transfers;
+
+    public ReplicationResult(Iterable<String> targets, int writeQuorum) {
+        this.statuses = new LinkedHashMap<>();
+        this.errors = new LinkedHashMap<>();
+        for (String target : targets) {
+            statuses.put(target, Status.PENDING);
+        }
+        this.writeQuorum = writeQuorum;
+        this.lock = new ReentrantLock();
+        this.statusChanged = lock.newCondition();
+        this.acknowledged = 0;
+        this.failed = 0;
+        this.transfers = List.of();
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    public Map<String,Status> getStatuses() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(statuses));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String,Exception> getErrors() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(errors));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public int getAcknowledged() {
+        lock.lock();
+        try {
+            return acknowledged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isQuorumReached() {
+        lock.lock();
+        try {
+            return acknowledged >= writeQuorum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // true when enough targets have failed that the quorum can no longer be reached
+    public boolean isQuorumUnreachable() {
+        lock.lock();
+        try {
+            return statuses.size() - failed < writeQuorum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isComplete() {
+        lock.lock();
+        try {
+            return acknowledged + failed == statuses.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * ----------- Updates -----------
+     */
+
+    void succeeded(String target) {
+        lock.lock();
+        try {
+            statuses.put(target, Status.SUCCEEDED);
+            acknowledged++;
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void failed(String target, Exception error) {
+        lock.lock();
+        try {
+            statuses.put(target, Status.FAILED);
+            errors.put(target, error);
+            failed++;
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void setTransfers(List<Future<?>> transfers) {
+        lock.lock();
+        try {
+            this.transfers = List.copyOf(transfers);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // interrupts the transfers still running, their targets end up failed
+    public void cancel() {
+        List<Future<?>> running;
+        lock.lock();
+        try {
+            running = transfers;
+        } finally {
+            lock.unlock();
+        }
+        for (Future<?> transfer : running) {
+            transfer.cancel(true);
+        }
+    }
+
+    // blocks until every target has succeeded or failed
+    public void awaitCompletion() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!isComplete()) {
+                statusChanged.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // blocks until the quorum is reached or cannot be reached anymore
+    void awaitQuorum() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!isQuorumReached() && !isQuorumUnreachable()) {
+                statusChanged.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package backupsystem.transfer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Progress of an interrupted transfer, kept by the peer that started it: how many bytes of which version
+// of the file the receiving end already holds, so a retry continues from there instead of from zero.
+// The record ends with a CRC32 and is replaced atomically, a damaged checkpoint is just ignored.
+public class TransferCheckpoint {
+    private static final int MAGIC = 0x5443504b;
+
+    private final long sessionId;
+    private final String peerName;
+    private final String fileName;
+    private final long fileSize;
+    private final long stamp;
+    private final long lastModified;
+    private final long offset;
+
+    public TransferCheckpoint(long sessionId, String peerName, String fileName, long fileSize, long stamp, long lastModified, long offset) {
+        this.sessionId = sessionId;
+        this.peerName = peerName;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.stamp = stamp;
+        this.lastModified = lastModified;
+        this.offset = offset;
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    // upload session on the receiving peer, 0 for downloads
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    // the other end of the transfer
+    public String getPeerName() {
+        return peerName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    // stamp of the backup being transferred
+    public long getStamp() {
+        return stamp;
+    }
+
+    // time of the source file, a changed source cannot be resumed
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    // bytes the receiving end already holds
+    public long getOffset() {
+        return offset;
+    }
+
+    public TransferCheckpoint withOffset(long offset) {
+        return new TransferCheckpoint(sessionId, peerName, fileName, fileSize, stamp, lastModified, offset);
+    }
+
+    /*
+     * ----------- Persistence -----------
+     */
+
+    public void save(Path path) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(sessionId);
+        out.writeUTF(peerName);
+        out.writeUTF(fileName);
+        out.writeLong(fileSize);
+        out.writeLong(stamp);
+        out.writeLong(lastModified);
+        out.writeLong(offset);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+
+        Files.createDirectories(path.getParent());
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // null if there is no valid checkpoint at the path
+    public static TransferCheckpoint load(Path path) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException e) {
+            return null;
+        }
+        if (bytes.length < Long.BYTES)
+            return null;
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC)
+                return null;
+            TransferCheckpoint checkpoint = new TransferCheckpoint(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+            return in.readLong() == crc.getValue() ? checkpoint : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void delete(Path path) throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public String toString() {
+        return "backupsystem.transfer.TransferCheckpoint{" +
+                "sessionId=" + sessionId +
+                ", peerName='" + peerName + '\'' +
+                ", fileName='" + fileName + '\'' +
+                ", fileSize=" + fileSize +
+                ", stamp=" + stamp +
+                ", offset=" + offset +
+                '}';
+    }
+}
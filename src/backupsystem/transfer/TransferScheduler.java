@@ -0,0 +1,168 @@
+package backupsystem.transfer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Shares the bandwidth and disk of a peer between its transfers. Every slice of data asks for a grant first:
+// each priority class can be held to its own rate, and when the peer as a whole is rate limited the waiting
+// grants go out restores first, then backups, then maintenance, while within a class the remote peers take
+// turns so that each gets the same share of bytes (start time fair queuing). Limits can change at any time.
+public class TransferScheduler {
+    public enum Priority { RESTORE, BACKUP, MAINTENANCE }
+
+    private final RateLimiter globalLimiter;
+    private final Map<Priority,RateLimiter> classLimiters;
+    private final Map<Priority,AtomicLong> grantedBytes;
+    private final PriorityQueue<Grant> waiting;
+    private final Map<Priority,Map<String,Long>> finishTags;
+    private final Map<Priority,Long> virtualTimes;
+    private final ReentrantLock lock;
+    private final Condition turnChanged;
+    private long nextSequence;
+
+    private record Grant(Priority priority, long startTag, long sequence) {}
+
+    // a rate of 0 or less means no limit
+    public TransferScheduler(long globalBytesPerSecond) {
+        this.globalLimiter = new RateLimiter(globalBytesPerSecond);
+        this.classLimiters = new EnumMap<>(Priority.class);
+        this.grantedBytes = new EnumMap<>(Priority.class);
+        this.finishTags = new EnumMap<>(Priority.class);
+        this.virtualTimes = new EnumMap<>(Priority.class);
+        for (Priority priority : Priority.values()) {
+            classLimiters.put(priority, new RateLimiter(0));
+            grantedBytes.put(priority, new AtomicLong());
+            finishTags.put(priority, new HashMap<>());
+            virtualTimes.put(priority, 0L);
+        }
+        this.waiting = new PriorityQueue<>((a, b) -> a.priority() != b.priority()
+                ? a.priority().compareTo(b.priority())
+                : a.startTag() != b.startTag() ? Long.compare(a.startTag(), b.startTag()) : Long.compare(a.sequence(), b.sequence()));
+        this.lock = new ReentrantLock();
+        this.turnChanged = lock.newCondition();
+        this.nextSequence = 0;
+    }
+
+    /*
+     * ----------- Getters and setters -----------
+     */
+
+    public long getRateLimit() {
+        return globalLimiter.getBytesPerSecond();
+    }
+
+    // limit of the whole peer, the classes and remote peers share it by priority and in turns
+    public void setRateLimit(long bytesPerSecond) {
+        globalLimiter.setBytesPerSecond(bytesPerSecond);
+        lock.lock();
+        try {
+            turnChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRateLimit(Priority priority) {
+        return classLimiters.get(priority).getBytesPerSecond();
+    }
+
+    // limit of one class on its own, also when the peer as a whole is not limited
+    public void setRateLimit(Priority priority, long bytesPerSecond) {
+        classLimiters.get(priority).setBytesPerSecond(bytesPerSecond);
+    }
+
+    // bytes granted to the class since the scheduler started
+    public long getGrantedBytes(Priority priority) {
+        return grantedBytes.get(priority).get();
+    }
+
+    /*
+     * ----------- Scheduling -----------
+     */
+
+    // blocks until the bytes exchanged with the remote peer can be sent, received or written
+    public void acquire(Priority priority, String peerName, long bytes) throws InterruptedException {
+        // a class over its own limit waits outside the queue, so it does not hold back the others
+        classLimiters.get(priority).acquire(bytes);
+
+        if (globalLimiter.getBytesPerSecond() > 0)
+            awaitTurn(priority, peerName, bytes);
+        grantedBytes.get(priority).addAndGet(bytes);
+    }
+
+    // a channel that asks for a grant for every slice read from the given one, closing it closes the given one
+    public ReadableByteChannel throttle(ReadableByteChannel channel, Priority priority, String peerName) {
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int n = channel.read(dst);
+                if (n > 0) {
+                    try {
+                        acquire(priority, peerName, n);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Transfer interrupted");
+                    }
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    // the grants wait until the global bucket is out of debt, then the first in order takes its bytes and goes;
+    // meanwhile a more urgent grant arriving gets in front of the queue. A lock and not a monitor,
+    // virtual threads waiting on a monitor would hold their carrier threads
+    private void awaitTurn(Priority priority, String peerName, long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            Map<String,Long> tags = finishTags.get(priority);
+            long startTag = Math.max(virtualTimes.get(priority), tags.getOrDefault(peerName, 0L));
+            tags.put(peerName, startTag + bytes);
+            Grant grant = new Grant(priority, startTag, nextSequence++);
+            waiting.add(grant);
+            turnChanged.signalAll();
+
+            try {
+                while (true) {
+                    if (waiting.peek() != grant) {
+                        turnChanged.await();
+                        continue;
+                    }
+                    long waitNanos = globalLimiter.getWaitNanos();
+                    if (waitNanos <= 0)
+                        break;
+                    turnChanged.awaitNanos(waitNanos);
+                }
+            } finally {
+                waiting.remove(grant);
+                turnChanged.signalAll();
+            }
+
+            globalLimiter.take(bytes);
+            virtualTimes.put(priority, startTag);
+            // peers that are idle again start from the current virtual time
+            tags.values().removeIf(tag -> tag <= startTag);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package backupsystem.transfer;
+
+import java.io.Serializable;
+
+// Handed out through RMI to authorize one bulk transfer on the data channel of a peer.
+// With the "none" codec the bytes are a plain stream, otherwise they come in CompressedFrames
+public class TransferTicket implements Serializable {
+    private final int port;
+    private final long token;
+    private final long size;
+    private final String codecName;
+
+    public TransferTicket(int port, long token, long size, String codecName) {
+        this.port = port;
+        this.token = token;
+        this.size = size;
+        this.codecName = codecName;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+}
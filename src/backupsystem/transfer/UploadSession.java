@@ -0,0 +1,243 @@
+package backupsystem.transfer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Receiving side of a chunked upload: chunks are appended to a temporary file, private to the session,
+// which the storage moves into place only when the owner commits the session.
+// Sessions live in memory: an interrupted upload resumes from what was written, as long as this peer is up;
+// the owner keeps the checkpoint and opens a new session if this one is gone.
+public class UploadSession implements Closeable {
+    // received with a single transferFrom, then the activity is updated
+    private static final long RECEIVE_SLICE = 16L * 1024 * 1024;
+
+    private final long id;
+    private final String ownerName;
+    private final String fileName;
+    private final long fileSize;
+    private volatile long stamp;
+    private final Path tempPath;
+    private final boolean shard;
+    // version and stamp of the stored copy a delta upload is built on, 0 for other uploads
+    private final long baseVersion;
+    private final long baseStamp;
+    private final FileChannel channel;
+    private volatile long written;
+    private volatile long lastActivity;
+    private volatile ReadableByteChannel receiving;
+    // a lock, not a monitor: the data is received while holding it, and a virtual thread blocked
+    // inside a monitor would keep its carrier thread busy
+    private final ReentrantLock lock;
+
+    public UploadSession(long id, String ownerName, String fileName, long fileSize, long stamp, Path tempPath) throws IOException {
+        this(id, ownerName, fileName, fileSize, stamp, tempPath, false);
+    }
+
+    public UploadSession(long id, String ownerName, String fileName, long fileSize, long stamp, Path tempPath, boolean shard) throws IOException {
+        this(id, ownerName, fileName, fileSize, stamp, tempPath, shard, 0, 0);
+    }
+
+    public UploadSession(long id, String ownerName, String fileName, long fileSize, long stamp, Path tempPath, long baseVersion, long baseStamp) throws IOException {
+        this(id, ownerName, fileName, fileSize, stamp, tempPath, false, baseVersion, baseStamp);
+    }
+
+    private UploadSession(long id, String ownerName, String fileName, long fileSize, long stamp, Path tempPath, boolean shard, long baseVersion, long baseStamp) throws IOException {
+        this.id = id;
+        this.ownerName = ownerName;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.stamp = stamp;
+        this.tempPath = tempPath;
+        this.shard = shard;
+        this.baseVersion = baseVersion;
+        this.baseStamp = baseStamp;
+        Files.createDirectories(tempPath.getParent());
+        this.channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.written = 0;
+        this.lastActivity = System.currentTimeMillis();
+        this.receiving = null;
+        this.lock = new ReentrantLock();
+    }
+
+    /*
+     * ----------- Getters -----------
+     */
+
+    public long getId() {
+        return id;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    // stamp given by the owner to the backup, the one of the latest backup that resumed the session
+    public long getStamp() {
+        return stamp;
+    }
+
+    public Path getTempPath() {
+        return tempPath;
+    }
+
+    // true if the upload is an erasure coded shard instead of a full copy
+    public boolean isShard() {
+        return shard;
+    }
+
+    // true if the upload is rebuilt from a delta against the stored copy
+    public boolean isDelta() {
+        return baseVersion != 0;
+    }
+
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public long getBaseStamp() {
+        return baseStamp;
+    }
+
+    // readable while data is being received
+    public long getWritten() {
+        return written;
+    }
+
+    // time of the last data received, abandoned sessions are discarded after a while
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /*
+     * ----------- Session methods -----------
+     */
+
+    // chunks must arrive in order, each one starting where the previous ended
+    public void append(long offset, byte[] chunkData) throws IOException {
+        lock.lock();
+        try {
+            if (offset != written)
+                throw new IOException("Unexpected chunk offset " + offset + " for " + fileName + ", expected " + written);
+            if (written + chunkData.length > fileSize)
+                throw new IOException("Chunk exceeds declared size of " + fileName);
+
+            ByteBuffer buffer = ByteBuffer.wrap(chunkData);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, written + buffer.position());
+            }
+            written += chunkData.length;
+            lastActivity = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // receives the rest of the file from a data channel, straight from the socket into the file
+    public void receiveFrom(ReadableByteChannel source) throws IOException {
+        receiving = source;
+        lock.lock();
+        try {
+            while (written < fileSize) {
+                long n = channel.transferFrom(source, written, Math.min(fileSize - written, RECEIVE_SLICE));
+                if (n <= 0)
+                    throw new EOFException("Data channel closed after " + written + " of " + fileSize + " bytes of " + fileName);
+                written += n;
+                lastActivity = System.currentTimeMillis();
+            }
+        } finally {
+            lock.unlock();
+            receiving = null;
+        }
+    }
+
+    // receives the rest of the file as compressed frames, each one decompressed and checked before it is written
+    public void receiveFramesFrom(ReadableByteChannel source) throws IOException {
+        receiving = source;
+        lock.lock();
+        try {
+            while (written < fileSize) {
+                int n = CompressedFrames.receive(source, channel, written, fileSize);
+                if (n <= 0)
+                    throw new EOFException("Data channel closed after " + written + " of " + fileSize + " bytes of " + fileName);
+                written += n;
+                lastActivity = System.currentTimeMillis();
+            }
+        } finally {
+            lock.unlock();
+            receiving = null;
+        }
+    }
+
+    // called when the owner retries after a failure: stops a transfer still hanging on a dead connection
+    // and returns the offset from which the owner must continue, everything before it is in the file.
+    // A later backup of the unchanged file resumes the session with its own stamp, so that this copy
+    // gets the same stamp as the other copies of that backup
+    public long resume(long stamp) throws IOException {
+        ReadableByteChannel stale = receiving;
+        if (stale != null)
+            stale.close();
+
+        lock.lock();
+        try {
+            this.stamp = stamp;
+            lastActivity = System.currentTimeMillis();
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // checks that the whole file arrived and forces it to disk, the temporary file is then ready to be moved
+    public void commit() throws IOException {
+        lock.lock();
+        try {
+            if (written != fileSize)
+                throw new IOException("Incomplete upload of " + fileName + ": received " + written + " of " + fileSize + " bytes");
+
+            channel.force(false);
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void abort() throws IOException {
+        ReadableByteChannel stale = receiving;
+        if (stale != null)
+            stale.close();
+
+        lock.lock();
+        try {
+            channel.close();
+            Files.deleteIfExists(tempPath);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
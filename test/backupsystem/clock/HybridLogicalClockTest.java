@@ -0,0 +1,70 @@
+package backupsystem.clock;
+
+import backupsystem.datastructures.FileVersion;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HybridLogicalClockTest {
+    @Test
+    void followsThePhysicalClock() {
+        AtomicLong millis = new AtomicLong(1_000);
+        HybridLogicalClock clock = new HybridLogicalClock(millis::get);
+
+        long first = clock.now();
+        assertEquals(1_000, HybridLogicalClock.physicalTime(first));
+        millis.set(2_000);
+        long second = clock.now();
+        assertEquals(HybridLogicalClock.fromPhysicalTime(2_000), second);
+    }
+
+    @Test
+    void staysMonotonicWhenThePhysicalClockStallsOrGoesBack() {
+        AtomicLong millis = new AtomicLong(5_000);
+        HybridLogicalClock clock = new HybridLogicalClock(millis::get);
+
+        long previous = clock.now();
+        for (int i = 0; i < 1000; i++) {
+            if (i == 500)
+                millis.set(4_000);
+            long stamp = clock.now();
+            assertTrue(stamp > previous);
+            previous = stamp;
+        }
+        // the counter absorbs the events, the time part does not run ahead
+        assertEquals(5_000, HybridLogicalClock.physicalTime(previous));
+    }
+
+    @Test
+    void ordersAfterStampsFromAPeerWithAClockAhead() {
+        HybridLogicalClock ahead = new HybridLogicalClock(() -> 10_000);
+        HybridLogicalClock behind = new HybridLogicalClock(() -> 1_000);
+
+        long sent = ahead.now();
+        behind.update(sent);
+        long reply = behind.now();
+        assertTrue(reply > sent);
+        ahead.update(reply);
+        assertTrue(ahead.now() > reply);
+
+        // an older stamp does not move the clock back
+        behind.update(0);
+        assertTrue(behind.now() > reply);
+    }
+
+    @Test
+    void copiesAreOrderedByStampThenByTimeStored() {
+        long stamp = HybridLogicalClock.fromPhysicalTime(1_000);
+        FileVersion stamped = new FileVersion("a", 1, 500, 1, "h1", stamp);
+        FileVersion laterSameMillisecond = new FileVersion("a", 1, 500, 2, "h2", stamp + 1);
+        FileVersion unstampedOlder = new FileVersion("a", 1, 999, 3, "h3", 0);
+        FileVersion unstampedNewer = new FileVersion("a", 1, 1_001, 4, "h4", 0);
+
+        assertTrue(laterSameMillisecond.isNewerThan(stamped));
+        assertTrue(stamped.isNewerThan(unstampedOlder));
+        assertTrue(unstampedNewer.isNewerThan(laterSameMillisecond));
+        assertFalse(stamped.isNewerThan(stamped));
+    }
+}
@@ -0,0 +1,108 @@
+package backupsystem.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodecsTest {
+    private static final List<Codec> CODECS = List.of(Codecs.LZ, Codecs.DEFLATE, Codecs.NONE);
+
+    @Test
+    void roundTripsEveryKindOfBlock() throws IOException {
+        Random random = new Random(1);
+        for (byte[] data : samples(random)) {
+            for (Codec codec : CODECS) {
+                byte[] compressed = codec.compress(data, 0, data.length);
+                assertArrayEquals(data, codec.decompress(compressed, data.length), codec.getName() + " on " + data.length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void compressesOnlyTheGivenSlice() throws IOException {
+        byte[] data = new byte[10_000];
+        new Random(2).nextBytes(data);
+        for (Codec codec : CODECS) {
+            byte[] compressed = codec.compress(data, 1234, 5000);
+            assertArrayEquals(Arrays.copyOfRange(data, 1234, 6234), codec.decompress(compressed, 5000), codec.getName());
+        }
+    }
+
+    @Test
+    void lzShrinksRepetitiveData() {
+        byte[] data = "the same sentence over and over, ".repeat(1000).getBytes();
+        assertTrue(Codecs.LZ.compress(data, 0, data.length).length < data.length / 10);
+    }
+
+    @Test
+    void rejectsRawLengthsOutsideTheBlockSize() {
+        byte[] compressed = Codecs.LZ.compress(new byte[100], 0, 100);
+        for (Codec codec : CODECS) {
+            assertThrows(IOException.class, () -> codec.decompress(compressed, -1), codec.getName());
+            assertThrows(IOException.class, () -> codec.decompress(compressed, Codec.MAX_BLOCK_SIZE + 1), codec.getName());
+        }
+    }
+
+    @Test
+    void lzRejectsCorruptedBlocks() {
+        byte[] data = "abcdabcdabcdabcdabcdabcd".repeat(50).getBytes();
+        byte[] compressed = Codecs.LZ.compress(data, 0, data.length);
+
+        // wrong length, truncated block, match before the start of the output
+        assertThrows(IOException.class, () -> Codecs.LZ.decompress(compressed, data.length + 1));
+        assertThrows(IOException.class, () -> Codecs.LZ.decompress(Arrays.copyOf(compressed, compressed.length / 2), data.length));
+        assertThrows(IOException.class, () -> Codecs.LZ.decompress(new byte[]{ 0x10, 'a', (byte) 0xff, 0x00 }, 5));
+    }
+
+    @Test
+    void compressedBlockDetectsCorruption() throws IOException {
+        byte[] data = "checksummed ".repeat(500).getBytes();
+        CompressedBlock block = CompressedBlock.compress(Codecs.LZ, data, 0, data.length);
+        assertEquals(Codecs.LZ.getName(), block.getCodecName());
+        assertArrayEquals(data, block.decompress());
+
+        // the first literal of the block
+        byte[] tampered = block.getData().clone();
+        tampered[1] ^= 1;
+        CompressedBlock corrupted = new CompressedBlock(block.getCodecName(), block.getRawLength(), tampered, CompressedBlock.checksum(data, 0, data.length));
+        assertThrows(IOException.class, corrupted::decompress);
+    }
+
+    @Test
+    void incompressibleBlocksAreSentAsTheyAre() throws IOException {
+        byte[] data = new byte[64 * 1024];
+        new Random(3).nextBytes(data);
+        CompressedBlock block = CompressedBlock.compress(Codecs.LZ, data, 0, data.length);
+        assertEquals(Codecs.NONE.getName(), block.getCodecName());
+        assertArrayEquals(data, block.decompress());
+    }
+
+    @Test
+    void negotiatesTheFirstCommonCodec() {
+        assertSame(Codecs.DEFLATE, Codecs.negotiate(List.of("zstd", "deflate", "lz"), new String[]{ "lz", "deflate" }));
+        assertSame(Codecs.NONE, Codecs.negotiate(List.of("lz"), new String[]{ "deflate" }));
+    }
+
+    // empty, tiny, random, runs long enough for extended lengths and matches overlapping their own output
+    private static List<byte[]> samples(Random random) {
+        byte[] noise = new byte[100_000];
+        random.nextBytes(noise);
+        byte[] text = new byte[200_000];
+        for (int i = 0; i < text.length; i++)
+            text[i] = (byte) ("abcdefgh ".charAt(random.nextInt(9)));
+        byte[] mixed = new byte[Codec.MAX_BLOCK_SIZE];
+        // pages of noise between pages of zeros
+        for (int i = 0; i < mixed.length; i += 4096) {
+            if (random.nextBoolean())
+                System.arraycopy(noise, random.nextInt(noise.length - 4096), mixed, i, 4096);
+        }
+        byte[] run = new byte[70_000];
+        Arrays.fill(run, (byte) 7);
+        return List.of(new byte[0], new byte[]{ 42 }, "abc".getBytes(), noise, text, mixed, run);
+    }
+}
@@ -0,0 +1,122 @@
+package backupsystem.delta;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeltaEncoderTest {
+    private static final int BLOCK_SIZE = DeltaEncoder.MIN_BLOCK_SIZE;
+    private static final int MAX_LITERAL = 16 * 1024;
+
+    @Test
+    void rebuildsEditedFilesFromTheBase() throws IOException {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            byte[] base = randomBytes(random, random.nextInt(200_000));
+            byte[] edited = edit(base, random);
+            assertArrayEquals(edited, apply(base, delta(base, edited)), "round " + round);
+        }
+    }
+
+    @Test
+    void anUnchangedFileIsOnlyCopied() throws IOException {
+        byte[] base = randomBytes(new Random(2), 100 * BLOCK_SIZE);
+        List<DeltaInstruction> delta = delta(base, base);
+
+        assertTrue(delta.stream().allMatch(DeltaInstruction::isCopy));
+        // adjacent blocks are merged in a single copy
+        assertEquals(1, delta.size());
+        assertArrayEquals(base, apply(base, delta));
+    }
+
+    @Test
+    void aSmallChangeSendsLittleLiteralData() throws IOException {
+        byte[] base = randomBytes(new Random(3), 200 * BLOCK_SIZE);
+        byte[] edited = base.clone();
+        edited[100 * BLOCK_SIZE + 17] ^= 1;
+        List<DeltaInstruction> delta = delta(base, edited);
+
+        assertTrue(literalBytes(delta) <= BLOCK_SIZE);
+        assertArrayEquals(edited, apply(base, delta));
+    }
+
+    @Test
+    void literalsAreCutAtTheMaximumSize() throws IOException {
+        byte[] unrelated = randomBytes(new Random(4), 10 * MAX_LITERAL + 5);
+        List<DeltaInstruction> delta = delta(randomBytes(new Random(5), 10 * BLOCK_SIZE), unrelated);
+
+        assertTrue(delta.stream().noneMatch(DeltaInstruction::isCopy));
+        assertTrue(delta.stream().allMatch(instruction -> instruction.getLength() <= MAX_LITERAL));
+        assertEquals(unrelated.length, literalBytes(delta));
+    }
+
+    @Test
+    void handlesEmptyFiles() throws IOException {
+        byte[] data = randomBytes(new Random(6), 5 * BLOCK_SIZE);
+        assertArrayEquals(data, apply(new byte[0], delta(new byte[0], data)));
+        assertTrue(delta(data, new byte[0]).isEmpty());
+        // the partial block at the end of the base has no signature
+        assertEquals(5, DeltaEncoder.computeSignatures(new ByteArrayInputStream(data), BLOCK_SIZE).length);
+        assertEquals(4, DeltaEncoder.computeSignatures(new ByteArrayInputStream(data, 0, 5 * BLOCK_SIZE - 1), BLOCK_SIZE).length);
+    }
+
+    @Test
+    void blockSizeGrowsWithTheFileWithinBounds() {
+        assertEquals(DeltaEncoder.MIN_BLOCK_SIZE, DeltaEncoder.blockSizeFor(0));
+        assertEquals(DeltaEncoder.MAX_BLOCK_SIZE, DeltaEncoder.blockSizeFor(Long.MAX_VALUE / 2));
+        assertTrue(DeltaEncoder.blockSizeFor(1L << 30) > DeltaEncoder.blockSizeFor(1L << 20));
+    }
+
+    private static List<DeltaInstruction> delta(byte[] base, byte[] edited) throws IOException {
+        BlockSignature[] signatures = DeltaEncoder.computeSignatures(new ByteArrayInputStream(base), BLOCK_SIZE);
+        List<DeltaInstruction> delta = new ArrayList<>();
+        new DeltaEncoder(signatures, BLOCK_SIZE, MAX_LITERAL).encode(new ByteArrayInputStream(edited), delta::add);
+        return delta;
+    }
+
+    // what the receiving peer does with the stored copy
+    private static byte[] apply(byte[] base, List<DeltaInstruction> delta) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (DeltaInstruction instruction : delta) {
+            if (instruction.isCopy())
+                out.write(base, (int) instruction.getBaseOffset(), (int) instruction.getLength());
+            else
+                out.writeBytes(instruction.getLiteral());
+        }
+        return out.toByteArray();
+    }
+
+    private static long literalBytes(List<DeltaInstruction> delta) {
+        return delta.stream().filter(instruction -> !instruction.isCopy()).mapToLong(DeltaInstruction::getLength).sum();
+    }
+
+    // drops, inserts and moves ranges of the base
+    private static byte[] edit(byte[] base, Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int position = 0;
+        while (position < base.length) {
+            int length = Math.min(base.length - position, random.nextInt(50_000));
+            if (random.nextInt(4) == 0)
+                out.writeBytes(randomBytes(random, random.nextInt(3000)));
+            if (random.nextInt(5) != 0)
+                out.write(base, position, length);
+            if (random.nextInt(10) == 0 && position > 0)
+                out.write(base, 0, Math.min(position, 10_000));
+            position += length;
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,30 @@
+package backupsystem.delta;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingChecksumTest {
+    @Test
+    void rollingMatchesTheChecksumComputedFromScratch() {
+        byte[] data = new byte[10_000];
+        new Random(1).nextBytes(data);
+        for (int blockSize : new int[]{ 1, 16, 2048 }) {
+            RollingChecksum checksum = new RollingChecksum(blockSize);
+            checksum.reset(data, 0);
+            for (int i = 0; i + blockSize < data.length; i++) {
+                assertEquals(RollingChecksum.of(data, i, blockSize), checksum.getValue(), "block " + blockSize + " at " + i);
+                checksum.roll(data[i], data[i + blockSize]);
+            }
+        }
+    }
+
+    @Test
+    void dependsOnTheOrderOfTheBytes() {
+        byte[] data = { 1, 2, 3, 4 };
+        byte[] swapped = { 2, 1, 3, 4 };
+        assertNotEquals(RollingChecksum.of(data, 0, 4), RollingChecksum.of(swapped, 0, 4));
+    }
+}
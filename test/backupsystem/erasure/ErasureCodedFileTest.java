@@ -0,0 +1,107 @@
+package backupsystem.erasure;
+
+import backupsystem.datastructures.ShardInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ErasureCodedFileTest {
+    private static final int BLOCK_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void rebuildsTheFileWithoutAsManyShardsAsTheParity() throws IOException {
+        // not a whole number of stripes, and more than one batch of them
+        byte[] data = randomBytes(4 * 16 * BLOCK_SIZE * 2 + 1234, 1);
+        Path[] shards = encode(data, 4, 2);
+        ShardInfo set = readHeader(shards[0]);
+        assertEquals(data.length, set.getFileSize());
+        assertEquals(5L, readHeader(shards[5]).getStamp());
+
+        Path restored = dir.resolve("restored");
+        ErasureCodedFile.decode(set, List.of(1, 3, 4, 5), source(shards, Set.of()), executor, restored);
+        assertArrayEquals(data, Files.readAllBytes(restored));
+    }
+
+    @Test
+    void replacesAShardThatFailsWithASpareOne() throws IOException {
+        byte[] data = randomBytes(100_000, 2);
+        Path[] shards = encode(data, 3, 2);
+
+        Path restored = dir.resolve("restored");
+        ErasureCodedFile.decode(readHeader(shards[0]), List.of(0, 1, 2, 3, 4), source(shards, Set.of(0, 2)), executor, restored);
+        assertArrayEquals(data, Files.readAllBytes(restored));
+    }
+
+    @Test
+    void failsWhenTooFewShardsAreLeft() throws IOException {
+        byte[] data = randomBytes(50_000, 3);
+        Path[] shards = encode(data, 3, 1);
+        ShardInfo set = readHeader(shards[0]);
+        Path restored = dir.resolve("restored");
+
+        assertThrows(IOException.class, () -> ErasureCodedFile.decode(set, List.of(0, 1), source(shards, Set.of()), executor, restored));
+        assertThrows(IOException.class, () -> ErasureCodedFile.decode(set, List.of(0, 1, 2), source(shards, Set.of(1, 2)), executor, restored));
+    }
+
+    @Test
+    void encodesAnEmptyFile() throws IOException {
+        Path[] shards = encode(new byte[0], 2, 1);
+        Path restored = dir.resolve("restored");
+        ErasureCodedFile.decode(readHeader(shards[2]), List.of(2, 1), source(shards, Set.of()), executor, restored);
+        assertEquals(0, Files.size(restored));
+    }
+
+    private Path[] encode(byte[] data, int k, int m) throws IOException {
+        Path source = dir.resolve("file.bin");
+        Files.write(source, data);
+        Path[] shards = new Path[k + m];
+        for (int i = 0; i < shards.length; i++)
+            shards[i] = dir.resolve("shard" + i);
+        ErasureCodedFile.encode(source, new ReedSolomon(k, m), BLOCK_SIZE, 42, 5, shards);
+        return shards;
+    }
+
+    // reads the data after the header, the failing shards throw as a peer that went away would
+    private static ErasureCodedFile.ShardSource source(Path[] shards, Set<Integer> failing) {
+        return (index, offset, length) -> {
+            if (failing.contains(index))
+                throw new IOException("Shard " + index + " is gone");
+            byte[] all = Files.readAllBytes(shards[index]);
+            int from = (int) (ShardInfo.HEADER_SIZE + offset);
+            return Arrays.copyOfRange(all, from, Math.min(all.length, from + length));
+        };
+    }
+
+    private static ShardInfo readHeader(Path shard) throws IOException {
+        try (InputStream in = Files.newInputStream(shard)) {
+            return ShardInfo.readFrom("file.bin", new DataInputStream(in));
+        }
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,107 @@
+package backupsystem.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReedSolomonTest {
+    @Test
+    void rebuildsTheDataFromEveryChoiceOfErasures() {
+        Random random = new Random(1);
+        int k = 4, m = 3, length = 257;
+        ReedSolomon codec = new ReedSolomon(k, m);
+        byte[][] original = encoded(codec, length, random);
+
+        for (List<Integer> lost : subsets(k + m, m)) {
+            byte[][] shards = copy(original);
+            boolean[] present = new boolean[k + m];
+            Arrays.fill(present, true);
+            for (int index : lost) {
+                present[index] = false;
+                shards[index] = new byte[length];
+            }
+            codec.decodeMissing(shards, present, 0, length);
+            for (int d = 0; d < k; d++)
+                assertArrayEquals(original[d], shards[d], "lost " + lost + ", shard " + d);
+        }
+    }
+
+    @Test
+    void decodesOnlyTheGivenRange() {
+        ReedSolomon codec = new ReedSolomon(3, 2);
+        byte[][] original = encoded(codec, 100, new Random(2));
+        byte[][] shards = copy(original);
+        shards[0] = new byte[100];
+        shards[2] = new byte[100];
+
+        codec.decodeMissing(shards, new boolean[]{ false, true, false, true, true }, 10, 50);
+        for (int d : new int[]{ 0, 2 }) {
+            for (int i = 0; i < 100; i++)
+                assertEquals(i >= 10 && i < 60 ? original[d][i] : 0, shards[d][i]);
+        }
+    }
+
+    @Test
+    void failsWithFewerThanKShards() {
+        ReedSolomon codec = new ReedSolomon(4, 2);
+        byte[][] shards = encoded(codec, 16, new Random(3));
+        boolean[] present = { true, false, true, false, false, true };
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeMissing(shards, present, 0, 16));
+    }
+
+    @Test
+    void withoutParityTheDataIsKeptAsItIs() {
+        ReedSolomon codec = new ReedSolomon(5, 0);
+        byte[][] shards = encoded(codec, 32, new Random(4));
+        byte[][] before = copy(shards);
+        codec.decodeMissing(shards, new boolean[]{ true, true, true, true, true }, 0, 32);
+        for (int d = 0; d < 5; d++)
+            assertArrayEquals(before[d], shards[d]);
+    }
+
+    @Test
+    void galoisFieldDivisionUndoesMultiplication() {
+        for (int a = 0; a < 256; a++) {
+            for (int b = 1; b < 256; b++)
+                assertEquals(a, GaloisField.divide(GaloisField.multiply(a, b), b), a + " * " + b);
+        }
+        assertEquals(1, GaloisField.power(7, 0));
+        assertEquals(GaloisField.multiply(7, GaloisField.multiply(7, 7)), GaloisField.power(7, 3));
+    }
+
+    private static byte[][] encoded(ReedSolomon codec, int length, Random random) {
+        byte[][] shards = new byte[codec.getTotalShards()][length];
+        for (int d = 0; d < codec.getDataShards(); d++)
+            random.nextBytes(shards[d]);
+        codec.encodeParity(shards, 0, length);
+        return shards;
+    }
+
+    private static byte[][] copy(byte[][] shards) {
+        byte[][] copy = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++)
+            copy[i] = shards[i].clone();
+        return copy;
+    }
+
+    // every set of size indexes out of n
+    private static List<List<Integer>> subsets(int n, int size) {
+        List<List<Integer>> subsets = new ArrayList<>();
+        for (int mask = 0; mask < 1 << n; mask++) {
+            if (Integer.bitCount(mask) != size)
+                continue;
+            List<Integer> subset = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if ((mask & 1 << i) != 0)
+                    subset.add(i);
+            }
+            subsets.add(subset);
+        }
+        return subsets;
+    }
+}
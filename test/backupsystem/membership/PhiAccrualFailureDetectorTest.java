@@ -0,0 +1,84 @@
+package backupsystem.membership;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhiAccrualFailureDetectorTest {
+    private static final double THRESHOLD = 8;
+
+    @Test
+    void suspicionGrowsWithSilence() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000, 100, 0);
+        long now = heartbeats(detector, "p1", 0, 50, () -> 1000);
+
+        assertTrue(detector.phi("p1", now + 100) < 1);
+        double previous = 0;
+        for (long elapsed = 0; elapsed <= 5000; elapsed += 100) {
+            double phi = detector.phi("p1", now + elapsed);
+            assertTrue(phi >= previous, "phi went down at " + elapsed);
+            previous = phi;
+        }
+        assertTrue(detector.phi("p1", now + 3000) > THRESHOLD);
+    }
+
+    @Test
+    void irregularHeartbeatsAreGivenMoreTime() {
+        Random random = new Random(1);
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000, 100, 0);
+        long steady = heartbeats(detector, "steady", 0, 100, () -> 1000);
+        long jittery = heartbeats(detector, "jittery", 0, 100, () -> 500 + random.nextInt(1000));
+
+        // two seconds of silence condemn only the peer that was always on time
+        assertTrue(detector.phi("steady", steady + 2000) > THRESHOLD);
+        assertTrue(detector.phi("jittery", jittery + 2000) < THRESHOLD);
+    }
+
+    @Test
+    void acceptablePauseDelaysSuspicion() {
+        PhiAccrualFailureDetector strict = new PhiAccrualFailureDetector(1000, 100, 0);
+        PhiAccrualFailureDetector lenient = new PhiAccrualFailureDetector(1000, 100, 3000);
+        long now = heartbeats(strict, "p1", 0, 20, () -> 1000);
+        heartbeats(lenient, "p1", 0, 20, () -> 1000);
+
+        assertTrue(strict.phi("p1", now + 3000) > THRESHOLD);
+        assertTrue(lenient.phi("p1", now + 3000) < THRESHOLD);
+    }
+
+    @Test
+    void aNewPeerIsJudgedOnTheExpectedInterval() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000, 100, 0);
+        assertEquals(0, detector.phi("unknown", 10_000));
+
+        detector.heartbeat("p1", 10_000);
+        assertTrue(detector.phi("p1", 10_500) < 1);
+        assertTrue(detector.phi("p1", 13_000) > THRESHOLD);
+    }
+
+    @Test
+    void ignoresLateHeartbeatsAndForgetsRemovedPeers() {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(1000, 100, 0);
+        long now = heartbeats(detector, "p1", 0, 20, () -> 1000);
+        double phi = detector.phi("p1", now + 1500);
+        // delivered out of order, older than the last one
+        detector.heartbeat("p1", now - 500);
+        assertEquals(phi, detector.phi("p1", now + 1500));
+
+        detector.remove("p1");
+        assertEquals(0, detector.phi("p1", now + 100_000));
+    }
+
+    // returns the time of the last heartbeat
+    private static long heartbeats(PhiAccrualFailureDetector detector, String name, long start, int count, IntSupplier interval) {
+        long now = start;
+        detector.heartbeat(name, now);
+        for (int i = 1; i < count; i++) {
+            now += interval.getAsInt();
+            detector.heartbeat(name, now);
+        }
+        return now;
+    }
+}
@@ -0,0 +1,85 @@
+package backupsystem.membership;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SwimDetectorTest {
+    private static final MembershipUpdate.State ALIVE = MembershipUpdate.State.ALIVE;
+    private static final MembershipUpdate.State SUSPECT = MembershipUpdate.State.SUSPECT;
+    private static final MembershipUpdate.State DEAD = MembershipUpdate.State.DEAD;
+
+    @Test
+    void precedenceOfUpdates() {
+        assertTrue(update(SUSPECT, 0).overrides(update(ALIVE, 0)));
+        assertTrue(update(DEAD, 0).overrides(update(SUSPECT, 0)));
+        assertFalse(update(ALIVE, 0).overrides(update(SUSPECT, 0)));
+        assertFalse(update(DEAD, 0).overrides(update(DEAD, 0)));
+        // only the member raises its incarnation, so a higher one is a refutation, even of a death
+        assertTrue(update(ALIVE, 1).overrides(update(DEAD, 0)));
+        assertTrue(update(SUSPECT, 1).overrides(update(DEAD, 0)));
+        assertFalse(update(DEAD, 0).overrides(update(ALIVE, 1)));
+    }
+
+    @Test
+    void aMemberWronglyDeclaredDeadRefutesAndIsProbedAgain() throws InterruptedException {
+        Map<String,SwimDetector> detectors = new ConcurrentHashMap<>();
+        AtomicInteger pingsToB = new AtomicInteger();
+        List<String> reportedDead = new CopyOnWriteArrayList<>();
+        SwimDetector.Transport transport = new SwimDetector.Transport() {
+            @Override
+            public List<MembershipUpdate> ping(String target, List<MembershipUpdate> updates) {
+                if (target.equals("b"))
+                    pingsToB.incrementAndGet();
+                return detectors.get(target).handlePing(updates);
+            }
+
+            @Override
+            public boolean pingRequest(String relay, String target, List<MembershipUpdate> updates) {
+                return detectors.get(relay).handlePingRequest(target, updates);
+            }
+        };
+        SwimDetector a = new SwimDetector("a", () -> Set.of("a", "b"), transport, reportedDead::add);
+        SwimDetector b = new SwimDetector("b", () -> Set.of("a", "b"), transport, reportedDead::add);
+        detectors.put("a", a);
+        detectors.put("b", b);
+
+        // another member suspected b, then declared it dead while it was unreachable
+        a.handlePing(List.of(update(SUSPECT, 0)));
+        assertEquals(SUSPECT, a.getState("b"));
+        a.handlePing(List.of(update(DEAD, 0)));
+        assertEquals(DEAD, a.getState("b"));
+        assertEquals(List.of("b"), reportedDead);
+        // the server kept b, but the gossip about it is over before b hears of it
+        for (int i = 0; i < 20; i++)
+            a.handlePing(List.of());
+
+        a.start();
+        try {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (a.getState("b") != ALIVE && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertEquals(ALIVE, a.getState("b"));
+
+            int pings = pingsToB.get();
+            while (pingsToB.get() == pings && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertTrue(pingsToB.get() > pings, "b is no longer probed");
+            assertEquals(List.of("b"), reportedDead);
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    private static MembershipUpdate update(MembershipUpdate.State state, int incarnation) {
+        return new MembershipUpdate("b", state, incarnation);
+    }
+}
@@ -0,0 +1,87 @@
+package backupsystem.placement;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+    private static final List<String> PEERS = List.of("p0", "p1", "p2", "p3", "p4", "p5", "p6", "p7");
+
+    @Test
+    void placesKeysOnDistinctPeers() {
+        ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+        for (int i = 0; i < 1000; i++) {
+            List<String> owners = ring.getOwners("key" + i, 3, null);
+            assertEquals(3, owners.size());
+            assertEquals(3, new HashSet<>(owners).size());
+        }
+        // never more than the peers on the ring
+        assertEquals(PEERS.size(), ring.getOwners("key", 20, null).size());
+        assertTrue(new ConsistentHashRing(List.of()).getOwners("key", 3, null).isEmpty());
+    }
+
+    @Test
+    void skipsTheExcludedPeer() {
+        ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+        for (int i = 0; i < 1000; i++) {
+            List<String> owners = ring.getOwners(ConsistentHashRing.keyOf("p3", "file" + i), 3, "p3");
+            assertEquals(3, owners.size());
+            assertFalse(owners.contains("p3"));
+        }
+        assertEquals(List.of("p1"), new ConsistentHashRing(List.of("p0", "p1")).getOwners("key", 3, "p0"));
+        assertTrue(new ConsistentHashRing(List.of("p0")).getOwners("key", 3, "p0").isEmpty());
+    }
+
+    @Test
+    void everyPeerComputesTheSamePlacement() {
+        List<String> shuffled = new ArrayList<>(PEERS);
+        Collections.reverse(shuffled);
+        ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+        ConsistentHashRing other = new ConsistentHashRing(shuffled);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(ring.getOwners("key" + i, 3, null), other.getOwners("key" + i, 3, null));
+    }
+
+    @Test
+    void keysAreSpreadEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(PEERS);
+        Map<String,Integer> counts = new HashMap<>();
+        int keys = 16_000;
+        for (int i = 0; i < keys; i++)
+            counts.merge(ring.getOwners("key" + i, 1, null).get(0), 1, Integer::sum);
+
+        int fair = keys / PEERS.size();
+        for (String peer : PEERS)
+            assertTrue(counts.get(peer) > fair / 2 && counts.get(peer) < fair * 2, peer + " has " + counts.get(peer));
+    }
+
+    @Test
+    void aJoiningPeerOnlyTakesKeysFromOthers() {
+        ConsistentHashRing before = new ConsistentHashRing(PEERS);
+        List<String> grown = new ArrayList<>(PEERS);
+        grown.add("p8");
+        ConsistentHashRing after = new ConsistentHashRing(grown);
+
+        int moved = 0;
+        int keys = 9000;
+        for (int i = 0; i < keys; i++) {
+            List<String> oldOwners = before.getOwners("key" + i, 2, null);
+            List<String> newOwners = after.getOwners("key" + i, 2, null);
+            List<String> added = new ArrayList<>(newOwners);
+            added.removeAll(oldOwners);
+            // only the new peer can become an owner, and it replaces at most one
+            assertTrue(added.isEmpty() || added.equals(List.of("p8")), "key" + i + ": " + oldOwners + " -> " + newOwners);
+            if (!added.isEmpty())
+                moved++;
+        }
+        // about replication factor / peers of the keys
+        assertTrue(moved > keys * 2 / 9 / 2 && moved < keys * 2 / 9 * 2, moved + " keys moved");
+    }
+}
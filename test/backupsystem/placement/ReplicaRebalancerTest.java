@@ -0,0 +1,165 @@
+package backupsystem.placement;
+
+import backupsystem.datastructures.FileVersion;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaRebalancerTest {
+    private static final String SELF = "p1";
+    private static final String OWNER = "p0";
+    private static final int FACTOR = 2;
+    private static final Set<String> MEMBERS = Set.of("p0", "p1", "p2", "p3", "p4", "p5");
+
+    @Test
+    void pushesOnlyToTheJoiningPeerWhenResponsible() throws InterruptedException {
+        Set<String> grown = with(MEMBERS, "p6");
+        FakeTransport transport = new FakeTransport(heldFiles(MEMBERS));
+        ReplicaRebalancer rebalancer = new ReplicaRebalancer(SELF, () -> FACTOR, transport);
+        try {
+            rebalancer.membershipChanged(MEMBERS, grown);
+            Set<String> expected = new HashSet<>();
+            for (String fileName : transport.files) {
+                List<String> oldOwners = owners(MEMBERS, fileName);
+                List<String> newOwners = owners(grown, fileName);
+                // this peer is the first old owner that stays one
+                if (newOwners.contains("p6") && oldOwners.stream().filter(newOwners::contains).findFirst().orElse("").equals(SELF))
+                    expected.add("p6:" + fileName);
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, transport.awaitPushes(expected.size()));
+        } finally {
+            rebalancer.stop();
+        }
+    }
+
+    @Test
+    void pushesToTheReplacementOfALeavingPeer() throws InterruptedException {
+        Set<String> shrunk = without(MEMBERS, "p2");
+        FakeTransport transport = new FakeTransport(heldFiles(MEMBERS));
+        ReplicaRebalancer rebalancer = new ReplicaRebalancer(SELF, () -> FACTOR, transport);
+        try {
+            rebalancer.membershipChanged(MEMBERS, shrunk);
+            Set<String> expected = new HashSet<>();
+            for (String fileName : transport.files) {
+                List<String> oldOwners = owners(MEMBERS, fileName);
+                if (!oldOwners.contains("p2"))
+                    continue;
+                // with two owners this peer is the only one left
+                for (String target : owners(shrunk, fileName)) {
+                    if (!oldOwners.contains(target))
+                        expected.add(target + ":" + fileName);
+                }
+            }
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, transport.awaitPushes(expected.size()));
+        } finally {
+            rebalancer.stop();
+        }
+    }
+
+    @Test
+    void dropsTheCopiesOfAnOwnerThatLeft() throws InterruptedException {
+        FakeTransport transport = new FakeTransport(heldFiles(MEMBERS));
+        ReplicaRebalancer rebalancer = new ReplicaRebalancer(SELF, () -> FACTOR, transport);
+        try {
+            rebalancer.membershipChanged(MEMBERS, without(MEMBERS, OWNER));
+            Thread.sleep(300);
+            assertTrue(transport.pushes.isEmpty());
+        } finally {
+            rebalancer.stop();
+        }
+    }
+
+    @Test
+    void retriesAFailedCopy() throws InterruptedException {
+        Set<String> grown = with(MEMBERS, "p6");
+        List<String> files = new ArrayList<>();
+        for (String fileName : heldFiles(MEMBERS)) {
+            List<String> newOwners = owners(grown, fileName);
+            if (newOwners.contains("p6") && newOwners.contains(SELF))
+                files.add(fileName);
+        }
+        FakeTransport transport = new FakeTransport(files.subList(0, 1));
+        transport.failNextPush.set(true);
+        ReplicaRebalancer rebalancer = new ReplicaRebalancer(SELF, () -> FACTOR, transport);
+        try {
+            rebalancer.membershipChanged(MEMBERS, grown);
+            assertEquals(Set.of("p6:" + files.get(0)), transport.awaitPushes(1));
+        } finally {
+            rebalancer.stop();
+        }
+    }
+
+    // the files of the owner this peer holds before the change
+    private static List<String> heldFiles(Set<String> members) {
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (owners(members, "file" + i).contains(SELF))
+                files.add("file" + i);
+        }
+        return files;
+    }
+
+    private static List<String> owners(Set<String> members, String fileName) {
+        return new ConsistentHashRing(members).getOwners(ConsistentHashRing.keyOf(OWNER, fileName), FACTOR, OWNER);
+    }
+
+    private static Set<String> with(Set<String> members, String name) {
+        Set<String> result = new HashSet<>(members);
+        result.add(name);
+        return result;
+    }
+
+    private static Set<String> without(Set<String> members, String name) {
+        Set<String> result = new HashSet<>(members);
+        result.remove(name);
+        return result;
+    }
+
+    private static class FakeTransport implements ReplicaRebalancer.Transport {
+        private final List<String> files;
+        private final List<String> pushes = Collections.synchronizedList(new ArrayList<>());
+        private final AtomicBoolean failNextPush = new AtomicBoolean();
+
+        FakeTransport(List<String> files) {
+            this.files = files;
+        }
+
+        @Override
+        public Map<String,String[]> storedFiles() {
+            return Map.of(OWNER, files.toArray(new String[0]));
+        }
+
+        @Override
+        public FileVersion localVersion(String ownerName, String fileName) {
+            return new FileVersion(fileName, 1, 1, 1, "hash", 1);
+        }
+
+        @Override
+        public FileVersion remoteVersion(String target, String ownerName, String fileName) {
+            return null;
+        }
+
+        @Override
+        public void push(String target, String ownerName, String fileName) throws Exception {
+            if (failNextPush.getAndSet(false))
+                throw new Exception("connection refused");
+            pushes.add(target + ":" + fileName);
+        }
+
+        // waits for the expected pushes, then a little longer to catch unexpected ones
+        Set<String> awaitPushes(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (pushes.size() < count && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            Thread.sleep(200);
+            Set<String> distinct = new HashSet<>(pushes);
+            assertEquals(pushes.size(), distinct.size(), "pushed twice");
+            return distinct;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package backupsystem.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockCacheTest {
+    private static final int SMALL_BLOCK = 16 * 1024;
+
+    @Test
+    void lruEvictsTheLeastRecentlyUsedBlocks() {
+        BlockCache cache = new BlockCache(4 * SMALL_BLOCK, BlockCache.Policy.LRU, false);
+        for (int i = 0; i < 4; i++)
+            cache.put(key("a", i), block(i));
+        // block 0 becomes the most recently used
+        assertNotNull(cache.get(key("a", 0)));
+        cache.put(key("a", 4), block(4));
+
+        assertNull(cache.get(key("a", 1)));
+        assertNotNull(cache.get(key("a", 0)));
+        assertNotNull(cache.get(key("a", 4)));
+        assertEquals(4 * SMALL_BLOCK, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void staysWithinItsCapacityInBytes() {
+        for (BlockCache.Policy policy : BlockCache.Policy.values()) {
+            BlockCache cache = new BlockCache(3 * BlockCache.BLOCK_SIZE, policy, false);
+            for (int i = 0; i < 100; i++) {
+                read(cache, key("a", i), new byte[SMALL_BLOCK * (1 + i % 70)]);
+                assertTrue(cache.getSize() <= cache.getCapacity(), policy + " over capacity");
+            }
+            // a block bigger than the whole cache is never kept
+            cache.put(key("b", 0), new byte[4 * BlockCache.BLOCK_SIZE]);
+            assertNull(cache.get(key("b", 0)));
+        }
+    }
+
+    @Test
+    void tinyLfuKeepsPopularBlocksThroughAScan() {
+        assertTrue(popularHitsAfterScan(BlockCache.Policy.TINY_LFU) > 0.8);
+        assertTrue(popularHitsAfterScan(BlockCache.Policy.LRU) < 0.2);
+    }
+
+    @Test
+    void invalidateDropsEveryVersionOfTheFile() {
+        BlockCache cache = new BlockCache(100 * SMALL_BLOCK, BlockCache.Policy.TINY_LFU, false);
+        BlockCache.BlockKey oldVersion = new BlockCache.BlockKey("alice", "a.txt", 1, 10, 0);
+        BlockCache.BlockKey newVersion = new BlockCache.BlockKey("alice", "a.txt", 2, 20, 0);
+        BlockCache.BlockKey other = new BlockCache.BlockKey("alice", "b.txt", 1, 10, 0);
+        cache.put(oldVersion, block(1));
+        cache.put(newVersion, block(2));
+        cache.put(other, block(3));
+
+        cache.invalidate("alice", "a.txt");
+        assertNull(cache.get(oldVersion));
+        assertNull(cache.get(newVersion));
+        assertNotNull(cache.get(other));
+        assertEquals(SMALL_BLOCK, cache.getSize());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.getBlockCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void offHeapBlocksAreCopiedOut() {
+        BlockCache cache = new BlockCache(10 * SMALL_BLOCK, BlockCache.Policy.LRU, true);
+        byte[] data = block(7);
+        cache.put(key("a", 0), data);
+        byte[] first = cache.get(key("a", 0));
+        assertArrayEquals(data, first);
+        first[0] ^= 1;
+        assertArrayEquals(data, cache.get(key("a", 0)));
+    }
+
+    @Test
+    void aZeroCapacityDisablesTheCache() {
+        BlockCache cache = new BlockCache(0, BlockCache.Policy.TINY_LFU, false);
+        cache.put(key("a", 0), block(0));
+        assertNull(cache.get(key("a", 0)));
+        assertEquals(0, cache.getBlockCount());
+        assertEquals(1, cache.getMisses());
+    }
+
+    // a set of blocks read by everybody, then one large restore of blocks read once
+    private static double popularHitsAfterScan(BlockCache.Policy policy) {
+        BlockCache cache = new BlockCache(20L * BlockCache.BLOCK_SIZE, policy, false);
+        int popular = 400;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < popular; i++)
+                read(cache, key("popular", i), new byte[SMALL_BLOCK]);
+        }
+        for (int i = 0; i < 3000; i++)
+            read(cache, key("restore", i), new byte[SMALL_BLOCK]);
+
+        int hits = 0;
+        for (int i = 0; i < popular; i++) {
+            if (cache.get(key("popular", i)) != null)
+                hits++;
+        }
+        return (double) hits / popular;
+    }
+
+    // what the peer does when serving a block
+    private static void read(BlockCache cache, BlockCache.BlockKey key, byte[] block) {
+        if (cache.get(key) == null)
+            cache.put(key, block);
+    }
+
+    private static BlockCache.BlockKey key(String fileName, long blockIndex) {
+        return new BlockCache.BlockKey("alice", fileName, 1, 1, blockIndex);
+    }
+
+    private static byte[] block(int fill) {
+        byte[] block = new byte[SMALL_BLOCK];
+        Arrays.fill(block, (byte) fill);
+        return block;
+    }
+}
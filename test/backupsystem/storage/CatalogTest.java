@@ -0,0 +1,149 @@
+package backupsystem.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CatalogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysEntriesAndVersions() throws IOException {
+        Path path = dir.resolve("catalog.log");
+        try (Catalog catalog = new Catalog(path)) {
+            catalog.put("alice", "a.txt", CatalogEntry.Kind.FULL, 10, "h1", 100, 1000);
+            catalog.put("alice", "a.txt", CatalogEntry.Kind.FULL, 20, "h2", 200, 2000);
+            catalog.put("bob", "b.txt", CatalogEntry.Kind.SHARD, 5, "h3", 300, 3000);
+        }
+
+        try (Catalog catalog = new Catalog(path)) {
+            CatalogEntry entry = catalog.get("alice", "a.txt");
+            assertEquals(2, entry.getVersion());
+            assertEquals(20, entry.getSize());
+            assertEquals("h2", entry.getContentHash());
+            assertEquals(200, entry.getStamp());
+            assertEquals(2000, entry.getTimestamp());
+            assertEquals(CatalogEntry.Kind.SHARD, catalog.get("bob", "b.txt").getKind());
+            assertArrayEquals(new String[]{ "alice", "bob" }, catalog.getOwnerNames());
+        }
+    }
+
+    @Test
+    void cutsATornTail() throws IOException {
+        Path path = dir.resolve("catalog.log");
+        long intact = writeTwoFiles(path);
+        // a crash in the middle of the third record
+        try (Catalog catalog = new Catalog(path)) {
+            catalog.put("alice", "c.txt", CatalogEntry.Kind.FULL, 3, "h", 3, 3);
+        }
+        try (FileChannel log = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            log.truncate(Files.size(path) - 5);
+        }
+
+        assertRecoversTwoFiles(path, intact);
+    }
+
+    @Test
+    void cutsATailWithABadChecksum() throws IOException {
+        Path path = dir.resolve("catalog.log");
+        long intact = writeTwoFiles(path);
+        try (Catalog catalog = new Catalog(path)) {
+            catalog.put("alice", "c.txt", CatalogEntry.Kind.FULL, 3, "h", 3, 3);
+        }
+        byte[] log = Files.readAllBytes(path);
+        log[log.length - 1] ^= 1;
+        Files.write(path, log);
+
+        assertRecoversTwoFiles(path, intact);
+    }
+
+    @Test
+    void cutsGarbageAfterTheLastRecord() throws IOException {
+        Path path = dir.resolve("catalog.log");
+        long intact = writeTwoFiles(path);
+        // a length that runs past the end of the file
+        Files.write(path, new byte[]{ 0, 0, 0x10, 0, 1, 2, 3, 4, 5 }, StandardOpenOption.APPEND);
+
+        assertRecoversTwoFiles(path, intact);
+    }
+
+    @Test
+    void clearDropsEveryEntry() throws IOException {
+        Path path = dir.resolve("catalog.log");
+        writeTwoFiles(path);
+        try (Catalog catalog = new Catalog(path)) {
+            catalog.clear();
+            catalog.put("bob", "b.txt", CatalogEntry.Kind.FULL, 1, "h", 1, 1);
+        }
+
+        try (Catalog catalog = new Catalog(path)) {
+            assertNull(catalog.get("alice", "a.txt"));
+            assertArrayEquals(new String[]{ "bob" }, catalog.getOwnerNames());
+            // the version count starts over after a clear
+            assertEquals(1, catalog.get("bob", "b.txt").getVersion());
+        }
+    }
+
+    @Test
+    void putAllNumbersRepeatedFilesInOrder() throws IOException {
+        try (Catalog catalog = new Catalog(dir.resolve("catalog.log"))) {
+            List<CatalogEntry> stored = catalog.putAll(List.of(
+                    new CatalogEntry("alice", "a.txt", CatalogEntry.Kind.FULL, 1, "h1", 0, 1, 1),
+                    new CatalogEntry("alice", "a.txt", CatalogEntry.Kind.FULL, 2, "h2", 0, 2, 2)));
+            assertEquals(1, stored.get(0).getVersion());
+            assertEquals(2, stored.get(1).getVersion());
+            assertEquals("h2", catalog.get("alice", "a.txt").getContentHash());
+        }
+    }
+
+    @Test
+    void compactionKeepsTheLiveEntries() throws IOException {
+        Path path = dir.resolve("catalog.log");
+        try (Catalog catalog = new Catalog(path)) {
+            for (int round = 0; round < 50; round++) {
+                List<CatalogEntry> updates = new ArrayList<>();
+                for (int i = 0; i < 100; i++)
+                    updates.add(new CatalogEntry("alice", "f" + i, CatalogEntry.Kind.FULL, round, "h" + round, 0, round, round));
+                catalog.putAll(updates);
+            }
+        }
+
+        // 5000 records for 100 files are rewritten down to the live ones
+        assertTrue(Files.size(path) < 1000 * 100);
+        try (Catalog catalog = new Catalog(path)) {
+            assertEquals(100, catalog.getFileNames("alice").length);
+            assertEquals(50, catalog.get("alice", "f7").getVersion());
+            assertEquals("h49", catalog.get("alice", "f7").getContentHash());
+        }
+    }
+
+    private static long writeTwoFiles(Path path) throws IOException {
+        try (Catalog catalog = new Catalog(path)) {
+            catalog.put("alice", "a.txt", CatalogEntry.Kind.FULL, 1, "h1", 1, 1);
+            catalog.put("alice", "b.txt", CatalogEntry.Kind.MANIFEST, 2, "h2", 2, 2);
+        }
+        return Files.size(path);
+    }
+
+    private static void assertRecoversTwoFiles(Path path, long intact) throws IOException {
+        try (Catalog catalog = new Catalog(path)) {
+            assertArrayEquals(new String[]{ "a.txt", "b.txt" }, catalog.getFileNames("alice"));
+            assertEquals(intact, Files.size(path));
+            // new records go right after the last valid one
+            catalog.put("alice", "d.txt", CatalogEntry.Kind.FULL, 4, "h4", 4, 4);
+        }
+        try (Catalog catalog = new Catalog(path)) {
+            assertArrayEquals(new String[]{ "a.txt", "b.txt", "d.txt" }, catalog.getFileNames("alice"));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package backupsystem.storage;
+
+import backupsystem.compression.Codecs;
+import backupsystem.compression.CompressedBlock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void storesEachChunkOnceUnderItsHash() throws IOException {
+        ChunkStore store = new ChunkStore(dir);
+        byte[] data = "a chunk of some file ".repeat(1000).getBytes();
+
+        String hash = store.put(data);
+        assertEquals(ChunkStore.hash(data, 0, data.length), hash);
+        assertEquals(hash, store.put(data.clone()));
+        assertTrue(store.contains(hash));
+        assertArrayEquals(data, store.get(hash));
+        try (var files = Files.walk(dir)) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    void keepsTheCodecEachChunkWasStoredWith() throws IOException {
+        ChunkStore store = new ChunkStore(dir);
+        byte[] text = "compressible ".repeat(2000).getBytes();
+        byte[] noise = new byte[50_000];
+        new Random(1).nextBytes(noise);
+
+        String lz = store.put(text);
+        store.setCodec(Codecs.DEFLATE);
+        String deflate = store.put(CompressedBlock.compress(Codecs.DEFLATE, noise, 0, noise.length));
+
+        assertArrayEquals(text, store.get(lz));
+        assertArrayEquals(noise, store.get(deflate));
+    }
+
+    @Test
+    void missingAndCorruptedChunks() throws IOException {
+        ChunkStore store = new ChunkStore(dir);
+        String hash = store.put(new byte[]{ 1, 2, 3 });
+        assertFalse(store.contains(ChunkStore.hash(new byte[]{ 4 }, 0, 1)));
+
+        try (var files = Files.walk(dir)) {
+            Path chunk = files.filter(Files::isRegularFile).findFirst().orElseThrow();
+            Files.write(chunk, new byte[]{ 0, 0 });
+        }
+        assertThrows(IOException.class, () -> store.get(hash));
+    }
+}
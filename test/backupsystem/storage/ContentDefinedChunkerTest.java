@@ -0,0 +1,97 @@
+package backupsystem.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentDefinedChunkerTest {
+    @Test
+    void chunksCoverTheStreamWithinTheSizeBounds() throws IOException {
+        byte[] data = randomBytes(new Random(1), 5_000_000);
+        List<byte[]> chunks = split(new ByteArrayInputStream(data));
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        for (int i = 0; i < chunks.size(); i++) {
+            int length = chunks.get(i).length;
+            assertTrue(length <= ContentDefinedChunker.MAX_CHUNK_SIZE);
+            if (i < chunks.size() - 1)
+                assertTrue(length > ContentDefinedChunker.MIN_CHUNK_SIZE);
+            joined.writeBytes(chunks.get(i));
+        }
+        assertArrayEquals(data, joined.toByteArray());
+        // about 64 KB on average
+        assertTrue(chunks.size() > 30 && chunks.size() < 150, chunks.size() + " chunks");
+    }
+
+    @Test
+    void boundariesDoNotDependOnHowTheStreamIsRead() throws IOException {
+        byte[] data = randomBytes(new Random(2), 1_000_000);
+        List<String> whole = hashes(split(new ByteArrayInputStream(data)));
+        List<String> trickled = hashes(split(new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 777));
+            }
+        }));
+        assertEquals(whole, trickled);
+    }
+
+    @Test
+    void anInsertionOnlyChangesTheChunksAroundIt() throws IOException {
+        byte[] data = randomBytes(new Random(3), 4_000_000);
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        edited.write(data, 0, 2_000_000);
+        edited.writeBytes("inserted in the middle".getBytes());
+        edited.write(data, 2_000_000, data.length - 2_000_000);
+
+        List<String> before = hashes(split(new ByteArrayInputStream(data)));
+        List<String> after = hashes(split(new ByteArrayInputStream(edited.toByteArray())));
+        Set<String> changed = new HashSet<>(after);
+        changed.removeAll(before);
+        assertTrue(changed.size() <= 2, changed.size() + " changed chunks");
+    }
+
+    @Test
+    void shortAndEmptyStreams() throws IOException {
+        assertTrue(split(new ByteArrayInputStream(new byte[0])).isEmpty());
+        byte[] small = randomBytes(new Random(4), ContentDefinedChunker.MIN_CHUNK_SIZE);
+        List<byte[]> chunks = split(new ByteArrayInputStream(small));
+        assertEquals(1, chunks.size());
+        assertArrayEquals(small, chunks.get(0));
+    }
+
+    @Test
+    void cutsUniformDataAtTheMaximumSize() throws IOException {
+        List<byte[]> chunks = split(new ByteArrayInputStream(new byte[3 * ContentDefinedChunker.MAX_CHUNK_SIZE + 10]));
+        assertEquals(4, chunks.size());
+        assertEquals(ContentDefinedChunker.MAX_CHUNK_SIZE, chunks.get(0).length);
+        assertEquals(10, chunks.get(3).length);
+    }
+
+    private static List<byte[]> split(InputStream in) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        ContentDefinedChunker.split(in, (data, length) -> chunks.add(Arrays.copyOf(data, length)));
+        return chunks;
+    }
+
+    private static List<String> hashes(List<byte[]> chunks) {
+        return chunks.stream().map(chunk -> ChunkStore.hash(chunk, 0, chunk.length)).toList();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,50 @@
+package backupsystem.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchPlannerTest {
+    @Test
+    void keepsTheOrderWithinTheBounds() {
+        Random random = new Random(1);
+        List<Long> sizes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            sizes.add((long) random.nextInt(10_000));
+
+        List<List<Long>> batches = BatchPlanner.pack(sizes, Long::longValue, 50_000, 16);
+        List<Long> flattened = new ArrayList<>();
+        for (List<Long> batch : batches) {
+            assertFalse(batch.isEmpty());
+            assertTrue(batch.size() <= 16);
+            assertTrue(batch.stream().mapToLong(Long::longValue).sum() <= 50_000);
+            flattened.addAll(batch);
+        }
+        assertEquals(sizes, flattened);
+    }
+
+    @Test
+    void closesABatchOnlyWhenTheNextItemDoesNotFit() {
+        assertEquals(List.of(List.of(40L, 60L), List.of(1L, 99L), List.of(50L)),
+                BatchPlanner.pack(List.of(40L, 60L, 1L, 99L, 50L), Long::longValue, 100, 10));
+        assertEquals(List.of(List.of(1L, 1L), List.of(1L, 1L), List.of(1L)),
+                BatchPlanner.pack(List.of(1L, 1L, 1L, 1L, 1L), Long::longValue, 100, 2));
+    }
+
+    @Test
+    void anOversizedItemTravelsAlone() {
+        assertEquals(List.of(List.of(10L), List.of(500L), List.of(10L, 20L)),
+                BatchPlanner.pack(List.of(10L, 500L, 10L, 20L), Long::longValue, 100, 10));
+    }
+
+    @Test
+    void emptyItemsNeedNoBatch() {
+        assertTrue(BatchPlanner.pack(List.<Long>of(), Long::longValue, 100, 10).isEmpty());
+        // empty files still count against the item limit
+        assertEquals(3, BatchPlanner.pack(List.of(0L, 0L, 0L, 0L, 0L), Long::longValue, 100, 2).size());
+    }
+}
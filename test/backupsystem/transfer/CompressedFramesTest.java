@@ -0,0 +1,78 @@
+package backupsystem.transfer;
+
+import backupsystem.compression.Codecs;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedFramesTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void sendsARangeOfTheFileInFrames() throws IOException {
+        // text to be compressed, then noise sent as it is, over more than two frames
+        byte[] data = new byte[2 * CompressedFrames.FRAME_SIZE + 12345];
+        byte[] text = "compressible text ".repeat(CompressedFrames.FRAME_SIZE / 18 + 1).getBytes();
+        System.arraycopy(text, 0, data, 0, CompressedFrames.FRAME_SIZE);
+        byte[] noise = new byte[data.length - CompressedFrames.FRAME_SIZE];
+        new Random(1).nextBytes(noise);
+        System.arraycopy(noise, 0, data, CompressedFrames.FRAME_SIZE, noise.length);
+        Path source = dir.resolve("source");
+        Files.write(source, data);
+
+        long from = 1000;
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        long[] frames = {0};
+        try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            long stopped = CompressedFrames.send(file, from, data.length, Channels.newChannel(wire), Codecs.LZ, length -> frames[0]++);
+            assertEquals(data.length, stopped);
+        }
+        assertEquals(3, frames[0]);
+        assertTrue(wire.size() < data.length - from);
+
+        Path target = dir.resolve("target");
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(wire.toByteArray()));
+        try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = 0;
+            int length;
+            while ((length = CompressedFrames.receive(channel, file, position, data.length - from)) > 0)
+                position += length;
+            assertEquals(data.length - from, position);
+        }
+        assertArrayEquals(Arrays.copyOfRange(data, (int) from, data.length), Files.readAllBytes(target));
+    }
+
+    @Test
+    void rejectsCorruptedFrames() throws IOException {
+        byte[] data = "frame ".repeat(10_000).getBytes();
+        Path source = dir.resolve("source");
+        Files.write(source, data);
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+            CompressedFrames.send(file, 0, data.length, Channels.newChannel(wire), Codecs.DEFLATE, length -> {});
+        }
+
+        // a byte in the middle of the compressed data
+        byte[] tampered = wire.toByteArray();
+        tampered[tampered.length / 2] ^= 1;
+        assertThrows(IOException.class, () -> CompressedFrames.receive(Channels.newChannel(new ByteArrayInputStream(tampered))));
+        // cut in the middle of a frame
+        byte[] truncated = Arrays.copyOf(wire.toByteArray(), wire.size() - 10);
+        assertThrows(IOException.class, () -> CompressedFrames.receive(Channels.newChannel(new ByteArrayInputStream(truncated))));
+        assertNull(CompressedFrames.receive(Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+    }
+}
@@ -0,0 +1,47 @@
+package backupsystem.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationResultTest {
+    @Test
+    void waitersWakeAtQuorumAndAtCompletion() throws Exception {
+        ReplicationResult result = new ReplicationResult(List.of("p1", "p2", "p3"), 2);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?> quorum = executor.submit(() -> { result.awaitQuorum(); return null; });
+            Future<?> completion = executor.submit(() -> { result.awaitCompletion(); return null; });
+
+            result.succeeded("p1");
+            result.succeeded("p2");
+            quorum.get(5, TimeUnit.SECONDS);
+            assertTrue(result.isQuorumReached());
+            assertFalse(completion.isDone());
+
+            result.failed("p3", new IOException("disk full"));
+            completion.get(5, TimeUnit.SECONDS);
+            assertEquals(ReplicationResult.Status.FAILED, result.getStatuses().get("p3"));
+            assertEquals(2, result.getAcknowledged());
+        }
+    }
+
+    @Test
+    void quorumWaitEndsWhenItCannotBeReached() throws Exception {
+        ReplicationResult result = new ReplicationResult(List.of("p1", "p2", "p3"), 2);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<?> quorum = executor.submit(() -> { result.awaitQuorum(); return null; });
+            result.failed("p1", new IOException("refused"));
+            result.failed("p2", new IOException("refused"));
+            quorum.get(5, TimeUnit.SECONDS);
+            assertTrue(result.isQuorumUnreachable());
+            assertFalse(result.isComplete());
+        }
+    }
+}